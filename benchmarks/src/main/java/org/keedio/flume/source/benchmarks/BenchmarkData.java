@@ -0,0 +1,200 @@
+package org.keedio.flume.source.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Context;
+import org.keedio.flume.source.AvroRowSerializer;
+import org.keedio.flume.source.CSVRowSerializer;
+import org.keedio.flume.source.CellConverter;
+import org.keedio.flume.source.Column;
+import org.keedio.flume.source.JsonRowSerializer;
+import org.keedio.flume.source.RowSerializer;
+import org.keedio.flume.source.SQLSourceHelper;
+
+/**
+ * Rows and source configuration shared by the benchmarks. <p>
+ * Rows are made of <tt>text</tt> cells, of <tt>unicode</tt> text cells with characters outside ASCII,
+ * or of <tt>mixed</tt> cells cycling through the types returned by the databases: integers, decimals,
+ * timestamps, text, booleans and NULLs.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+class BenchmarkData {
+
+	/* rows handled by each benchmark invocation, so scores and allocations are per row */
+	static final int ROWS = 100;
+
+	/* table of the rows in the benchmarks polling the source */
+	static final String TABLE = "benchmark";
+
+	private static final int[] MIXED_TYPES = {Types.BIGINT, Types.DECIMAL, Types.TIMESTAMP, Types.VARCHAR,
+			Types.BOOLEAN, Types.VARCHAR};
+
+	private final File statusDirectory;
+	private final SQLSourceHelper sqlSourceHelper;
+
+	/**
+	 * @param properties Source properties set by the benchmark parameters
+	 * @throws IOException
+	 */
+	BenchmarkData(Map<String, String> properties) throws IOException {
+
+		statusDirectory = File.createTempFile("sql-source-benchmark", "");
+		statusDirectory.delete();
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", "jdbc:h2:mem:benchmark");
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "");
+		parameters.put("table", "benchmark");
+		parameters.put("status.file.path", statusDirectory.getPath());
+		parameters.put("status.file.name", "benchmark.status");
+		parameters.putAll(properties);
+		sqlSourceHelper = new SQLSourceHelper(new Context(parameters), "benchmark");
+	}
+
+	SQLSourceHelper getSqlSourceHelper() {
+		return sqlSourceHelper;
+	}
+
+	/**
+	 * @param format csv, json or avro, as in <tt>output.format</tt>
+	 * @param charset Charset of the event bodies
+	 * @param columns Columns of the rows
+	 * @return A serializer of the format with the default settings of the source
+	 */
+	static RowSerializer serializer(String format, Charset charset, Column[] columns) {
+
+		if ("json".equals(format)) {
+			return new JsonRowSerializer(columns, charset);
+		}
+		if ("avro".equals(format)) {
+			return new AvroRowSerializer(columns, TABLE, null);
+		}
+		return new CSVRowSerializer(',', true, charset, columns, CellConverter.Options.defaults());
+	}
+
+	/**
+	 * @param width Cells of each row
+	 * @param types text, unicode or mixed
+	 * @return The columns of the rows
+	 */
+	static Column[] columns(int width, String types) {
+
+		Column[] columns = new Column[width];
+		for (int i = 0; i < width; i++) {
+			int sqlType = "mixed".equals(types) ? MIXED_TYPES[i % MIXED_TYPES.length] : Types.VARCHAR;
+			columns[i] = new Column("column_" + i, sqlType);
+		}
+		return columns;
+	}
+
+	/**
+	 * @param width Cells of each row
+	 * @param types text, unicode or mixed
+	 * @return {@link #ROWS} rows as returned by a query result list
+	 */
+	static List<List<Object>> rows(int width, String types) {
+
+		List<List<Object>> rows = new ArrayList<List<Object>>(ROWS);
+		for (int r = 0; r < ROWS; r++) {
+			Object[] row = new Object[width];
+			for (int i = 0; i < width; i++) {
+				row[i] = cell(r, i, types);
+			}
+			rows.add(Arrays.asList(row));
+		}
+		return rows;
+	}
+
+	/**
+	 * Create the table of the rows of {@link #rows(int, String)}, with the columns of {@link #columns(int, String)}
+	 * @param connection Connection to the database
+	 * @param width Cells of each row
+	 * @param types text, unicode or mixed
+	 * @throws SQLException
+	 */
+	static void createTable(Connection connection, int width, String types) throws SQLException {
+
+		StringBuilder create = new StringBuilder("CREATE TABLE ").append(TABLE).append(" (");
+		StringBuilder insert = new StringBuilder("INSERT INTO ").append(TABLE).append(" VALUES (");
+		Column[] columns = columns(width, types);
+		for (int i = 0; i < width; i++) {
+			create.append(i == 0 ? "" : ", ").append(columns[i].getName()).append(' ')
+					.append(sqlType(columns[i].getSqlType()));
+			insert.append(i == 0 ? "?" : ", ?");
+		}
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(create.append(')').toString());
+		}
+		try (PreparedStatement statement = connection.prepareStatement(insert.append(')').toString())) {
+			for (List<Object> row : rows(width, types)) {
+				for (int i = 0; i < width; i++) {
+					statement.setObject(i + 1, row.get(i));
+				}
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	private static String sqlType(int sqlType) {
+
+		switch (sqlType) {
+		case Types.BIGINT:
+			return "BIGINT";
+		case Types.DECIMAL:
+			return "DECIMAL(20, 4)";
+		case Types.TIMESTAMP:
+			return "TIMESTAMP";
+		case Types.BOOLEAN:
+			return "BOOLEAN";
+		default:
+			return "VARCHAR(64)";
+		}
+	}
+
+	private static Object cell(int row, int column, String types) {
+
+		if ("unicode".equals(types)) {
+			return "\u00d1and\u00fa " + row + " a\u00e7\u00e3o " + column + " \u6771\u4eac";
+		}
+		if (!"mixed".equals(types)) {
+			return "value " + row + "," + column;
+		}
+		switch (MIXED_TYPES[column % MIXED_TYPES.length]) {
+		case Types.BIGINT:
+			return (long) row * 1000 + column;
+		case Types.DECIMAL:
+			return new BigDecimal(row + "." + column);
+		case Types.TIMESTAMP:
+			return new Timestamp(1500000000000L + row * 1000L);
+		case Types.BOOLEAN:
+			return row % 2 == 0;
+		default:
+			return row % 5 == 0 ? null : "value \"" + row + "\"";
+		}
+	}
+
+	void close() throws IOException {
+
+		sqlSourceHelper.closeStatusFile();
+		FileUtils.deleteDirectory(statusDirectory);
+	}
+}
@@ -0,0 +1,30 @@
+package org.keedio.flume.source.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks reporting rows per second and, through the GC profiler, the bytes allocated
+ * per row (<tt>gc.alloc.rate.norm</tt>). Accepts the usual JMH command line options, e.g. a regular
+ * expression selecting the benchmarks to run or <tt>-p width=16</tt> to fix a parameter.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(commandLine).addProfiler(GCProfiler.class);
+		if (commandLine.getIncludes().isEmpty()) {
+			options.include(Benchmarks.class.getPackage().getName() + ".*Benchmark");
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,152 @@
+package org.keedio.flume.source.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.keedio.flume.source.SQLSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building of the events sent to the channel from the rows of a query: the body, the format and timestamp
+ * headers, the headers of <tt>header.columns</tt> and, with <tt>rows.per.event</tt>, the packing of
+ * several rows in each body. The source is configured and polled as an agent does, with a custom query
+ * reading the same rows of an in-memory H2 table on each poll, so the score also includes the query, the
+ * serialization of the rows, the update of the status file and the delivery of the events to a memory
+ * channel, emptied after each invocation.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(BenchmarkData.ROWS)
+public class EventBenchmark {
+
+	private static final String URL = "jdbc:h2:mem:events;DB_CLOSE_DELAY=-1";
+
+	@Param({"16"})
+	private int width;
+
+	@Param({"csv", "avro"})
+	private String format;
+
+	@Param({"1", "10", "100"})
+	private int rowsPerEvent;
+
+	@Param({"", "column_3,column_5"})
+	private String headerColumns;
+
+	private Connection connection;
+	private File statusDirectory;
+	private MemoryChannel channel;
+	private SQLSource source;
+
+	@Setup
+	public void setup() throws IOException, SQLException {
+
+		connection = DriverManager.getConnection(URL, "sa", "");
+		BenchmarkData.createTable(connection, width, "mixed");
+
+		channel = new MemoryChannel();
+		Context channelContext = new Context();
+		channelContext.put("capacity", String.valueOf(BenchmarkData.ROWS));
+		channelContext.put("transactionCapacity", String.valueOf(BenchmarkData.ROWS));
+		channelContext.put("keep-alive", "0");
+		Configurables.configure(channel, channelContext);
+		channel.start();
+
+		statusDirectory = File.createTempFile("sql-source-benchmark", "");
+		statusDirectory.delete();
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", URL);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		parameters.put("query.engine", "jdbc");
+		/* the same rows on every poll, a full page so the next poll runs right away */
+		parameters.put("custom.query", "SELECT * FROM " + BenchmarkData.TABLE);
+		parameters.put("max.rows", String.valueOf(BenchmarkData.ROWS));
+		parameters.put("batch.size", String.valueOf(BenchmarkData.ROWS));
+		parameters.put("output.format", format);
+		parameters.put("rows.per.event", String.valueOf(rowsPerEvent));
+		parameters.put("header.columns", headerColumns);
+		parameters.put("status.file.path", statusDirectory.getPath());
+		parameters.put("status.file.name", "benchmark.status");
+
+		ReplicatingChannelSelector selector = new ReplicatingChannelSelector();
+		selector.setChannels(Collections.<Channel> singletonList(channel));
+		source = new SQLSource();
+		source.setName("benchmark");
+		source.setChannelProcessor(new ChannelProcessor(selector));
+		source.configure(new Context(parameters));
+		source.start();
+	}
+
+	@Benchmark
+	public void createEvents(Blackhole blackhole) throws EventDeliveryException {
+
+		blackhole.consume(source.process());
+
+		Transaction transaction = channel.getTransaction();
+		transaction.begin();
+		try {
+			/* at most one event per row, a take past the transaction capacity fails */
+			Event event;
+			for (int i = 0; i < BenchmarkData.ROWS && (event = channel.take()) != null; i++) {
+				blackhole.consume(event);
+			}
+			transaction.commit();
+		} finally {
+			transaction.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, SQLException {
+		source.stop();
+		channel.stop();
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+		}
+		connection.close();
+		FileUtils.deleteDirectory(statusDirectory);
+	}
+}
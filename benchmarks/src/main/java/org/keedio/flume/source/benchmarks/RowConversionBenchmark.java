@@ -0,0 +1,82 @@
+package org.keedio.flume.source.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.keedio.flume.source.RowSerializer;
+import org.keedio.flume.source.SQLSourceHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Conversion of query results into String rows by {@link SQLSourceHelper#getAllRows(List)}, kept for
+ * the users writing rows with CSVWriter, against the csv {@link RowSerializer} the source sends rows with.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(BenchmarkData.ROWS)
+public class RowConversionBenchmark {
+
+	@Param({"4", "16", "64"})
+	private int width;
+
+	@Param({"text", "mixed"})
+	private String types;
+
+	private BenchmarkData data;
+	private RowSerializer serializer;
+	private List<List<Object>> rows;
+	private Object[][] cursorRows;
+
+	@Setup
+	public void setup() throws IOException {
+
+		data = new BenchmarkData(Collections.<String, String> emptyMap());
+		serializer = BenchmarkData.serializer("csv", StandardCharsets.UTF_8, BenchmarkData.columns(width, types));
+		rows = BenchmarkData.rows(width, types);
+		cursorRows = new Object[rows.size()][];
+		for (int i = 0; i < rows.size(); i++) {
+			cursorRows[i] = rows.get(i).toArray();
+		}
+	}
+
+	@Benchmark
+	public List<String[]> getAllRows() {
+		return data.getSqlSourceHelper().getAllRows(rows);
+	}
+
+	@Benchmark
+	public void serializeCursorRow(Blackhole blackhole) {
+
+		for (Object[] row : cursorRows) {
+			blackhole.consume(serializer.serialize(row));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		data.close();
+	}
+}
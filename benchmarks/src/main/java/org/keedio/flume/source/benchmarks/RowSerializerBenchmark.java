@@ -0,0 +1,81 @@
+package org.keedio.flume.source.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.keedio.flume.source.RowSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Serialization of rows into event bodies by each output format and charset, from the rows of a
+ * query result list and from the rows read through a cursor.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(BenchmarkData.ROWS)
+public class RowSerializerBenchmark {
+
+	@Param({"4", "16", "64"})
+	private int width;
+
+	@Param({"text", "unicode", "mixed"})
+	private String types;
+
+	@Param({"csv", "json", "avro"})
+	private String format;
+
+	@Param({"UTF-8", "ISO-8859-1"})
+	private String charset;
+
+	private RowSerializer serializer;
+	private List<List<Object>> rows;
+	private Object[][] cursorRows;
+
+	@Setup
+	public void setup() {
+
+		serializer = BenchmarkData.serializer(format, Charset.forName(charset), BenchmarkData.columns(width, types));
+
+		rows = BenchmarkData.rows(width, types);
+		cursorRows = new Object[rows.size()][];
+		for (int i = 0; i < rows.size(); i++) {
+			cursorRows[i] = rows.get(i).toArray();
+		}
+	}
+
+	@Benchmark
+	public void serializeList(Blackhole blackhole) {
+
+		for (List<Object> row : rows) {
+			blackhole.consume(serializer.serialize(row));
+		}
+	}
+
+	@Benchmark
+	public void serializeCursorRow(Blackhole blackhole) {
+
+		for (Object[] row : cursorRows) {
+			blackhole.consume(serializer.serialize(row));
+		}
+	}
+}
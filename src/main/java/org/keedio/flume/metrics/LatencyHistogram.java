@@ -0,0 +1,101 @@
+package org.keedio.flume.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds, recorded concurrently without locks. <p>
+ * Values are counted in buckets growing exponentially, eight per power of two, so percentiles are
+ * reported with less than 7% error whatever their magnitude while the histogram keeps a fixed size.
+ * The max is kept exactly.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class LatencyHistogram {
+
+	/* values below it get a bucket each */
+	private static final int LINEAR_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int FIRST_EXPONENT = 4;
+
+	private final AtomicLongArray counts = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos Duration to record, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	/**
+	 * @param percentile Between 0 and 100
+	 * @return The duration in nanoseconds below which that percentage of the values are, 0 if empty
+	 */
+	public long getPercentile(double percentile) {
+
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(middle(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public void reset() {
+
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		max.set(0);
+	}
+
+	static int bucket(long value) {
+
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	/*
+	 * Value in the middle of a bucket
+	 */
+	private static long middle(int bucket) {
+
+		if (bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+		int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + subBucket * width + width / 2;
+	}
+}
@@ -12,7 +12,9 @@
  */
 package org.keedio.flume.metrics;
 
+import java.util.EnumMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.flume.instrumentation.MonitoredCounterGroup;
 
@@ -23,17 +25,49 @@ import org.apache.flume.instrumentation.MonitoredCounterGroup;
  */
 public class SqlSourceCounter extends MonitoredCounterGroup implements SqlSourceCounterMBean {
 
+	/**
+	 * Phases of a poll whose durations are kept in a histogram
+	 */
+	public enum Phase {
+		/** Query execution, without the reading of rows streamed through a cursor */
+		QUERY,
+		/** Conversion of one row into an event body */
+		CONVERSION,
+		/** Delivery of a batch of events to the channel processor */
+		CHANNEL,
+		/** Status file update */
+		CHECKPOINT
+	}
+
 	private long startProcessTime;
+	private final AtomicLong processBytes = new AtomicLong();
+	private final EnumMap<Phase, LatencyHistogram> latencies = new EnumMap<Phase, LatencyHistogram>(Phase.class);
 	
 	private static final String AVERAGE_THROUGHPUT = "average_throughput";
 	private static final String CURRENT_THROUGHPUT = "current_throughput";
 	private static final String MAX_THROUGHPUT = "max_throughput";
 	private static final String EVENT_COUNT = "events_count";
+	private static final String BYTE_COUNT = "bytes_count";
+	private static final String AVERAGE_BYTE_THROUGHPUT = "average_byte_throughput";
+	private static final String CURRENT_BYTE_THROUGHPUT = "current_byte_throughput";
+	private static final String CHANNEL_FULL_COUNT = "channel_full_count";
+	private static final String DUPLICATE_COUNT = "duplicate_count";
+	private static final String QUERY_FAILURE_COUNT = "query_failure_count";
+	private static final String CIRCUIT_OPEN_COUNT = "circuit_open_count";
+	private static final String OPEN_CIRCUITS = "open_circuits";
+    
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MILLIS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
     
-    private static final String[] ATTRIBUTES = {AVERAGE_THROUGHPUT, CURRENT_THROUGHPUT, MAX_THROUGHPUT, EVENT_COUNT};
+    private static final String[] ATTRIBUTES = {AVERAGE_THROUGHPUT, CURRENT_THROUGHPUT, MAX_THROUGHPUT, EVENT_COUNT,
+    		BYTE_COUNT, AVERAGE_BYTE_THROUGHPUT, CURRENT_BYTE_THROUGHPUT, CHANNEL_FULL_COUNT,
+    		DUPLICATE_COUNT, QUERY_FAILURE_COUNT, CIRCUIT_OPEN_COUNT, OPEN_CIRCUITS};
     
     public SqlSourceCounter(String name) {
         super(MonitoredCounterGroup.Type.SOURCE, name, ATTRIBUTES);
+        for (Phase phase : Phase.values()) {
+        	latencies.put(phase, new LatencyHistogram());
+        }
     }
 
     @Override
@@ -46,6 +80,80 @@ public class SqlSourceCounter extends MonitoredCounterGroup implements SqlSource
         return get(EVENT_COUNT);
     }
 
+    /**
+     * @param value Bytes of the event bodies sent to the channel
+     */
+    public void incrementByteCount(long value) {
+        addAndGet(BYTE_COUNT, value);
+        processBytes.addAndGet(value);
+    }
+
+    @Override
+    public long getByteCount() {
+        return get(BYTE_COUNT);
+    }
+
+    /**
+     * Count a batch of events the channel did not take
+     */
+    public void incrementChannelFullCount() {
+        increment(CHANNEL_FULL_COUNT);
+    }
+
+    @Override
+    public long getChannelFullCount() {
+        return get(CHANNEL_FULL_COUNT);
+    }
+
+    /**
+     * @param value Rows dropped because they were already sent
+     */
+    public void incrementDuplicateCount(long value) {
+        addAndGet(DUPLICATE_COUNT, value);
+    }
+
+    @Override
+    public long getDuplicateCount() {
+        return get(DUPLICATE_COUNT);
+    }
+
+    /**
+     * Count a query that failed to read from the database
+     */
+    public void incrementQueryFailureCount() {
+        increment(QUERY_FAILURE_COUNT);
+    }
+
+    @Override
+    public long getQueryFailureCount() {
+        return get(QUERY_FAILURE_COUNT);
+    }
+
+    /**
+     * A query stops being run right away after its consecutive failures
+     */
+    public void circuitOpened() {
+        increment(CIRCUIT_OPEN_COUNT);
+        increment(OPEN_CIRCUITS);
+    }
+
+    /**
+     * A query with its circuit open succeeded again
+     */
+    public void circuitClosed() {
+        addAndGet(OPEN_CIRCUITS, -1);
+    }
+
+    @Override
+    public long getCircuitOpenCount() {
+        return get(CIRCUIT_OPEN_COUNT);
+    }
+
+    @Override
+    public long getOpenCircuits() {
+        return get(OPEN_CIRCUITS);
+    }
+
     @Override
     public long getAverageThroughput() {
         return get(AVERAGE_THROUGHPUT);
@@ -60,26 +168,130 @@ public class SqlSourceCounter extends MonitoredCounterGroup implements SqlSource
     public long getMaxThroughput() {
         return get(MAX_THROUGHPUT);
     }
-    
+
+    @Override
+    public long getAverageByteThroughput() {
+        return get(AVERAGE_BYTE_THROUGHPUT);
+    }
+
+    @Override
+    public long getCurrentByteThroughput() {
+        return get(CURRENT_BYTE_THROUGHPUT);
+    }
+
+    /**
+     * @param phase Phase of the poll
+     * @param nanos Its duration
+     */
+    public void record(Phase phase, long nanos) {
+    	latencies.get(phase).record(nanos);
+    }
+
+    LatencyHistogram getLatency(Phase phase) {
+    	return latencies.get(phase);
+    }
+
+    @Override
+    public double getQueryLatencyP50() {
+    	return percentile(Phase.QUERY, 50);
+    }
+
+    @Override
+    public double getQueryLatencyP99() {
+    	return percentile(Phase.QUERY, 99);
+    }
+
+    @Override
+    public double getQueryLatencyMax() {
+    	return max(Phase.QUERY);
+    }
+
+    @Override
+    public double getConversionLatencyP50() {
+    	return percentile(Phase.CONVERSION, 50);
+    }
+
+    @Override
+    public double getConversionLatencyP99() {
+    	return percentile(Phase.CONVERSION, 99);
+    }
+
+    @Override
+    public double getConversionLatencyMax() {
+    	return max(Phase.CONVERSION);
+    }
+
+    @Override
+    public double getChannelLatencyP50() {
+    	return percentile(Phase.CHANNEL, 50);
+    }
+
+    @Override
+    public double getChannelLatencyP99() {
+    	return percentile(Phase.CHANNEL, 99);
+    }
+
+    @Override
+    public double getChannelLatencyMax() {
+    	return max(Phase.CHANNEL);
+    }
+
+    @Override
+    public double getCheckpointLatencyP50() {
+    	return percentile(Phase.CHECKPOINT, 50);
+    }
+
+    @Override
+    public double getCheckpointLatencyP99() {
+    	return percentile(Phase.CHECKPOINT, 99);
+    }
+
+    @Override
+    public double getCheckpointLatencyMax() {
+    	return max(Phase.CHECKPOINT);
+    }
+
+    @Override
+    public void resetLatencies() {
+    	for (LatencyHistogram histogram : latencies.values()) {
+    		histogram.reset();
+    	}
+    }
+
+    /* histograms are kept in ns and exposed in us */
+    private double percentile(Phase phase, double percentile) {
+    	return latencies.get(phase).getPercentile(percentile) / 1000.0;
+    }
+
+    private double max(Phase phase) {
+    	return latencies.get(phase).getMax() / 1000.0;
+    }
     
     public void startProcess(){
-    	startProcessTime = System.currentTimeMillis();
+    	startProcessTime = System.nanoTime();
+    	processBytes.set(0);
     }
     
     public void endProcess(int events){
     	
-    	long runningTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - getStartTime());
-    	long processTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - startProcessTime);
+    	long runningTime = System.currentTimeMillis() - getStartTime();
+    	long processTime = System.nanoTime() - startProcessTime;
     	long throughput = 0L;
+    	long byteThroughput = 0L;
     	
-    	if (events > 0 && processTime > 0)
-    		throughput = events/processTime;
+    	if (events > 0 && processTime > 0) {
+    		throughput = events * NANOS_PER_SECOND / processTime;
+    		byteThroughput = processBytes.get() * NANOS_PER_SECOND / processTime;
     		if (getMaxThroughput() < throughput)
     			set(MAX_THROUGHPUT,throughput);
+    	}
     	
-    	if (runningTime > 0 && getEventCount() > 0)
-    		set(AVERAGE_THROUGHPUT, (getEventCount()/runningTime));
+    	if (runningTime > 0 && getEventCount() > 0) {
+    		set(AVERAGE_THROUGHPUT, getEventCount() * MILLIS_PER_SECOND / runningTime);
+    		set(AVERAGE_BYTE_THROUGHPUT, getByteCount() * MILLIS_PER_SECOND / runningTime);
+    	}
     	
     	set(CURRENT_THROUGHPUT,throughput);
+    	set(CURRENT_BYTE_THROUGHPUT,byteThroughput);
     }
 }
@@ -31,4 +31,26 @@ public interface SqlSourceCounterMBean {
     public long getAverageThroughput();
     public long getCurrentThroughput();
     public long getMaxThroughput();
+    public long getByteCount();
+    public long getAverageByteThroughput();
+    public long getCurrentByteThroughput();
+    public long getChannelFullCount();
+    public long getDuplicateCount();
+    public long getQueryFailureCount();
+    public long getCircuitOpenCount();
+    public long getOpenCircuits();
+    /* latencies in us: query execution, conversion of a row, delivery of a batch and status file update */
+    public double getQueryLatencyP50();
+    public double getQueryLatencyP99();
+    public double getQueryLatencyMax();
+    public double getConversionLatencyP50();
+    public double getConversionLatencyP99();
+    public double getConversionLatencyMax();
+    public double getChannelLatencyP50();
+    public double getChannelLatencyP99();
+    public double getChannelLatencyMax();
+    public double getCheckpointLatencyP50();
+    public double getCheckpointLatencyP99();
+    public double getCheckpointLatencyMax();
+    public void resetLatencies();
 }
@@ -0,0 +1,202 @@
+package org.keedio.flume.source;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Serializes database rows as Avro binary records. <p>
+ * The record schema is derived once from the columns of the query result: every field is
+ * a union of null and the Avro type of the column. Dates and timestamps are written as
+ * milliseconds since the epoch and decimals as strings. Rows are written straight to a
+ * reused encoder, without building generic records. <p>
+ * The schema is sent in the <tt>flume.avro.schema.literal</tt> header, or only its location in
+ * <tt>flume.avro.schema.url</tt> when <tt>avro.schema.url</tt> is set, as expected by the Flume
+ * Avro event serializer.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class AvroRowSerializer implements RowSerializer {
+
+	static final String SCHEMA_LITERAL_HEADER = "flume.avro.schema.literal";
+	static final String SCHEMA_URL_HEADER = "flume.avro.schema.url";
+	private static final String DEFAULT_RECORD_NAME = "row";
+
+	private enum FieldType {
+		BOOLEAN(Schema.Type.BOOLEAN), INT(Schema.Type.INT), LONG(Schema.Type.LONG), FLOAT(Schema.Type.FLOAT),
+		DOUBLE(Schema.Type.DOUBLE), BYTES(Schema.Type.BYTES), STRING(Schema.Type.STRING);
+
+		private final Schema.Type avroType;
+
+		FieldType(Schema.Type avroType) {
+			this.avroType = avroType;
+		}
+	}
+
+	private final Schema schema;
+	private final FieldType[] types;
+	private final Map<String, String> headers;
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final BinaryEncoder encoder;
+
+	/**
+	 * @param columns Columns of the query result
+	 * @param recordName Name of the record schema, the table name if set
+	 * @param schemaUrl Location of the schema sent instead of the schema itself, may be null
+	 */
+	public AvroRowSerializer(Column[] columns, String recordName, String schemaUrl) {
+
+		types = new FieldType[columns.length];
+		List<Schema.Field> fields = new ArrayList<Schema.Field>(columns.length);
+		Set<String> names = new HashSet<String>();
+
+		for (int i = 0; i < columns.length; i++) {
+			types[i] = fieldType(columns[i].getSqlType());
+			String name = avroName(columns[i].getName(), "column" + (i + 1));
+			if (!names.add(name)) {
+				name = name + "_" + (i + 1);
+				names.add(name);
+			}
+			Schema nullable = Schema.createUnion(Arrays.asList(Schema.create(Schema.Type.NULL),
+					Schema.create(types[i].avroType)));
+			fields.add(new Schema.Field(name, nullable, null, null));
+		}
+
+		schema = Schema.createRecord(avroName(recordName, DEFAULT_RECORD_NAME), null, null, false);
+		schema.setFields(fields);
+
+		headers = Collections.singletonMap(schemaUrl == null ? SCHEMA_LITERAL_HEADER : SCHEMA_URL_HEADER,
+				schemaUrl == null ? schema.toString() : schemaUrl);
+		encoder = EncoderFactory.get().binaryEncoder(out, null);
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	@Override
+	public byte[] serialize(Object[] row) {
+		return serialize(Arrays.asList(row));
+	}
+
+	@Override
+	public byte[] serialize(List<Object> row) {
+
+		out.reset();
+		try {
+			for (int i = 0; i < types.length; i++) {
+				Object cell = i < row.size() ? row.get(i) : null;
+				if (cell == null) {
+					encoder.writeIndex(0);
+					encoder.writeNull();
+				} else {
+					encoder.writeIndex(1);
+					write(types[i], cell);
+				}
+			}
+			encoder.flush();
+		} catch (IOException e) {
+			/* only written to memory */
+			throw new IllegalStateException("Error encoding row", e);
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	private void write(FieldType type, Object cell) throws IOException {
+
+		switch (type) {
+		case BOOLEAN:
+			encoder.writeBoolean(cell instanceof Boolean ? (Boolean) cell : Boolean.parseBoolean(cell.toString()));
+			break;
+		case INT:
+			encoder.writeInt(cell instanceof Number ? ((Number) cell).intValue() : Integer.parseInt(cell.toString()));
+			break;
+		case LONG:
+			if (cell instanceof Date) {
+				encoder.writeLong(((Date) cell).getTime());
+			} else {
+				encoder.writeLong(cell instanceof Number ? ((Number) cell).longValue() : Long.parseLong(cell.toString()));
+			}
+			break;
+		case FLOAT:
+			encoder.writeFloat(cell instanceof Number ? ((Number) cell).floatValue() : Float.parseFloat(cell.toString()));
+			break;
+		case DOUBLE:
+			encoder.writeDouble(cell instanceof Number ? ((Number) cell).doubleValue() : Double.parseDouble(cell.toString()));
+			break;
+		case BYTES:
+			byte[] bytes = cell instanceof byte[] ? (byte[]) cell : cell.toString().getBytes("UTF-8");
+			encoder.writeBytes(bytes, 0, bytes.length);
+			break;
+		default:
+			encoder.writeString(cell.toString());
+		}
+	}
+
+	private static FieldType fieldType(int sqlType) {
+
+		switch (sqlType) {
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return FieldType.BOOLEAN;
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return FieldType.INT;
+		case Types.BIGINT:
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return FieldType.LONG;
+		case Types.REAL:
+			return FieldType.FLOAT;
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return FieldType.DOUBLE;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return FieldType.BYTES;
+		default:
+			return FieldType.STRING;
+		}
+	}
+
+	/*
+	 * Avro names only allow letters, digits and underscores, and can not start with a digit
+	 */
+	private static String avroName(String name, String defaultName) {
+
+		if (name == null || name.isEmpty()) {
+			return defaultName;
+		}
+		StringBuilder builder = new StringBuilder(name.length() + 1);
+		if (Character.isDigit(name.charAt(0))) {
+			builder.append('_');
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			builder.append(c < 128 && (Character.isLetterOrDigit(c) || c == '_') ? c : '_');
+		}
+		return builder.toString();
+	}
+}
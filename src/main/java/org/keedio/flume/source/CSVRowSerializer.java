@@ -0,0 +1,93 @@
+package org.keedio.flume.source;
+
+import java.nio.charset.Charset;
+
+/**
+ * Serializes database rows directly into event bodies. <p>
+ * Produces the same delimiter separated lines as opencsv CSVWriter (without line end).
+ * Each cell is written by the {@link CellConverter} of its column, null cells as <tt>null.value</tt>
+ * (empty by default).
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class CSVRowSerializer extends TextRowSerializer {
+
+	private static final char QUOTE_CHAR = '"';
+	private static final char ESCAPE_CHAR = '"';
+
+	private final char delimiter;
+	private final boolean encloseByQuotes;
+	private final CellConverter[] converters;
+	private final CellConverter generic;
+
+	/**
+	 * @param delimiter Character to separate the cells of a row
+	 * @param encloseByQuotes If true all cells are quoted, otherwise only cells containing special characters
+	 * @param charset Charset to encode the event bodies
+	 */
+	public CSVRowSerializer(char delimiter, boolean encloseByQuotes, Charset charset) {
+		this(delimiter, encloseByQuotes, charset, null, CellConverter.Options.defaults());
+	}
+
+	/**
+	 * @param delimiter Character to separate the cells of a row
+	 * @param encloseByQuotes If true all cells are quoted, otherwise only cells containing special characters
+	 * @param charset Charset to encode the event bodies
+	 * @param columns Columns of the query result selecting the conversion of their cells, null if not known
+	 * @param options Conversion settings of the cells
+	 */
+	public CSVRowSerializer(char delimiter, boolean encloseByQuotes, Charset charset, Column[] columns,
+			CellConverter.Options options) {
+
+		super(charset);
+		this.delimiter = delimiter;
+		this.encloseByQuotes = encloseByQuotes;
+		this.converters = CellConverter.forColumns(columns, options);
+		this.generic = CellConverter.generic(options);
+	}
+
+	@Override
+	protected void appendCell(int index, Object cell) {
+
+		if (index != 0) {
+			append(delimiter);
+		}
+		if (encloseByQuotes) {
+			append(QUOTE_CHAR);
+		}
+
+		/* the cell is written as it is, and written again escaped in the rare case it has to */
+		int start = position();
+		(index < converters.length ? converters[index] : generic).write(cell, this);
+		boolean special = containsSpecialCharacters(start);
+
+		if (special) {
+			String value = cut(start);
+			if (!encloseByQuotes) {
+				append(QUOTE_CHAR);
+			}
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == QUOTE_CHAR || c == ESCAPE_CHAR) {
+					append(ESCAPE_CHAR);
+				}
+				append(c);
+			}
+		}
+		if (encloseByQuotes || special) {
+			append(QUOTE_CHAR);
+		}
+	}
+
+	private boolean containsSpecialCharacters(int start) {
+
+		for (int i = start; i < position(); i++) {
+			char c = charAt(i);
+			if (c == QUOTE_CHAR || c == ESCAPE_CHAR || c == delimiter || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,343 @@
+package org.keedio.flume.source;
+
+import java.math.BigDecimal;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.flume.conf.ConfigurationException;
+
+/**
+ * Writes the cells of a column as text, with a conversion selected once from the SQL type of the
+ * column instead of calling <tt>toString</tt> on every cell. <p>
+ * Integers are written without intermediate strings, decimals without exponent, dates, times and
+ * timestamps in JDBC escape format (or with the patterns of <tt>date.format</tt>, <tt>time.format</tt>
+ * and <tt>timestamp.format</tt>, in a formatter kept by the converter), binary values in base64 or
+ * hex and NULLs as <tt>null.value</tt>. A cell whose class does not match the type of its column is
+ * converted by its class. Converters keep state, so each one must be used by one thread.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public abstract class CellConverter {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Conversion settings shared by the converters of a query
+	 */
+	public static class Options {
+
+		private final String nullValue, binaryEncoding, datePattern, timePattern, timestampPattern;
+
+		/**
+		 * @param nullValue Text written for NULL cells
+		 * @param binaryEncoding base64 or hex
+		 * @param datePattern SimpleDateFormat pattern of dates, null for yyyy-mm-dd
+		 * @param timePattern SimpleDateFormat pattern of times, null for hh:mm:ss
+		 * @param timestampPattern SimpleDateFormat pattern of timestamps, null for yyyy-mm-dd hh:mm:ss.fffffffff
+		 * @throws ConfigurationException If the encoding or a pattern is not valid
+		 */
+		public Options(String nullValue, String binaryEncoding, String datePattern, String timePattern,
+				String timestampPattern) {
+
+			if (!"base64".equals(binaryEncoding) && !"hex".equals(binaryEncoding)) {
+				throw new ConfigurationException("binary.encoding must be base64 or hex");
+			}
+			this.nullValue = nullValue;
+			this.binaryEncoding = binaryEncoding;
+			this.datePattern = checkPattern("date.format", datePattern);
+			this.timePattern = checkPattern("time.format", timePattern);
+			this.timestampPattern = checkPattern("timestamp.format", timestampPattern);
+		}
+
+		/**
+		 * @return The options giving the same text as <tt>toString</tt> for the usual classes
+		 */
+		public static Options defaults() {
+			return new Options("", "base64", null, null, null);
+		}
+
+		private static String checkPattern(String property, String pattern) {
+
+			if (pattern != null) {
+				try {
+					new SimpleDateFormat(pattern);
+				} catch (IllegalArgumentException e) {
+					throw new ConfigurationException(property + " is not a valid date pattern: " + pattern, e);
+				}
+			}
+			return pattern;
+		}
+	}
+
+	private final String nullValue;
+
+	protected CellConverter(Options options) {
+		this.nullValue = options.nullValue;
+	}
+
+	/**
+	 * @param cell The cell, using database types
+	 * @param out Serializer where its text is appended
+	 */
+	public final void write(Object cell, TextRowSerializer out) {
+
+		if (cell == null) {
+			out.append(nullValue);
+		} else {
+			writeValue(cell, out);
+		}
+	}
+
+	protected abstract void writeValue(Object cell, TextRowSerializer out);
+
+	/**
+	 * @param columns Columns of the query result, null if not known
+	 * @param options Conversion settings
+	 * @return A converter for each column
+	 */
+	public static CellConverter[] forColumns(Column[] columns, Options options) {
+
+		if (columns == null) {
+			return new CellConverter[0];
+		}
+		GenericConverter generic = new GenericConverter(options);
+		CellConverter[] converters = new CellConverter[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			converters[i] = forType(columns[i].getSqlType(), options, generic);
+		}
+		return converters;
+	}
+
+	/**
+	 * @param options Conversion settings
+	 * @return A converter selecting the conversion of each cell by its class
+	 */
+	public static CellConverter generic(Options options) {
+		return new GenericConverter(options);
+	}
+
+	private static CellConverter forType(int sqlType, Options options, GenericConverter generic) {
+
+		switch (sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return new IntegerConverter(options, generic);
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return new DecimalConverter(options, generic);
+		case Types.DATE:
+			return new DateTimeConverter(options, generic, Types.DATE);
+		case Types.TIME:
+			return new DateTimeConverter(options, generic, Types.TIME);
+		case Types.TIMESTAMP:
+			return new DateTimeConverter(options, generic, Types.TIMESTAMP);
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return new BinaryConverter(options, generic);
+		default:
+			return generic;
+		}
+	}
+
+	/**
+	 * Converter of the cells of unknown type, by their class
+	 */
+	private static class GenericConverter extends CellConverter {
+
+		private final IntegerConverter integers;
+		private final DecimalConverter decimals;
+		private final DateTimeConverter dates, times, timestamps;
+		private final BinaryConverter binaries;
+
+		GenericConverter(Options options) {
+			super(options);
+			integers = new IntegerConverter(options, this);
+			decimals = new DecimalConverter(options, this);
+			dates = new DateTimeConverter(options, this, Types.DATE);
+			times = new DateTimeConverter(options, this, Types.TIME);
+			timestamps = new DateTimeConverter(options, this, Types.TIMESTAMP);
+			binaries = new BinaryConverter(options, this);
+		}
+
+		@Override
+		protected void writeValue(Object cell, TextRowSerializer out) {
+
+			if (cell instanceof String) {
+				out.append((String) cell);
+			} else if (IntegerConverter.isInteger(cell)) {
+				integers.writeValue(cell, out);
+			} else if (cell instanceof BigDecimal) {
+				decimals.writeValue(cell, out);
+			} else if (cell instanceof Date) {
+				/* java.sql.Date and Time are formatted as such, any other date as a timestamp */
+				(cell instanceof java.sql.Date ? dates : cell instanceof Time ? times : timestamps).writeValue(cell, out);
+			} else if (cell instanceof byte[]) {
+				binaries.writeValue(cell, out);
+			} else {
+				out.append(cell.toString());
+			}
+		}
+	}
+
+	private static class IntegerConverter extends CellConverter {
+
+		private final GenericConverter generic;
+
+		IntegerConverter(Options options, GenericConverter generic) {
+			super(options);
+			this.generic = generic;
+		}
+
+		static boolean isInteger(Object cell) {
+			return cell instanceof Long || cell instanceof Integer || cell instanceof Short || cell instanceof Byte;
+		}
+
+		@Override
+		protected void writeValue(Object cell, TextRowSerializer out) {
+
+			if (isInteger(cell)) {
+				out.append(((Number) cell).longValue());
+			} else {
+				generic.writeValue(cell, out);
+			}
+		}
+	}
+
+	private static class DecimalConverter extends CellConverter {
+
+		private final GenericConverter generic;
+
+		DecimalConverter(Options options, GenericConverter generic) {
+			super(options);
+			this.generic = generic;
+		}
+
+		@Override
+		protected void writeValue(Object cell, TextRowSerializer out) {
+
+			if (cell instanceof BigDecimal) {
+				/* some drivers return 1E+3 for 1000 */
+				out.append(((BigDecimal) cell).toPlainString());
+			} else if (IntegerConverter.isInteger(cell)) {
+				out.append(((Number) cell).longValue());
+			} else {
+				generic.writeValue(cell, out);
+			}
+		}
+	}
+
+	private static class DateTimeConverter extends CellConverter {
+
+		private final GenericConverter generic;
+		private final int sqlType;
+		private final Calendar calendar = Calendar.getInstance();
+		private final SimpleDateFormat format;
+		private final StringBuffer formatted = new StringBuffer();
+		private final FieldPosition position = new FieldPosition(0);
+
+		DateTimeConverter(Options options, GenericConverter generic, int sqlType) {
+
+			super(options);
+			this.generic = generic;
+			this.sqlType = sqlType;
+			String pattern = sqlType == Types.DATE ? options.datePattern
+					: sqlType == Types.TIME ? options.timePattern : options.timestampPattern;
+			this.format = pattern == null ? null : new SimpleDateFormat(pattern);
+		}
+
+		@Override
+		protected void writeValue(Object cell, TextRowSerializer out) {
+
+			if (!(cell instanceof Date)) {
+				generic.writeValue(cell, out);
+				return;
+			}
+
+			Date date = (Date) cell;
+			if (format != null) {
+				formatted.setLength(0);
+				format.format(date, formatted, position);
+				out.append(formatted);
+				return;
+			}
+
+			/* same text as java.sql.Date, Time and Timestamp toString */
+			calendar.setTimeInMillis(date.getTime());
+			if (sqlType != Types.TIME) {
+				out.appendPadded(calendar.get(Calendar.YEAR), 4);
+				out.append('-');
+				out.appendPadded(calendar.get(Calendar.MONTH) + 1, 2);
+				out.append('-');
+				out.appendPadded(calendar.get(Calendar.DAY_OF_MONTH), 2);
+			}
+			if (sqlType == Types.TIMESTAMP) {
+				out.append(' ');
+			}
+			if (sqlType != Types.DATE) {
+				out.appendPadded(calendar.get(Calendar.HOUR_OF_DAY), 2);
+				out.append(':');
+				out.appendPadded(calendar.get(Calendar.MINUTE), 2);
+				out.append(':');
+				out.appendPadded(calendar.get(Calendar.SECOND), 2);
+			}
+			if (sqlType == Types.TIMESTAMP) {
+				out.append('.');
+				int nanos = date instanceof Timestamp ? ((Timestamp) date).getNanos()
+						: calendar.get(Calendar.MILLISECOND) * 1000000;
+				appendNanos(nanos, out);
+			}
+		}
+
+		private static void appendNanos(int nanos, TextRowSerializer out) {
+
+			if (nanos == 0) {
+				out.append('0');
+				return;
+			}
+			int digits = 9;
+			while (nanos % 10 == 0) {
+				nanos /= 10;
+				digits--;
+			}
+			out.appendPadded(nanos, digits);
+		}
+	}
+
+	private static class BinaryConverter extends CellConverter {
+
+		private final GenericConverter generic;
+		private final boolean hex;
+
+		BinaryConverter(Options options, GenericConverter generic) {
+			super(options);
+			this.generic = generic;
+			this.hex = "hex".equals(options.binaryEncoding);
+		}
+
+		@Override
+		protected void writeValue(Object cell, TextRowSerializer out) {
+
+			if (!(cell instanceof byte[])) {
+				generic.writeValue(cell, out);
+			} else if (hex) {
+				for (byte b : (byte[]) cell) {
+					out.append(HEX_DIGITS[(b >> 4) & 0xf]);
+					out.append(HEX_DIGITS[b & 0xf]);
+				}
+			} else {
+				out.append(Base64.encodeBase64String((byte[]) cell));
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package org.keedio.flume.source;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.conf.ConfigurationException;
+import org.hibernate.dialect.DB2Dialect;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Change-log table filled by triggers of the source table, read by the source instead of the table itself. <p>
+ * Every insert, update and delete of the table adds a row to the change-log with an increasing sequence
+ * number, the key of the changed row and the operation: <tt>I</tt>, <tt>U</tt> or <tt>D</tt>. The source
+ * pages the change-log by its sequence number and joins each change back to the current row of the table.
+ * <p>
+ * With <tt>changelog.install</tt> the table and its triggers are created when the change-log does not exist,
+ * on H2, MySQL, Derby and DB2. Other databases need them created as described in the README.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class ChangeLog {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ChangeLog.class);
+
+	static final String SEQUENCE_COLUMN = "change_seq";
+	static final String OPERATION_COLUMN = "change_op";
+
+	private ChangeLog() {
+	}
+
+	/**
+	 * Create the change-log table and the triggers filling it, unless the table exists already
+	 * @param connection Connection to the database, committed when it is not in auto commit mode
+	 * @param dialect Dialect of the database
+	 * @param sqlSourceHelper Configuration parameters
+	 * @throws SQLException
+	 */
+	static void install(Connection connection, Dialect dialect, SQLSourceHelper sqlSourceHelper) throws SQLException {
+
+		String changeLogTable = sqlSourceHelper.getChangeLogTable();
+		if (exists(connection, changeLogTable)) {
+			return;
+		}
+
+		LOG.info("Creating change-log table {} of {}", changeLogTable, sqlSourceHelper.getTable());
+		List<String> statements = getInstallStatements(dialect, sqlSourceHelper.getTable(),
+				sqlSourceHelper.getChangeLogKeyColumn(), getKeyType(connection, dialect, sqlSourceHelper), changeLogTable);
+		try (Statement statement = connection.createStatement()) {
+			for (String sql : statements) {
+				statement.execute(sql);
+			}
+		}
+		if (!connection.getAutoCommit()) {
+			connection.commit();
+		}
+	}
+
+	/**
+	 * @param dialect Dialect of the database
+	 * @param table Source table
+	 * @param keyColumn Key column of the source table
+	 * @param keyType Type of the key column in the dialect
+	 * @param changeLogTable Change-log table to create
+	 * @return The statements creating the change-log table, its index and its triggers
+	 */
+	static List<String> getInstallStatements(Dialect dialect, String table, String keyColumn, String keyType,
+			String changeLogTable) {
+
+		if (!dialect.supportsIdentityColumns()) {
+			throw new ConfigurationException("changelog.install needs identity columns, not supported by " + dialect);
+		}
+
+		String sequenceType = (dialect.hasDataTypeInIdentityColumn() ? dialect.getTypeName(Types.BIGINT) + " " : "")
+				+ dialect.getIdentityColumnString(Types.BIGINT);
+		List<String> statements = new ArrayList<String>();
+		statements.add("CREATE TABLE " + changeLogTable + " (" + SEQUENCE_COLUMN + " " + sequenceType + ", " + keyColumn
+				+ " " + keyType + ", " + OPERATION_COLUMN + " CHAR(1) NOT NULL, PRIMARY KEY (" + SEQUENCE_COLUMN + "))");
+		/* the latest change of each key is looked up by the selection query */
+		statements.add("CREATE INDEX " + changeLogTable + "_key ON " + changeLogTable + " (" + keyColumn + ", "
+				+ SEQUENCE_COLUMN + ")");
+
+		String insert = "INSERT INTO " + changeLogTable + " (" + keyColumn + ", " + OPERATION_COLUMN + ") VALUES ";
+		if (dialect instanceof H2Dialect) {
+			/* H2 triggers are Java objects, created by the database from this script */
+			statements.add("CREATE TRIGGER " + changeLogTable + "_trigger AFTER INSERT, UPDATE, DELETE ON " + table
+					+ " FOR EACH ROW AS $$//javascript\n var key; new org.h2.api.Trigger({"
+					+ " init: function (c, schema, name, table) { var s = c.createStatement(); try {"
+					+ " var m = s.executeQuery('SELECT * FROM \"' + schema + '\".\"' + table + '\" WHERE 1 = 0').getMetaData();"
+					+ " for (var i = 1; i <= m.getColumnCount(); i++) { if (m.getColumnName(i).equalsIgnoreCase('" + keyColumn
+					+ "')) { key = i - 1; } } } finally { s.close(); } },"
+					+ " fire: function (c, o, n) { var s = c.prepareStatement('" + insert + "(?, ?)'); try {"
+					+ " s.setObject(1, (n != null ? n : o)[key]); s.setString(2, n == null ? 'D' : o == null ? 'I' : 'U');"
+					+ " s.executeUpdate(); } finally { s.close(); } },"
+					+ " close: function () {}, remove: function () {} }) $$");
+		} else if (dialect instanceof MySQLDialect) {
+			statements.add(trigger(changeLogTable, "insert", "INSERT", table, "", insert + "(NEW." + keyColumn + ", 'I')"));
+			statements.add(trigger(changeLogTable, "update", "UPDATE", table, "", insert + "(NEW." + keyColumn + ", 'U')"));
+			statements.add(trigger(changeLogTable, "delete", "DELETE", table, "", insert + "(OLD." + keyColumn + ", 'D')"));
+		} else if (isDerby(dialect) || dialect instanceof DB2Dialect) {
+			statements.add(trigger(changeLogTable, "insert", "INSERT", table, "REFERENCING NEW AS N ",
+					insert + "(N." + keyColumn + ", 'I')"));
+			statements.add(trigger(changeLogTable, "update", "UPDATE", table, "REFERENCING NEW AS N ",
+					insert + "(N." + keyColumn + ", 'U')"));
+			statements.add(trigger(changeLogTable, "delete", "DELETE", table, "REFERENCING OLD AS O ",
+					insert + "(O." + keyColumn + ", 'D')"));
+		} else {
+			throw new ConfigurationException("changelog.install is not supported by " + dialect
+					+ ", create the change-log table and its triggers before starting the source");
+		}
+		return statements;
+	}
+
+	/* DerbyDialect is deprecated, the versioned Derby dialects are told apart by name */
+	private static boolean isDerby(Dialect dialect) {
+		return dialect.getClass().getName().startsWith("org.hibernate.dialect.Derby");
+	}
+
+	private static String trigger(String changeLogTable, String name, String event, String table, String referencing,
+			String insert) {
+		return "CREATE TRIGGER " + changeLogTable + "_" + name + " AFTER " + event + " ON " + table + " " + referencing
+				+ "FOR EACH ROW " + insert;
+	}
+
+	private static boolean exists(Connection connection, String changeLogTable) throws SQLException {
+
+		try (Statement statement = connection.createStatement()) {
+			statement.executeQuery("SELECT 1 FROM " + changeLogTable + " WHERE 1 = 0").close();
+			return true;
+		} catch (SQLException e) {
+			/* some databases abort the whole transaction after a failed statement */
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * Type of the key column in the source table, to declare the same one in the change-log
+	 */
+	private static String getKeyType(Connection connection, Dialect dialect, SQLSourceHelper sqlSourceHelper)
+			throws SQLException {
+
+		try (PreparedStatement statement = connection.prepareStatement("SELECT " + sqlSourceHelper.getChangeLogKeyColumn()
+				+ " FROM " + sqlSourceHelper.getTable() + " WHERE 1 = 0")) {
+			ResultSetMetaData metaData = statement.executeQuery().getMetaData();
+			int precision = metaData.getPrecision(1);
+			return dialect.getTypeName(metaData.getColumnType(1), precision, precision, metaData.getScale(1));
+		}
+	}
+}
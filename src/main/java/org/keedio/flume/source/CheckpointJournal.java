@@ -0,0 +1,373 @@
+package org.keedio.flume.source;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static org.json.simple.parser.ParseException.ERROR_UNEXPECTED_EXCEPTION;
+
+/**
+ * Saves the status of the source as a snapshot file plus an append-only journal. <p>
+ * Each checkpoint appends one line to the journal with a sequence number, a CRC and the whole
+ * status in JSON, so a write interrupted by a crash only loses that line. When the journal reaches
+ * <tt>status.journal.max.records</tt> lines it is compacted: the status file is replaced atomically by
+ * a new snapshot and the journal is truncated. The snapshot keeps the JSON format of the status file,
+ * with the sequence number of its last checkpoint. <p>
+ * Durability is selected with <tt>status.file.sync</tt>: <tt>always</tt> forces every checkpoint to disk,
+ * <tt>batch</tt> forces them at most once every <tt>status.file.sync.interval</tt> ms (group commit), the last
+ * ones by a background thread once the interval is over, and <tt>none</tt> leaves it to the operating system.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class CheckpointJournal {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CheckpointJournal.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final String JOURNAL_SUFFIX = ".journal";
+	static final String CHECKPOINT_STATUS_FILE = "Checkpoint";
+
+	/* forces the checkpoints of batch mode left unsynced when no other one follows them */
+	private static final ScheduledExecutorService SYNCER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sql-source-status-sync").build());
+
+	public enum SyncMode {
+		ALWAYS, BATCH, NONE
+	}
+
+	private final File snapshot, journal;
+	private final SyncMode syncMode;
+	private final long syncInterval;
+	private final int maxRecords;
+	private FileChannel channel;
+	private long sequence, lastSync;
+	private int records;
+	private boolean unsynced;
+	private ScheduledFuture<?> pendingSync;
+
+	/**
+	 * @param snapshot The status file
+	 * @param syncMode When checkpoints are forced to disk
+	 * @param syncInterval Min ms between forces in batch mode
+	 * @param maxRecords Journal lines written before compacting it into the status file
+	 */
+	public CheckpointJournal(File snapshot, SyncMode syncMode, long syncInterval, int maxRecords) {
+		this.snapshot = snapshot;
+		this.journal = new File(snapshot.getPath() + JOURNAL_SUFFIX);
+		this.syncMode = syncMode;
+		this.syncInterval = syncInterval;
+		this.maxRecords = maxRecords;
+	}
+
+	/**
+	 * @return true if there is a status file or a journal to recover from
+	 */
+	public boolean exists() {
+		return snapshot.isFile() || journal.isFile();
+	}
+
+	/**
+	 * Read the last status saved: the snapshot followed by the newer checkpoints of the journal.
+	 * Lines of the journal cut by a crash are ignored and removed, so the next checkpoints are
+	 * appended after the last valid one.
+	 * @return The status
+	 * @throws IOException
+	 * @throws ParseException If neither the snapshot nor the journal contain a valid status
+	 */
+	public synchronized Map<String, Object> recover() throws IOException, ParseException {
+
+		Map<String, Object> status = null;
+		sequence = 0;
+
+		if (snapshot.isFile()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(snapshot), UTF8))) {
+				status = toMap(new JSONParser().parse(reader));
+				Object checkpoint = status.remove(CHECKPOINT_STATUS_FILE);
+				if (checkpoint != null) {
+					sequence = Long.parseLong((String) checkpoint);
+				}
+			} catch (ParseException | RuntimeException e) {
+				LOG.warn("Status file " + snapshot + " is not valid, recovering from its journal", e);
+				status = null;
+			}
+		}
+
+		records = 0;
+		if (journal.isFile()) {
+			byte[] bytes = Files.readAllBytes(journal.toPath());
+			/* end of the last complete and valid line */
+			int valid = 0;
+			for (int end; valid < bytes.length && (end = indexOf(bytes, (byte) '\n', valid)) >= 0; valid = end + 1) {
+				Map<String, Object> checkpoint = parseRecord(new String(bytes, valid, end - valid, UTF8));
+				if (checkpoint == null) {
+					break;
+				}
+				records++;
+				long recordSequence = Long.parseLong((String) checkpoint.remove(CHECKPOINT_STATUS_FILE));
+				if (recordSequence > sequence || status == null) {
+					sequence = recordSequence;
+					status = checkpoint;
+				}
+			}
+			if (valid < bytes.length) {
+				LOG.warn("Removing incomplete checkpoints at the end of {}", journal);
+				truncateJournal(valid);
+			}
+		}
+
+		if (status == null) {
+			throw new ParseException(ERROR_UNEXPECTED_EXCEPTION);
+		}
+		return status;
+	}
+
+	/**
+	 * Append a checkpoint to the journal, compacting it when it is full
+	 * @param status The whole status of the source
+	 * @throws IOException
+	 */
+	public synchronized void append(Map<String, Object> status) throws IOException {
+
+		if (records >= maxRecords) {
+			writeSnapshot(status);
+			return;
+		}
+
+		if (channel == null) {
+			channel = new FileOutputStream(journal, true).getChannel();
+		}
+
+		sequence++;
+		String json = JSONValue.toJSONString(withSequence(status));
+		byte[] line = (sequence + " " + crc(json) + " " + json + "\n").getBytes(UTF8);
+		ByteBuffer buffer = ByteBuffer.wrap(line);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		records++;
+		unsynced = true;
+
+		long sinceSync = System.currentTimeMillis() - lastSync;
+		if (syncMode == SyncMode.ALWAYS || syncMode == SyncMode.BATCH && sinceSync >= syncInterval) {
+			sync();
+		} else if (syncMode == SyncMode.BATCH && pendingSync == null) {
+			pendingSync = SYNCER.schedule(new Runnable() {
+				@Override
+				public void run() {
+					syncPending();
+				}
+			}, syncInterval - sinceSync, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Replace the status file atomically with the given status and empty the journal
+	 * @param status The whole status of the source
+	 * @throws IOException
+	 */
+	public synchronized void writeSnapshot(Map<String, Object> status) throws IOException {
+
+		sequence++;
+		File temp = new File(snapshot.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(temp)) {
+			out.write(JSONValue.toJSONString(withSequence(status)).getBytes(UTF8));
+			if (syncMode != SyncMode.NONE) {
+				out.getChannel().force(true);
+			}
+		}
+		Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		if (syncMode != SyncMode.NONE) {
+			syncDirectory();
+		}
+
+		/* older checkpoints left by a crash before the truncation are skipped by their sequence */
+		if (channel == null) {
+			channel = new FileOutputStream(journal, true).getChannel();
+		}
+		channel.truncate(0);
+		records = 0;
+		unsynced = false;
+		cancelPendingSync();
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * Force the checkpoints written to disk
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+
+		cancelPendingSync();
+		if (channel != null && unsynced) {
+			channel.force(false);
+			unsynced = false;
+		}
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * Force pending checkpoints and close the journal
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+
+		cancelPendingSync();
+		if (channel != null) {
+			if (syncMode != SyncMode.NONE) {
+				sync();
+			}
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Rename the status file and its journal, so the status is started again
+	 * @param suffix Added to the names of both files
+	 */
+	public synchronized void backup(String suffix) {
+
+		try {
+			close();
+		} catch (IOException e) {
+			LOG.warn("Error closing status journal", e);
+		}
+		snapshot.renameTo(new File(snapshot.getPath() + suffix));
+		journal.renameTo(new File(journal.getPath() + suffix));
+		sequence = 0;
+		records = 0;
+	}
+
+	synchronized boolean hasUnsyncedCheckpoints() {
+		return unsynced;
+	}
+
+	private synchronized void syncPending() {
+
+		pendingSync = null;
+		try {
+			sync();
+		} catch (IOException e) {
+			LOG.warn("Error syncing status journal " + journal, e);
+		}
+	}
+
+	private void cancelPendingSync() {
+
+		if (pendingSync != null) {
+			pendingSync.cancel(false);
+			pendingSync = null;
+		}
+	}
+
+	/*
+	 * Cut the journal after its last valid checkpoint, closing it first if it is open
+	 */
+	private void truncateJournal(long length) throws IOException {
+
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+			file.setLength(length);
+			if (syncMode != SyncMode.NONE) {
+				file.getChannel().force(true);
+			}
+		}
+	}
+
+	private static int indexOf(byte[] bytes, byte value, int from) {
+
+		for (int i = from; i < bytes.length; i++) {
+			if (bytes[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private Map<String, Object> withSequence(Map<String, Object> status) {
+
+		Map<String, Object> checkpoint = new LinkedHashMap<String, Object>(status);
+		checkpoint.put(CHECKPOINT_STATUS_FILE, Long.toString(sequence));
+		return checkpoint;
+	}
+
+	/*
+	 * @return The status of a journal line, null if the line is not complete or its sequence
+	 * does not match the one covered by the crc
+	 */
+	private static Map<String, Object> parseRecord(String line) {
+
+		int first = line.indexOf(' ');
+		int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+		if (second < 0) {
+			return null;
+		}
+		String json = line.substring(second + 1);
+		try {
+			if (Long.parseLong(line.substring(first + 1, second)) != crc(json)) {
+				return null;
+			}
+			Map<String, Object> status = toMap(new JSONParser().parse(json));
+			if (!line.substring(0, first).equals(status.get(CHECKPOINT_STATUS_FILE))) {
+				return null;
+			}
+			return status;
+		} catch (ParseException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> toMap(Object json) {
+		return (Map<String, Object>) json;
+	}
+
+	private static long crc(String json) {
+
+		CRC32 crc = new CRC32();
+		crc.update(json.getBytes(UTF8));
+		return crc.getValue();
+	}
+
+	/*
+	 * Make the rename of the status file durable, not supported by every platform
+	 */
+	private void syncDirectory() {
+
+		File directory = snapshot.getAbsoluteFile().getParentFile();
+		try (FileChannel directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+			directoryChannel.force(true);
+		} catch (IOException e) {
+			LOG.debug("Can not sync directory {}", directory, e);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.keedio.flume.source;
+
+/**
+ * Spaces out the queries of a source while the database fails. <p>
+ * After a failed query the next one waits <tt>connection.retry.delay</tt> ms, doubled on each
+ * consecutive failure up to <tt>connection.retry.max.delay</tt>, so a short outage is retried within seconds
+ * while a database that stays down is not flooded with queries. After <tt>connection.failure.threshold</tt>
+ * consecutive failures the circuit is open, which is reported in the source metrics, until a query succeeds. <p>
+ * Each query task has its own breaker, used by one thread.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class CircuitBreaker {
+
+	private final int threshold;
+	private final long delay, maxDelay;
+	private int failures;
+	private long nextAttempt;
+
+	/**
+	 * @param threshold Consecutive failures opening the circuit
+	 * @param delay ms to wait after the first failure
+	 * @param maxDelay Max ms to wait between two queries
+	 */
+	public CircuitBreaker(int threshold, long delay, long maxDelay) {
+		this.threshold = threshold;
+		this.delay = delay;
+		this.maxDelay = Math.max(delay, maxDelay);
+	}
+
+	/**
+	 * @param now Current time in ms
+	 * @return ms to wait before the next query, 0 or less to run it now
+	 */
+	public long getWait(long now) {
+		return failures == 0 ? 0 : nextAttempt - now;
+	}
+
+	/**
+	 * Count a failed query
+	 * @param now Current time in ms
+	 * @return ms to wait before the next query
+	 */
+	public long failure(long now) {
+
+		failures++;
+		long wait = Math.min(maxDelay, delay << Math.min(failures - 1, 30));
+		nextAttempt = now + wait;
+		return wait;
+	}
+
+	/**
+	 * Count a query run without errors
+	 * @return true if the circuit was open
+	 */
+	public boolean success() {
+
+		boolean open = isOpen();
+		failures = 0;
+		return open;
+	}
+
+	/**
+	 * @return true if queries are only tried after the wait
+	 */
+	public boolean isOpen() {
+		return failures >= threshold;
+	}
+
+	/**
+	 * @return true if the last failure opened the circuit
+	 */
+	public boolean isOpening() {
+		return failures == threshold;
+	}
+
+	/**
+	 * @return Consecutive failed queries
+	 */
+	public int getFailures() {
+		return failures;
+	}
+}
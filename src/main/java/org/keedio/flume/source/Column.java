@@ -0,0 +1,54 @@
+package org.keedio.flume.source;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Name and SQL type of a column of the query result, used by the serializers
+ * that keep the column names and types in the event bodies.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class Column {
+
+	private final String name;
+	private final int sqlType;
+
+	/**
+	 * @param name Column label
+	 * @param sqlType Type of the column, one of {@link java.sql.Types}
+	 */
+	public Column(String name, int sqlType) {
+		this.name = name;
+		this.sqlType = sqlType;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSqlType() {
+		return sqlType;
+	}
+
+	/**
+	 * @param metaData Metadata of the query result
+	 * @param first Index of the first column of the exported rows, starting at 1
+	 * @return The columns of the exported rows
+	 * @throws SQLException
+	 */
+	static Column[] describe(ResultSetMetaData metaData, int first) throws SQLException {
+
+		Column[] columns = new Column[metaData.getColumnCount() - first + 1];
+		for (int i = first; i <= metaData.getColumnCount(); i++) {
+			columns[i - first] = new Column(metaData.getColumnLabel(i), metaData.getColumnType(i));
+		}
+		return columns;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
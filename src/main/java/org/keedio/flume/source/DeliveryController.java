@@ -0,0 +1,121 @@
+package org.keedio.flume.source;
+
+/**
+ * Sizes the batches of events sent to the channel, between <tt>batch.size.min</tt> and <tt>batch.size.max</tt>. <p>
+ * Starting from <tt>batch.size</tt>, the size grows while bigger batches deliver at least as many events
+ * per second, measured on full batches only, and goes back to the previous size when they do not. When the
+ * channel is full the size is halved and the batch is sent again after <tt>channel.full.backoff</tt> ms,
+ * doubled on each consecutive failure, up to <tt>channel.full.retries</tt> times. A size that was slower
+ * or did not fit in the channel is not tried again for a while, so a channel transaction capacity below
+ * <tt>batch.size.max</tt> is only hit now and then. <p>
+ * Each channel writer has its own controller, used by one thread.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class DeliveryController {
+
+	/* full batches delivered with a size before measuring it */
+	private static final int SAMPLES = 4;
+	/* measures before a size that was slower or failed can be tried again */
+	private static final int CEILING_MEASURES = 64;
+	/* a bigger size is kept unless its rate is this fraction of the previous one */
+	private static final double TOLERANCE = 0.9;
+
+	private final int minSize, maxSize, retries;
+	private final long backoff;
+	private int size, ceiling, ceilingMeasures;
+	/* size before the last growth and its rate in events per ns, 0 when not comparing */
+	private int previousSize;
+	private double previousRate;
+	private int samples;
+	private long sampleEvents, sampleNanos;
+	private int failures;
+
+	/**
+	 * @param size Initial batch size
+	 * @param minSize Min batch size
+	 * @param maxSize Max batch size, the size is fixed when it equals minSize
+	 * @param backoff ms to wait after the first failed delivery
+	 * @param retries Consecutive failed deliveries of a batch retried before giving up
+	 */
+	public DeliveryController(int size, int minSize, int maxSize, long backoff, int retries) {
+		this.minSize = minSize;
+		this.maxSize = Math.max(minSize, maxSize);
+		this.size = Math.min(this.maxSize, Math.max(minSize, size));
+		this.ceiling = this.maxSize;
+		this.backoff = backoff;
+		this.retries = retries;
+	}
+
+	/**
+	 * @return Events to send in the next batch
+	 */
+	public int getBatchSize() {
+		return size;
+	}
+
+	/**
+	 * Measure a batch delivered to the channel
+	 * @param events Events of the batch
+	 * @param nanos Time taken by the channel to commit them
+	 */
+	public void delivered(int events, long nanos) {
+
+		failures = 0;
+		if (minSize == maxSize || events < size) {
+			return;
+		}
+		sampleEvents += events;
+		sampleNanos += nanos;
+		if (++samples < SAMPLES) {
+			return;
+		}
+		double rate = sampleEvents / (double) Math.max(1, sampleNanos);
+		resetSamples();
+
+		if (ceilingMeasures > 0 && --ceilingMeasures == 0) {
+			ceiling = maxSize;
+		}
+		if (previousSize > 0 && rate < previousRate * TOLERANCE) {
+			setCeiling(previousSize);
+			size = previousSize;
+			previousSize = 0;
+		} else if (size < ceiling) {
+			previousSize = size;
+			previousRate = rate;
+			size = Math.min(ceiling, size + Math.max(1, size / 4));
+		} else {
+			previousSize = 0;
+		}
+	}
+
+	/**
+	 * Shrink the batches after the channel failed to take one
+	 * @return ms to wait before sending the events again, -1 when the retries are exhausted
+	 */
+	public long full() {
+
+		setCeiling(size - 1);
+		size = Math.max(minSize, size / 2);
+		previousSize = 0;
+		resetSamples();
+
+		if (failures >= retries) {
+			failures = 0;
+			return -1;
+		}
+		return backoff << Math.min(failures++, 16);
+	}
+
+	private void setCeiling(int value) {
+		ceiling = Math.max(minSize, value);
+		ceilingMeasures = CEILING_MEASURES;
+	}
+
+	private void resetSamples() {
+		samples = 0;
+		sampleEvents = 0;
+		sampleNanos = 0;
+	}
+}
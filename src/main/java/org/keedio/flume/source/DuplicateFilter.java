@@ -0,0 +1,408 @@
+package org.keedio.flume.source;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.flume.conf.ConfigurationException;
+
+/**
+ * Drops the rows already sent, read again by queries polling with a lookback window. <p>
+ * Each row is identified by a 64 bit digest of the values of <tt>dedup.columns</tt>, kept for
+ * <tt>dedup.window</tt> ms and at most for the last <tt>dedup.max.rows</tt> rows, in a ring of
+ * the digests in arrival order and an open addressing hash set of primitive longs, about 48 bytes
+ * per row. <p>
+ * Digests added since the last checkpoint are rolled back when their rows are not delivered, and
+ * appended to a file next to the status file at each checkpoint, so the rows sent before a restart
+ * are still dropped. The file is rewritten with the current digests when it holds twice the max rows.
+ * A filter is used by one thread at a time.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class DuplicateFilter {
+
+	static final String FILE_SUFFIX = ".digests";
+
+	/* bytes of a digest and its time in the file */
+	private static final int RECORD_SIZE = 16;
+	private static final long EMPTY = 0;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	/* code units no text has, ending each cell and marking NULLs */
+	private static final int SEPARATOR = 0x1ffff;
+	private static final int NULL = 0x2ffff;
+
+	private final String[] columns;
+	private final int maxRows;
+	private final long window;
+	private final File file;
+
+	/* digests and times of the ring, by position modulo max rows */
+	private final long[] ringDigests, ringTimes;
+	/* positions since the start of the first ring entry, of the next one and of the first one not saved */
+	private long head, tail, saved;
+	/* hash set of the digests, with the ring position of each one */
+	private final long[] keys, positions;
+	private final int mask;
+
+	private DataOutputStream out;
+	private long fileRows;
+
+	/**
+	 * @param columns Columns identifying a row, or <tt>*</tt> for all of them
+	 * @param maxRows Max digests kept
+	 * @param window ms a digest is kept
+	 * @param file File where the digests are saved
+	 * @throws ConfigurationException If the max rows or the window are not positive
+	 */
+	public DuplicateFilter(String[] columns, int maxRows, long window, File file) {
+
+		if (maxRows < 1) {
+			throw new ConfigurationException("dedup.max.rows must be greater than 0");
+		}
+		if (window < 1) {
+			throw new ConfigurationException("dedup.window must be greater than 0");
+		}
+		this.columns = columns;
+		this.maxRows = maxRows;
+		this.window = window;
+		this.file = file;
+		this.ringDigests = new long[maxRows];
+		this.ringTimes = new long[maxRows];
+		/* at most half full, so probes stay short */
+		int capacity = Integer.highestOneBit(Math.max(2, maxRows) * 2 - 1) << 1;
+		this.keys = new long[capacity];
+		this.positions = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @param resultColumns Columns of the query result
+	 * @return Indexes of the columns identifying a row, null for all of them
+	 * @throws ConfigurationException If a column is not in the query result
+	 */
+	public int[] indexesOf(Column[] resultColumns) {
+
+		if (columns.length == 1 && "*".equals(columns[0])) {
+			return null;
+		}
+		int[] indexes = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			indexes[i] = -1;
+			for (int j = 0; resultColumns != null && j < resultColumns.length; j++) {
+				if (resultColumns[j].getName().equalsIgnoreCase(columns[i])) {
+					indexes[i] = j;
+					break;
+				}
+			}
+			if (indexes[i] < 0) {
+				throw new ConfigurationException("Column " + columns[i] + " of dedup.columns is not a column of the query");
+			}
+		}
+		return indexes;
+	}
+
+	/**
+	 * @param row Cells of a row
+	 * @param indexes Columns identifying the row, null for all of them
+	 * @return Its digest
+	 */
+	public static long digest(List<Object> row, int[] indexes) {
+
+		long hash = FNV_OFFSET;
+		int cells = indexes == null ? row.size() : indexes.length;
+		for (int i = 0; i < cells; i++) {
+			hash = hash(hash, row.get(indexes == null ? i : indexes[i]));
+		}
+		return finish(hash);
+	}
+
+	/**
+	 * @param row Cells of a row
+	 * @param indexes Columns identifying the row, null for all of them
+	 * @return Its digest
+	 */
+	public static long digest(Object[] row, int[] indexes) {
+
+		long hash = FNV_OFFSET;
+		int cells = indexes == null ? row.length : indexes.length;
+		for (int i = 0; i < cells; i++) {
+			hash = hash(hash, row[indexes == null ? i : indexes[i]]);
+		}
+		return finish(hash);
+	}
+
+	/**
+	 * @param digest Digest of a row
+	 * @return false if the row was already added, true if it is added now
+	 */
+	public boolean add(long digest) {
+		return add(digest, System.currentTimeMillis());
+	}
+
+	boolean add(long digest, long now) {
+
+		while (head < tail && ringTimes[slot(head)] <= now - window) {
+			evict();
+		}
+		if (find(digest) >= 0) {
+			return false;
+		}
+		put(digest, now);
+		return true;
+	}
+
+	/**
+	 * Forget the digests added since the last commit, their rows were not delivered
+	 */
+	public void rollback() {
+
+		long from = Math.max(saved, head);
+		while (tail > from) {
+			tail--;
+			remove(ringDigests[slot(tail)], tail);
+		}
+	}
+
+	/**
+	 * Save the digests added since the last commit, their rows are delivered
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+
+		long from = Math.max(saved, head);
+		if (from == tail) {
+			return;
+		}
+		if (out == null) {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		}
+		for (long position = from; position < tail; position++) {
+			out.writeLong(ringDigests[slot(position)]);
+			out.writeLong(ringTimes[slot(position)]);
+		}
+		out.flush();
+		fileRows += tail - from;
+		saved = tail;
+
+		if (fileRows > 2L * maxRows) {
+			compact();
+		}
+	}
+
+	/**
+	 * Read the digests saved before a restart. A record cut by a crash is removed, its row
+	 * may be sent again.
+	 * @throws IOException
+	 */
+	public void load() throws IOException {
+
+		clearMemory();
+		if (!file.isFile()) {
+			return;
+		}
+		/* the next digests are appended after the last whole record */
+		if (file.length() % RECORD_SIZE != 0) {
+			try (RandomAccessFile cut = new RandomAccessFile(file, "rw")) {
+				cut.setLength(cut.length() - cut.length() % RECORD_SIZE);
+			}
+		}
+		long now = System.currentTimeMillis();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				long digest = in.readLong();
+				long time = in.readLong();
+				fileRows++;
+				if (time > now - window && find(digest) < 0) {
+					put(digest, time);
+				}
+			}
+		} catch (EOFException e) {
+			/* end of the file */
+		}
+		saved = tail;
+	}
+
+	/**
+	 * Forget all the digests, also the saved ones
+	 */
+	public void clear() {
+
+		close();
+		clearMemory();
+		file.delete();
+	}
+
+	/**
+	 * Close the file of the digests, the digests not committed are not saved
+	 */
+	public void close() {
+
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				/* the committed digests are already flushed */
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * @return Digests kept
+	 */
+	public int size() {
+
+		int size = 0;
+		for (long key : keys) {
+			if (key != EMPTY) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	private void compact() throws IOException {
+
+		close();
+		File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			for (long position = head; position < tail; position++) {
+				compacted.writeLong(ringDigests[slot(position)]);
+				compacted.writeLong(ringTimes[slot(position)]);
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		fileRows = tail - head;
+	}
+
+	private void clearMemory() {
+
+		Arrays.fill(keys, EMPTY);
+		head = tail = saved = 0;
+		fileRows = 0;
+	}
+
+	/*
+	 * Append a digest not in the set, evicting the oldest one when the ring is full
+	 */
+	private void put(long digest, long time) {
+
+		if (tail - head == maxRows) {
+			evict();
+		}
+		int slot = slot(tail);
+		ringDigests[slot] = digest;
+		ringTimes[slot] = time;
+		int index = index(digest);
+		while (keys[index] != EMPTY) {
+			index = (index + 1) & mask;
+		}
+		keys[index] = digest;
+		positions[index] = tail;
+		tail++;
+	}
+
+	private void evict() {
+
+		remove(ringDigests[slot(head)], head);
+		head++;
+	}
+
+	/*
+	 * Remove a digest from the set if it was added at that ring position, shifting back the
+	 * next digests of its probe sequence
+	 */
+	private void remove(long digest, long position) {
+
+		int hole = find(digest);
+		if (hole < 0 || positions[hole] != position) {
+			return;
+		}
+		int next = hole;
+		while (true) {
+			next = (next + 1) & mask;
+			if (keys[next] == EMPTY) {
+				break;
+			}
+			int home = index(keys[next]);
+			boolean movable = next > hole ? home <= hole || home > next : home <= hole && home > next;
+			if (movable) {
+				keys[hole] = keys[next];
+				positions[hole] = positions[next];
+				hole = next;
+			}
+		}
+		keys[hole] = EMPTY;
+	}
+
+	private int find(long digest) {
+
+		int index = index(digest);
+		while (keys[index] != EMPTY) {
+			if (keys[index] == digest) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int index(long digest) {
+		return (int) digest & mask;
+	}
+
+	private int slot(long position) {
+		return (int) (position % maxRows);
+	}
+
+	/*
+	 * FNV-1a of the text or bytes of a cell, stable between runs so saved digests can be compared
+	 */
+	private static long hash(long hash, Object cell) {
+
+		if (cell == null) {
+			hash = (hash ^ NULL) * FNV_PRIME;
+		} else if (cell instanceof byte[]) {
+			for (byte b : (byte[]) cell) {
+				hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+			}
+		} else if (cell instanceof LobReader.Chunks) {
+			for (Object chunk : ((LobReader.Chunks) cell).getChunks()) {
+				hash = hash(hash, chunk);
+			}
+		} else {
+			String text = cell instanceof BigDecimal ? ((BigDecimal) cell).toPlainString() : cell.toString();
+			for (int i = 0; i < text.length(); i++) {
+				hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+			}
+		}
+		return (hash ^ SEPARATOR) * FNV_PRIME;
+	}
+
+	/*
+	 * Spread the bits over the low ones used by the hash set, never the empty value
+	 */
+	private static long finish(long hash) {
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == EMPTY ? 1 : hash;
+	}
+}
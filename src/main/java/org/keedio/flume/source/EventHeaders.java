@@ -0,0 +1,174 @@
+package org.keedio.flume.source;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Headers of an event sharing the constant entries and the header names with the other events
+ * of the same query, so each event only holds the array of its own values. <p>
+ * The headers are copied to a map of their own the first time they are modified, e.g. by an
+ * interceptor. A null value means the event has no such header.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class EventHeaders extends AbstractMap<String, String> {
+
+	private final Map<String, String> shared;
+	private final String[] names;
+	private final String[] values;
+	private Map<String, String> own;
+
+	/**
+	 * @param shared Entries common to every event, unmodifiable
+	 * @param names Names of the headers of each event, not modified
+	 * @param values Values of this event for each name, null if it has not that header
+	 */
+	public EventHeaders(Map<String, String> shared, String[] names, String[] values) {
+		this.shared = shared;
+		this.names = names;
+		this.values = values;
+	}
+
+	@Override
+	public String get(Object key) {
+
+		if (own != null) {
+			return own.get(key);
+		}
+		int index = indexOf(key);
+		return index >= 0 ? values[index] : shared.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+
+		if (own != null) {
+			return own.containsKey(key);
+		}
+		int index = indexOf(key);
+		return index >= 0 ? values[index] != null : shared.containsKey(key);
+	}
+
+	@Override
+	public String put(String key, String value) {
+		return modifiable().put(key, value);
+	}
+
+	@Override
+	public String remove(Object key) {
+		return modifiable().remove(key);
+	}
+
+	@Override
+	public void clear() {
+		modifiable().clear();
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+
+		if (own != null) {
+			return own.entrySet();
+		}
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return EventHeaders.this.size();
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+
+		if (own != null) {
+			return own.size();
+		}
+		int size = shared.size();
+		for (int i = 0; i < names.length; i++) {
+			if (values[i] != null && !shared.containsKey(names[i])) {
+				size++;
+			} else if (values[i] == null && shared.containsKey(names[i])) {
+				size--;
+			}
+		}
+		return size;
+	}
+
+	private int indexOf(Object key) {
+
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private Map<String, String> modifiable() {
+
+		if (own == null) {
+			own = new HashMap<String, String>(this);
+		}
+		return own;
+	}
+
+	/**
+	 * Values of this event first, then the shared entries not named by them
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+		private final Iterator<Map.Entry<String, String>> sharedEntries = shared.entrySet().iterator();
+		private int index;
+		private Map.Entry<String, String> next = advance();
+
+		private Map.Entry<String, String> advance() {
+
+			while (index < names.length) {
+				int current = index++;
+				if (values[current] != null) {
+					return new SimpleImmutableEntry<String, String>(names[current], values[current]);
+				}
+			}
+			while (sharedEntries.hasNext()) {
+				Map.Entry<String, String> entry = sharedEntries.next();
+				if (indexOf(entry.getKey()) < 0) {
+					return entry;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, String> next() {
+
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<String, String> current = next;
+			next = advance();
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Headers are modified through the map");
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package org.keedio.flume.source;
+
+import java.util.List;
+
+import org.apache.flume.conf.ConfigurationException;
+
+/**
+ * Bytes of the rows read from the database and not yet turned into events, shared by all the
+ * queries, partitions and prefetched pages of a source, so the rows held in memory do not depend
+ * on how wide they are. <p>
+ * Readers stop a page before the row that would go over <tt>fetch.max.bytes</tt>, and readers
+ * handing the rows over as they arrive wait until some bytes are released. A row is always let
+ * in when nothing else is in flight, so a single row bigger than the budget is still read. <p>
+ * Large values are taken chunk by chunk through a {@link Charge} as they are read, so a page stops
+ * at the chunk going over the budget and the other readers wait between chunks, instead of reading
+ * the whole value before the row is counted. <p>
+ * Row sizes are estimated from their text and binary cells, the other cells count as 16 bytes.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class FetchBudget {
+
+	private static final int CELL_SIZE = 16;
+
+	private final long maxBytes;
+	private long inFlight;
+
+	/**
+	 * @param maxBytes Max bytes in flight, 0 if not limited
+	 * @throws ConfigurationException If it is negative
+	 */
+	public FetchBudget(long maxBytes) {
+
+		if (maxBytes < 0) {
+			throw new ConfigurationException("fetch.max.bytes can not be negative");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return true if rows are counted
+	 */
+	public boolean isLimited() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * Take the bytes of a row if they fit in the budget
+	 * @param size Size of the row
+	 * @return false if the row does not fit
+	 */
+	public synchronized boolean tryAcquire(long size) {
+
+		if (!isLimited()) {
+			return true;
+		}
+		if (!fits(size, 0)) {
+			return false;
+		}
+		inFlight += size;
+		return true;
+	}
+
+	/*
+	 * The bytes fit in the budget, or nothing but the own bytes of the reader is in flight
+	 */
+	private boolean fits(long size, long own) {
+		return inFlight == own || inFlight + size <= maxBytes;
+	}
+
+	/**
+	 * @param wait true to wait until each chunk fits, false to cut the row instead
+	 * @return The bytes of a row about to be read
+	 */
+	public Charge charge(boolean wait) {
+		return new Charge(wait);
+	}
+
+	/**
+	 * Take the bytes of a row, waiting until they fit in the budget
+	 * @param size Size of the row
+	 * @throws InterruptedException
+	 */
+	public synchronized void acquire(long size) throws InterruptedException {
+
+		while (!tryAcquire(size)) {
+			wait();
+		}
+	}
+
+	/**
+	 * @param size Size of rows already turned into events or dropped
+	 */
+	public synchronized void release(long size) {
+
+		if (!isLimited() || size == 0) {
+			return;
+		}
+		inFlight = Math.max(0, inFlight - size);
+		notifyAll();
+	}
+
+	public synchronized long getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @param row Cells of a row
+	 * @return Its estimated size, 0 if rows are not counted
+	 */
+	public long sizeOf(Object[] row) {
+
+		if (!isLimited()) {
+			return 0;
+		}
+		long size = 0;
+		for (Object cell : row) {
+			size += sizeOf(cell);
+		}
+		return size;
+	}
+
+	/**
+	 * @param rows Rows of a page
+	 * @return Their estimated size, 0 if rows are not counted
+	 */
+	public long sizeOf(List<List<Object>> rows) {
+
+		if (!isLimited()) {
+			return 0;
+		}
+		long size = 0;
+		for (List<Object> row : rows) {
+			for (Object cell : row) {
+				size += sizeOf(cell);
+			}
+		}
+		return size;
+	}
+
+	static long sizeOf(Object cell) {
+
+		if (cell instanceof String) {
+			return 2L * ((String) cell).length();
+		}
+		if (cell instanceof byte[]) {
+			return ((byte[]) cell).length;
+		}
+		if (cell instanceof LobReader.Chunks) {
+			long size = 0;
+			for (Object chunk : ((LobReader.Chunks) cell).getChunks()) {
+				size += sizeOf(chunk);
+			}
+			return size;
+		}
+		return CELL_SIZE;
+	}
+
+	/**
+	 * Bytes of a row taken from the budget while it is read, its large values chunk by chunk.
+	 * Once the row is complete they are the bytes of the row, released when it is delivered.
+	 */
+	public class Charge {
+
+		private final boolean wait;
+		private long size;
+		private boolean cut;
+
+		private Charge(boolean wait) {
+			this.wait = wait;
+		}
+
+		/**
+		 * Take the bytes of a chunk of a large value
+		 * @param chunk String or byte array just read
+		 * @return false if the row is cut, its bytes are released and it must not be read further
+		 * @throws InterruptedException
+		 */
+		public boolean add(Object chunk) throws InterruptedException {
+			return take(sizeOf(chunk));
+		}
+
+		/**
+		 * Take the bytes of the rest of the row
+		 * @param row Cells of the row, the large values already taken
+		 * @return false if the row is cut
+		 * @throws InterruptedException
+		 */
+		public boolean complete(Object[] row) throws InterruptedException {
+			return take(FetchBudget.this.sizeOf(row) - size);
+		}
+
+		/**
+		 * Release the bytes taken, the row failed to be read
+		 */
+		public void cancel() {
+			release(size);
+			size = 0;
+		}
+
+		/**
+		 * @return true if the row did not fit in the budget
+		 */
+		public boolean isCut() {
+			return cut;
+		}
+
+		private boolean take(long bytes) throws InterruptedException {
+
+			if (cut) {
+				return false;
+			}
+			if (!isLimited() || bytes <= 0) {
+				return true;
+			}
+			synchronized (FetchBudget.this) {
+				while (!fits(bytes, size)) {
+					if (!wait) {
+						cut = true;
+						cancel();
+						return false;
+					}
+					FetchBudget.this.wait();
+				}
+				inFlight += bytes;
+				size += bytes;
+			}
+			return true;
+		}
+	}
+}
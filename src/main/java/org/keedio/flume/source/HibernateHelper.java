@@ -1,21 +1,34 @@
 package org.keedio.flume.source;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.hibernate.CacheMode;
+import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
 import org.hibernate.service.ServiceRegistry;
-import org.hibernate.transform.Transformers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
 
 /**
  * Helper class to manage hibernate sessions and perform queries
@@ -23,12 +36,13 @@ import org.apache.flume.Context;
  * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
  *
  */
-public class HibernateHelper {
+public class HibernateHelper implements QueryEngine {
 
 	private static final Logger LOG = LoggerFactory
 			.getLogger(HibernateHelper.class);
 
-	private static SessionFactory factory;
+	private SessionFactory factory;
+	private final boolean sharedFactory;
 	private Session session;
 	private ServiceRegistry serviceRegistry;
 	private Configuration config;
@@ -41,6 +55,7 @@ public class HibernateHelper {
 	public HibernateHelper(SQLSourceHelper sqlSourceHelper) {
 
 		this.sqlSourceHelper = sqlSourceHelper;
+		this.sharedFactory = false;
 		Context context = sqlSourceHelper.getContext();
 
 		/* check for mandatory propertis */
@@ -56,34 +71,115 @@ public class HibernateHelper {
 			e = it.next();
 			config.setProperty("hibernate." + e.getKey(), e.getValue());
 		}
+		
+		/* keep the statements of each pooled connection open, as the same queries are polled again */
+		String provider = hibernateProperties.get("connection.provider_class");
+		if (provider != null && provider.contains("C3P0") && sqlSourceHelper.getStatementCacheSize() > 0
+				&& !hibernateProperties.containsKey("c3p0.max_statements")
+				&& !hibernateProperties.containsKey("c3p0.maxStatementsPerConnection")){
+			config.setProperty("hibernate.c3p0.maxStatementsPerConnection",
+					Integer.toString(sqlSourceHelper.getStatementCacheSize()));
+		}
+		
+		/* test the idle pooled connections in the background, so the ones broken by a failover are dropped */
+		long validationInterval = sqlSourceHelper.getConnectionValidationInterval();
+		if (provider != null && provider.contains("C3P0") && validationInterval > 0
+				&& !hibernateProperties.containsKey("c3p0.idle_test_period")){
+			config.setProperty("hibernate.c3p0.idle_test_period", Long.toString(Math.max(1, validationInterval / 1000)));
+			if (!hibernateProperties.containsKey("c3p0.testConnectionOnCheckin")){
+				config.setProperty("hibernate.c3p0.testConnectionOnCheckin", "true");
+			}
+		}
+	}
+
+	/*
+	 * Engine of another query of the same source, opening its sessions on the given factory
+	 */
+	private HibernateHelper(SQLSourceHelper sqlSourceHelper, SessionFactory factory) {
 
+		this.sqlSourceHelper = sqlSourceHelper;
+		this.factory = factory;
+		this.sharedFactory = true;
+	}
+
+	/**
+	 * The new engine opens its sessions on the session factory, and its connection pool, of this one
+	 */
+	@Override
+	public QueryEngine forQuery(SQLSourceHelper querySourceHelper) {
+		return new HibernateHelper(querySourceHelper, factory);
 	}
 
 	/**
 	 * Connect to database using hibernate
 	 */
+	@Override
 	public void establishSession() {
 
 		LOG.info("Opening hibernate session");
 
-		serviceRegistry = new StandardServiceRegistryBuilder()
-				.applySettings(config.getProperties()).build();
-		factory = config.buildSessionFactory(serviceRegistry);
+		if (factory == null) {
+			serviceRegistry = new StandardServiceRegistryBuilder()
+					.applySettings(config.getProperties()).build();
+			factory = config.buildSessionFactory(serviceRegistry);
+		}
+		openSession();
+		
+		if (sqlSourceHelper.isChangeLogInstallSet()){
+			final Dialect dialect = ((SessionFactoryImplementor) factory).getDialect();
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection connection) throws SQLException {
+					ChangeLog.install(connection, dialect, sqlSourceHelper);
+				}
+			});
+		}
+	}
+
+	private void openSession() {
+
 		session = factory.openSession();
 		session.setCacheMode(CacheMode.IGNORE);
 		
 		session.setDefaultReadOnly(sqlSourceHelper.isReadOnlySession());
 	}
 
+	/**
+	 * Open a new session on the same connection pool, used by the workers of a partitioned read
+	 * @return The reader using the new session, must be closed by the caller
+	 */
+	@Override
+	public PartitionReader openPartitionReader() {
+
+		final Session partitionSession = factory.openSession();
+		partitionSession.setCacheMode(CacheMode.IGNORE);
+		partitionSession.setDefaultReadOnly(sqlSourceHelper.isReadOnlySession());
+		
+		return new PartitionReader() {
+			@Override
+			public int read(Partition partition, RowHandler handler) throws IOException, InterruptedException {
+				return scrollPartition(partitionSession, partition, handler);
+			}
+
+			@Override
+			public void close() {
+				partitionSession.close();
+			}
+		};
+	}
+
 	/**
 	 * Close database connection
 	 */
+	@Override
 	public void closeSession() {
 
 		LOG.info("Closing hibernate session");
 
 		session.close();
-		factory.close();
+		if (!sharedFactory) {
+			factory.close();
+		}
 	}
 
 	/**
@@ -93,57 +189,252 @@ public class HibernateHelper {
 	 * keep in mind in case of future conversions/castings.
 	 * @throws InterruptedException 
 	 */
-	@SuppressWarnings("unchecked")
+	@Override
 	public List<List<Object>> executeQuery() throws InterruptedException {
 		
-		List<List<Object>> rowsList = new ArrayList<List<Object>>() ;
-		Query query;
+		final List<List<Object>> rowsList = new ArrayList<List<Object>>();
+		
+		try {
+			scroll(sqlSourceHelper.getMaxRows(), true, new RowHandler() {
+				@Override
+				public void handle(Object[] row) {
+					rowsList.add(Arrays.asList(row));
+				}
+			});
+		} catch (IOException e) {
+			/* the handler only adds to the list */
+			throw new FlumeException(e);
+		}
+		
+		return rowsList;
+	}
+
+	/**
+	 * Execute the selection query in the database reading the result through a forward-only cursor.
+	 * Rows are handed over one by one as they arrive, so only <tt>batch.size</tt> rows are fetched
+	 * from the database at a time instead of the whole <tt>max.rows</tt> page.
+	 * @param handler Receives each row of the query result
+	 * @return The number of rows handled
+	 * @throws InterruptedException
+	 * @throws IOException If the handler fails to deliver a row
+	 */
+	@Override
+	public int scrollQuery(RowHandler handler) throws InterruptedException, IOException {
+		
+		return scroll(sqlSourceHelper.getBatchSize(), false, handler);
+	}
+
+	/*
+	 * A page stops before the row going over the fetch budget, rows handed over as they arrive wait for it
+	 */
+	private int scroll(int fetchSize, boolean page, RowHandler handler) throws InterruptedException, IOException {
+		
+		int rows = 0;
+		Object[] key = null;
+		boolean cut = false;
+		FlumeException failure = null;
+		int keyColumns = sqlSourceHelper.getKeyColumnCount();
+		FetchBudget budget = sqlSourceHelper.getFetchBudget();
+		ScrollableResults results = null;
 		
 		if (!session.isConnected()){
 			resetConnection();
 		}
-				
+		
+		try {
+			results = createQuery().setFetchSize(fetchSize).scroll(ScrollMode.FORWARD_ONLY);
+			while (results.next()){
+				Object[] row = results.get();
+				FetchBudget.Charge charge = budget.charge(!page || rows == 0);
+				sqlSourceHelper.getLobReader().read(row, charge);
+				/* the key columns are selected first and are not part of the exported row */
+				Object[] exported = keyColumns > 0 ? Arrays.copyOfRange(row, keyColumns, row.length) : row;
+				if (!charge.complete(exported)){
+					cut = true;
+					break;
+				}
+				handler.handle(exported);
+				if (keyColumns > 0){
+					key = Arrays.copyOf(row, keyColumns);
+				}
+				rows++;
+			}
+		}catch (HibernateException | SQLException e){
+			LOG.error("Exception thrown, resetting connection.",e);
+			/* the cursor is released with the session it belongs to */
+			results = null;
+			resetConnection();
+			failure = new FlumeException("Error reading rows of the query", e);
+			if (rows == 0){
+				throw failure;
+			}
+		}finally {
+			if (results != null){
+				results.close();
+			}
+			/* rows already handed over must not be read again */
+			if (rows > 0){
+				sqlSourceHelper.advanceIndex(rows, key);
+			}
+			sqlSourceHelper.setPageCut(cut);
+			/* the rows already handed over are kept, the failure is reported once they are delivered */
+			sqlSourceHelper.setReadFailure(rows > 0 ? failure : null);
+		}
+		
+		return rows;
+	}
+
+	/**
+	 * Describe the columns of the selection query through the JDBC connection of the session
+	 * @return The columns of the exported rows
+	 */
+	@Override
+	public Column[] getColumns() {
+		
+		return session.doReturningWork(new ReturningWork<Column[]>() {
+			@Override
+			public Column[] execute(Connection connection) throws SQLException {
+				return JdbcHelper.describeQuery(connection, sqlSourceHelper);
+			}
+		});
+	}
+
+	/**
+	 * Delete the changes saved in the status file from the change-log, on its own session
+	 * as the prefetch thread may be using the query one. A failed purge is retried after
+	 * the next checkpoint.
+	 */
+	@Override
+	public void afterCheckpoint() {
+		
+		if (!sqlSourceHelper.isChangeLogPurgeSet()){
+			return;
+		}
+		
+		Session purgeSession = factory.openSession();
+		Transaction transaction = null;
+		try {
+			transaction = purgeSession.beginTransaction();
+			purgeSession.createSQLQuery(sqlSourceHelper.getChangeLogPurgeQuery())
+					.setParameter(SQLSourceHelper.KEYSET_PARAMETER, sqlSourceHelper.getChangeLogPurgeKey())
+					.executeUpdate();
+			transaction.commit();
+		} catch (HibernateException e){
+			LOG.error("Error purging change-log", e);
+			if (transaction != null){
+				transaction.rollback();
+			}
+		} finally {
+			purgeSession.close();
+		}
+	}
+
+	/**
+	 * Query the lowest and highest values of the partition column
+	 * @return Both values, null if the table is empty
+	 */
+	@Override
+	public Object[] getPartitionBounds() {
+		
+		return (Object[]) session.createSQLQuery(sqlSourceHelper.getPartitionBoundsQuery()).uniqueResult();
+	}
+
+	/**
+	 * Read the next page of a partition through a forward-only cursor
+	 * @param partitionSession Session of the worker reading the partition
+	 * @param partition Range to read, starting at its current index
+	 * @param handler Receives each row of the page
+	 * @return The number of rows handled
+	 * @throws IOException If the handler fails to deliver a row
+	 */
+	private int scrollPartition(Session partitionSession, Partition partition, RowHandler handler)
+			throws IOException, InterruptedException {
+		
+		int rows = 0;
+		FetchBudget budget = sqlSourceHelper.getFetchBudget();
+		Query query = partitionSession
+				.createSQLQuery(sqlSourceHelper.getPartitionQuery())
+				.setFirstResult((int) partition.getIndex());
+		
+		if (sqlSourceHelper.isPartitionDates()){
+			query.setTimestamp(SQLSourceHelper.PARTITION_LOWER_PARAMETER, new Timestamp(partition.getLower()));
+			query.setTimestamp(SQLSourceHelper.PARTITION_UPPER_PARAMETER, new Timestamp(partition.getUpper()));
+		} else {
+			query.setLong(SQLSourceHelper.PARTITION_LOWER_PARAMETER, partition.getLower());
+			query.setLong(SQLSourceHelper.PARTITION_UPPER_PARAMETER, partition.getUpper());
+		}
+		
+		if (sqlSourceHelper.getMaxRows() != 0){
+			query.setMaxResults(sqlSourceHelper.getMaxRows());
+		}
+		
+		ScrollableResults results = query.setFetchSize(sqlSourceHelper.getBatchSize()).scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()){
+				Object[] row = results.get();
+				FetchBudget.Charge charge = budget.charge(true);
+				sqlSourceHelper.getLobReader().read(row, charge);
+				charge.complete(row);
+				handler.handle(row);
+				rows++;
+			}
+		} catch (SQLException e) {
+			throw new FlumeException("Error reading partition " + partition, e);
+		} finally {
+			results.close();
+		}
+		
+		return rows;
+	}
+
+	private Query createQuery() {
+		
+		Query query;
+		
 		if (sqlSourceHelper.isCustomQuerySet()){
 			
 			query = session.createSQLQuery(sqlSourceHelper.buildQuery());
 			
+			if (sqlSourceHelper.isCustomQueryBound()){
+				query.setParameter(SQLSourceHelper.CUSTOM_QUERY_PARAMETER, sqlSourceHelper.getCustomQueryParameter());
+			}
+			
 			if (sqlSourceHelper.getMaxRows() != 0){
 				query = query.setMaxResults(sqlSourceHelper.getMaxRows());
 			}			
 		}
+		else if (sqlSourceHelper.isKeysetPaginationSet())
+		{
+			query = session.createSQLQuery(sqlSourceHelper.getQuery());
+			for (Map.Entry<String, Object> parameter : sqlSourceHelper.getKeysetParameters().entrySet()){
+				query.setParameter(parameter.getKey(), parameter.getValue());
+			}
+			
+			if (sqlSourceHelper.getMaxRows() != 0){
+				query = query.setMaxResults(sqlSourceHelper.getMaxRows());
+			}
+		}
 		else
 		{
 			query = session
 					.createSQLQuery(sqlSourceHelper.getQuery())
-					.setFirstResult(Integer.parseInt(sqlSourceHelper.getCurrentIndex()));
+					.setFirstResult(sqlSourceHelper.getRowOffset());
 			
 			if (sqlSourceHelper.getMaxRows() != 0){
 				query = query.setMaxResults(sqlSourceHelper.getMaxRows());
 			}
 		}
 		
-		try {
-			rowsList = query.setFetchSize(sqlSourceHelper.getMaxRows()).setResultTransformer(Transformers.TO_LIST).list();
-		}catch (Exception e){
-			LOG.error("Exception thrown, resetting connection.",e);
-			resetConnection();
-		}
-		
-		if (!rowsList.isEmpty()){
-			sqlSourceHelper.setCurrentIndex(Integer.toString((Integer.parseInt(sqlSourceHelper.getCurrentIndex())
-					+ rowsList.size())));
-		}
-		
-		return rowsList;
+		return query;
 	}
 
+	/*
+	 * The session factory may be shared with other queries, only the session is replaced
+	 */
 	private void resetConnection() throws InterruptedException{
 		if(session.isOpen()){
 			session.close();
-			factory.close();
-		} else {
-			establishSession();
 		}
-		
+		openSession();
 	}
 }
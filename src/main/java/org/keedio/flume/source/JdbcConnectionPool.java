@@ -0,0 +1,215 @@
+package org.keedio.flume.source;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connections of the JDBC query engines of a source. <p>
+ * Connections are opened when all the idle ones are in use and kept open after being released
+ * up to <tt>query.workers</tt> idle connections, so the queries of a source run by the same
+ * workers share them instead of keeping one connection each. <p>
+ * Each connection keeps its prepared statements in a {@link StatementCache}, so the queries
+ * polled again are not parsed again by the database. <p>
+ * An idle connection is checked before it is used again when it was idle longer than
+ * <tt>connection.validation.interval</tt> ms or another connection failed since it was released,
+ * so after a failover only the broken connections are opened again.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class JdbcConnectionPool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JdbcConnectionPool.class);
+	/* seconds the driver may take to check a connection */
+	private static final int VALIDATION_TIMEOUT = 5;
+
+	private final String url;
+	private final Properties connectionProperties;
+	private final boolean autoCommit, readOnly;
+	private final int maxIdle, statementCacheSize;
+	private final long validationInterval;
+	private final Deque<Connection> idle = new ArrayDeque<Connection>();
+	/* time each idle connection was released, and of the last failed connection */
+	private final Map<Connection, Long> releaseTimes = new IdentityHashMap<Connection, Long>();
+	private long lastFailure;
+	private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<Connection, StatementCache>();
+	private boolean closed;
+
+	/**
+	 * @param url JDBC url of the database
+	 * @param connectionProperties Properties of the driver, user and password included
+	 * @param autoCommit Auto commit mode of the connections
+	 * @param readOnly Read only mode of the connections
+	 * @param maxIdle Max connections kept open while not used
+	 * @param statementCacheSize Max prepared statements kept open by each connection, 0 to close them after use
+	 * @param validationInterval ms a connection can stay idle before it is checked, 0 to never check it
+	 */
+	public JdbcConnectionPool(String url, Properties connectionProperties, boolean autoCommit, boolean readOnly,
+			int maxIdle, int statementCacheSize, long validationInterval) {
+		this.url = url;
+		this.connectionProperties = connectionProperties;
+		this.autoCommit = autoCommit;
+		this.readOnly = readOnly;
+		this.maxIdle = maxIdle;
+		this.statementCacheSize = statementCacheSize;
+		this.validationInterval = validationInterval;
+	}
+
+	/**
+	 * @return A valid idle connection, or a new one if all of them are in use or broken
+	 * @throws SQLException
+	 */
+	public Connection borrow() throws SQLException {
+
+		while (true) {
+			Connection connection;
+			boolean check;
+			synchronized (this) {
+				if (closed) {
+					throw new SQLException("Connection pool closed");
+				}
+				if (idle.isEmpty()) {
+					break;
+				}
+				connection = idle.pop();
+				long released = releaseTimes.remove(connection);
+				check = validationInterval > 0
+						&& (released <= lastFailure || System.currentTimeMillis() - released > validationInterval);
+			}
+			if (!check || isValid(connection)) {
+				return connection;
+			}
+			LOG.info("Closing broken JDBC connection");
+			closeQuietly(connection);
+		}
+
+		Connection connection = DriverManager.getConnection(url, connectionProperties);
+		connection.setAutoCommit(autoCommit);
+		connection.setReadOnly(readOnly);
+		return connection;
+	}
+
+	/**
+	 * Give back a connection that can be used again
+	 * @param connection Connection borrowed from this pool
+	 */
+	public void release(Connection connection) {
+
+		synchronized (this) {
+			if (!closed && idle.size() < maxIdle) {
+				idle.push(connection);
+				releaseTimes.put(connection, System.currentTimeMillis());
+				return;
+			}
+		}
+		closeQuietly(connection);
+	}
+
+	/**
+	 * Prepare a forward-only statement, reusing the one of the cache of the connection
+	 * @param connection Connection borrowed from this pool
+	 * @param sql Statement text
+	 * @return The statement, to be given back with {@link #finish(PreparedStatement)}
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+
+		if (statementCacheSize == 0) {
+			return connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		}
+
+		StatementCache cache;
+		synchronized (this) {
+			cache = statementCaches.get(connection);
+			if (cache == null) {
+				cache = new StatementCache(connection, statementCacheSize);
+				statementCaches.put(connection, cache);
+			}
+		}
+		return cache.prepare(sql);
+	}
+
+	/**
+	 * Give back a statement once its results are read, it is only closed when not cached
+	 * @param statement Statement prepared by this pool
+	 */
+	public void finish(PreparedStatement statement) {
+
+		if (statementCacheSize == 0) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				LOG.warn("Error closing prepared statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Close a connection that failed instead of giving it back
+	 * @param connection Connection borrowed from this pool
+	 */
+	public void invalidate(Connection connection) {
+
+		synchronized (this) {
+			lastFailure = System.currentTimeMillis();
+		}
+		closeQuietly(connection);
+	}
+
+	/**
+	 * Close the idle connections, the connections in use are closed when released
+	 */
+	public void close() {
+
+		synchronized (this) {
+			closed = true;
+			while (!idle.isEmpty()) {
+				closeQuietly(idle.pop());
+			}
+			releaseTimes.clear();
+		}
+	}
+
+	boolean isAutoCommit() {
+		return autoCommit;
+	}
+
+	private static boolean isValid(Connection connection) {
+
+		try {
+			return connection.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		} catch (AbstractMethodError e) {
+			/* drivers older than JDBC 4 can not check it */
+			return true;
+		}
+	}
+
+	private void closeQuietly(Connection connection) {
+
+		StatementCache cache;
+		synchronized (this) {
+			cache = statementCaches.remove(connection);
+		}
+		if (cache != null) {
+			cache.close();
+		}
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			LOG.warn("Error closing JDBC connection", e);
+		}
+	}
+}
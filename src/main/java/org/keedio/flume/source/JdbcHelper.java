@@ -0,0 +1,613 @@
+package org.keedio.flume.source;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.pagination.LimitHandler;
+import org.hibernate.dialect.pagination.LimitHelper;
+import org.hibernate.dialect.pagination.NoopLimitHandler;
+import org.hibernate.engine.jdbc.dialect.internal.StandardDialectResolver;
+import org.hibernate.engine.jdbc.dialect.spi.DatabaseMetaDataDialectResolutionInfoAdapter;
+import org.hibernate.engine.spi.RowSelection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Query engine running the selection query through plain JDBC: a prepared statement,
+ * a forward-only result set and cells read by column index. <p>
+ * It uses the same <tt>hibernate.connection.*</tt> properties as {@link HibernateHelper}, but
+ * borrows its connections from a {@link JdbcConnectionPool} shared by the queries of the source,
+ * without building a session factory or transforming rows. Only the
+ * Hibernate dialect is used, to page the query with the limit syntax of the database. <p>
+ * Every value read from the status file is bound as a parameter, so the text of the statements
+ * does not change between polls and they are prepared once per connection.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class JdbcHelper implements QueryEngine {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JdbcHelper.class);
+	private static final Pattern PARAMETER = Pattern.compile(":(\\w+)");
+
+	private final SQLSourceHelper sqlSourceHelper;
+	private final JdbcHelper owner;
+	private String driverClass, dialectClass, url;
+	private JdbcConnectionPool pool;
+	private Dialect dialect;
+
+	/**
+	 * @param sqlSourceHelper Contains the configuration parameters from flume config file
+	 */
+	public JdbcHelper(SQLSourceHelper sqlSourceHelper) {
+
+		this.sqlSourceHelper = sqlSourceHelper;
+		this.owner = null;
+		Context context = sqlSourceHelper.getContext();
+
+		/* check for mandatory propertis */
+		sqlSourceHelper.checkMandatoryProperties();
+
+		url = sqlSourceHelper.getConnectionURL();
+		driverClass = context.getString("hibernate.connection.driver_class");
+		dialectClass = context.getString("hibernate.dialect");
+		Properties connectionProperties = new Properties();
+		connectionProperties.setProperty("user", sqlSourceHelper.getConnectionUserName());
+		connectionProperties.setProperty("password", sqlSourceHelper.getConnectionPassword());
+		pool = new JdbcConnectionPool(url, connectionProperties,
+				context.getBoolean("hibernate.connection.autocommit", false), sqlSourceHelper.isReadOnlySession(),
+				sqlSourceHelper.getQueryWorkers(), sqlSourceHelper.getStatementCacheSize(),
+				sqlSourceHelper.getConnectionValidationInterval());
+	}
+
+	/*
+	 * Engine of another query of the same source, using the connections of the owner engine
+	 */
+	private JdbcHelper(SQLSourceHelper sqlSourceHelper, JdbcHelper owner) {
+
+		this.sqlSourceHelper = sqlSourceHelper;
+		this.owner = owner;
+	}
+
+	/**
+	 * The new engine borrows its connections from the pool of this one
+	 */
+	@Override
+	public QueryEngine forQuery(SQLSourceHelper querySourceHelper) {
+		return new JdbcHelper(querySourceHelper, this);
+	}
+
+	/**
+	 * Connect to database using the JDBC driver
+	 */
+	@Override
+	public void establishSession() {
+
+		if (owner != null) {
+			pool = owner.pool;
+			dialect = owner.dialect;
+		} else {
+			LOG.info("Opening JDBC connection");
+			try {
+				if (driverClass != null) {
+					Class.forName(driverClass);
+				}
+				Connection connection = pool.borrow();
+				dialect = resolveDialect(connection);
+				pool.release(connection);
+			} catch (ClassNotFoundException | SQLException e) {
+				throw new FlumeException("Error opening JDBC connection to " + url, e);
+			}
+		}
+
+		if (sqlSourceHelper.isChangeLogInstallSet()) {
+			if (dialect == null) {
+				throw new FlumeException("Unknown database, set hibernate.dialect to install the change-log");
+			}
+			Connection connection = null;
+			try {
+				connection = pool.borrow();
+				ChangeLog.install(connection, dialect, sqlSourceHelper);
+				pool.release(connection);
+			} catch (SQLException e) {
+				if (connection != null) {
+					pool.invalidate(connection);
+				}
+				throw new FlumeException("Error installing change-log " + sqlSourceHelper.getChangeLogTable(), e);
+			}
+		}
+	}
+
+	/**
+	 * Close database connections, the pool is only closed by the engine that opened it
+	 */
+	@Override
+	public void closeSession() {
+
+		if (owner == null) {
+			LOG.info("Closing JDBC connection");
+			pool.close();
+		}
+	}
+
+	@Override
+	public List<List<Object>> executeQuery() throws InterruptedException {
+
+		final List<List<Object>> rowsList = new ArrayList<List<Object>>();
+
+		try {
+			scroll(sqlSourceHelper.getMaxRows(), true, new RowHandler() {
+				@Override
+				public void handle(Object[] row) {
+					rowsList.add(Arrays.asList(row));
+				}
+			});
+		} catch (IOException e) {
+			/* the handler only adds to the list */
+			throw new FlumeException(e);
+		}
+
+		return rowsList;
+	}
+
+	/**
+	 * Execute the selection query fetching <tt>batch.size</tt> rows from the database at a time
+	 * and handing them over one by one as they arrive.
+	 * @param handler Receives each row of the query result
+	 * @return The number of rows handled
+	 * @throws InterruptedException
+	 * @throws IOException If the handler fails to deliver a row
+	 */
+	@Override
+	public int scrollQuery(RowHandler handler) throws InterruptedException, IOException {
+
+		return scroll(sqlSourceHelper.getBatchSize(), false, handler);
+	}
+
+	/*
+	 * A page stops before the row going over the fetch budget, rows handed over as they arrive wait for it
+	 */
+	private int scroll(int fetchSize, boolean page, RowHandler handler) throws IOException, InterruptedException {
+
+		int rows = 0;
+		Object[] key = null;
+		boolean cut = false;
+		FlumeException failure = null;
+		int keyColumns = sqlSourceHelper.getKeyColumnCount();
+		LobReader lobReader = sqlSourceHelper.getLobReader();
+		FetchBudget budget = sqlSourceHelper.getFetchBudget();
+		RowSelection selection = new RowSelection();
+		List<Object> parameters = new ArrayList<Object>();
+		String sql = bindQuery(sqlSourceHelper, parameters);
+
+		if (!sqlSourceHelper.isCustomQuerySet() && keyColumns == 0) {
+			selection.setFirstRow(sqlSourceHelper.getRowOffset());
+		}
+		if (sqlSourceHelper.getMaxRows() != 0) {
+			selection.setMaxRows(sqlSourceHelper.getMaxRows());
+		}
+
+		Connection connection = null;
+		try {
+			connection = pool.borrow();
+
+			LimitHandler limitHandler = buildLimitHandler(sql, selection);
+			PreparedStatement statement = prepare(connection, limitHandler, parameters, fetchSize);
+			try (ResultSet results = statement.executeQuery()) {
+				int[] types = columnTypes(results.getMetaData());
+				/* the key columns are selected first and are not part of the exported row */
+				skip(results, limitHandler, selection);
+				while (results.next()) {
+					FetchBudget.Charge charge = budget.charge(!page || rows == 0);
+					Object[] row = lobReader.read(results, types, keyColumns, charge);
+					if (!charge.complete(row)) {
+						cut = true;
+						break;
+					}
+					if (keyColumns > 0) {
+						key = new Object[keyColumns];
+						for (int i = 0; i < keyColumns; i++) {
+							key[i] = results.getObject(i + 1);
+						}
+					}
+					handler.handle(row);
+					rows++;
+				}
+			} finally {
+				pool.finish(statement);
+			}
+			endRead(connection);
+			pool.release(connection);
+			connection = null;
+		} catch (SQLException e) {
+			LOG.error("Exception thrown, resetting connection.", e);
+			if (connection != null) {
+				pool.invalidate(connection);
+				connection = null;
+			}
+			failure = new FlumeException("Error reading rows of the query", e);
+			if (rows == 0) {
+				throw failure;
+			}
+		} finally {
+			/* the handler or the fetch budget failed in the middle of the read */
+			if (connection != null) {
+				abortRead(connection);
+			}
+			/* rows already handed over must not be read again */
+			if (rows > 0) {
+				sqlSourceHelper.advanceIndex(rows, key);
+			}
+			sqlSourceHelper.setPageCut(cut);
+			/* the rows already handed over are kept, the failure is reported once they are delivered */
+			sqlSourceHelper.setReadFailure(rows > 0 ? failure : null);
+		}
+
+		return rows;
+	}
+
+	private static int[] columnTypes(ResultSetMetaData metaData) throws SQLException {
+
+		int[] types = new int[metaData.getColumnCount()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = metaData.getColumnType(i + 1);
+		}
+		return types;
+	}
+
+	@Override
+	public Column[] getColumns() {
+
+		Connection connection = null;
+		try {
+			connection = pool.borrow();
+			Column[] columns = describeQuery(connection, sqlSourceHelper);
+			endRead(connection);
+			pool.release(connection);
+			return columns;
+		} catch (SQLException e) {
+			if (connection != null) {
+				pool.invalidate(connection);
+			}
+			throw new FlumeException("Error reading query metadata", e);
+		}
+	}
+
+	/**
+	 * Describe the columns of the selection query from the metadata of its prepared statement,
+	 * running it for a single row when the driver can not describe it before execution
+	 * @param target Connection to the database
+	 * @param sqlSourceHelper Configuration parameters
+	 * @return The columns of the exported rows
+	 * @throws SQLException
+	 */
+	static Column[] describeQuery(Connection target, SQLSourceHelper sqlSourceHelper) throws SQLException {
+
+		int first = sqlSourceHelper.getKeyColumnCount() + 1;
+		List<Object> parameters = new ArrayList<Object>();
+		String sql = bindQuery(sqlSourceHelper, parameters);
+
+		try (PreparedStatement statement = target.prepareStatement(sql)) {
+			ResultSetMetaData metaData = statement.getMetaData();
+			if (metaData != null) {
+				return Column.describe(metaData, first);
+			}
+			for (int i = 0; i < parameters.size(); i++) {
+				statement.setObject(i + 1, parameters.get(i));
+			}
+			statement.setMaxRows(1);
+			try (ResultSet results = statement.executeQuery()) {
+				return Column.describe(results.getMetaData(), first);
+			}
+		}
+	}
+
+	/**
+	 * Delete the changes saved in the status file from the change-log. A failed purge is
+	 * retried after the next checkpoint.
+	 */
+	@Override
+	public void afterCheckpoint() {
+
+		if (!sqlSourceHelper.isChangeLogPurgeSet()) {
+			return;
+		}
+
+		Connection connection = null;
+		try {
+			connection = pool.borrow();
+			List<Object> parameters = new ArrayList<Object>();
+			String sql = toPositional(sqlSourceHelper.getChangeLogPurgeQuery(), Collections.<String, Object> singletonMap(
+					SQLSourceHelper.KEYSET_PARAMETER, sqlSourceHelper.getChangeLogPurgeKey()), parameters);
+			PreparedStatement statement = pool.prepare(connection, sql);
+			try {
+				statement.setObject(1, parameters.get(0));
+				statement.executeUpdate();
+			} finally {
+				pool.finish(statement);
+			}
+			endRead(connection);
+			pool.release(connection);
+		} catch (SQLException e) {
+			LOG.error("Error purging change-log", e);
+			if (connection != null) {
+				pool.invalidate(connection);
+			}
+		}
+	}
+
+	/**
+	 * Query the lowest and highest values of the partition column
+	 * @return Both values, null if the table is empty
+	 */
+	@Override
+	public Object[] getPartitionBounds() {
+
+		Connection connection = null;
+		try {
+			connection = pool.borrow();
+			Object[] bounds = null;
+			try (PreparedStatement statement = connection.prepareStatement(sqlSourceHelper.getPartitionBoundsQuery());
+					ResultSet results = statement.executeQuery()) {
+				if (results.next()) {
+					bounds = new Object[] { results.getObject(1), results.getObject(2) };
+				}
+			}
+			endRead(connection);
+			pool.release(connection);
+			return bounds;
+		} catch (SQLException e) {
+			if (connection != null) {
+				pool.invalidate(connection);
+			}
+			throw new FlumeException("Error reading partition bounds", e);
+		}
+	}
+
+	/**
+	 * Borrow a connection of the pool, used by the workers of a partitioned read
+	 * @return The reader using the connection, must be closed by the caller
+	 */
+	@Override
+	public PartitionReader openPartitionReader() {
+
+		final Connection partitionConnection;
+		try {
+			partitionConnection = pool.borrow();
+		} catch (SQLException e) {
+			throw new FlumeException("Error opening JDBC connection to " + sqlSourceHelper.getConnectionURL(), e);
+		}
+
+		return new PartitionReader() {
+			private boolean failed;
+
+			@Override
+			public int read(Partition partition, RowHandler handler) throws IOException, InterruptedException {
+				try {
+					return readPartition(partitionConnection, partition, handler);
+				} catch (ChannelException e) {
+					throw e;
+				} catch (FlumeException e) {
+					failed = true;
+					throw e;
+				}
+			}
+
+			/*
+			 * A page may have been left in the middle of its transaction by its handler
+			 */
+			@Override
+			public void close() {
+				if (failed) {
+					pool.invalidate(partitionConnection);
+				} else {
+					abortRead(partitionConnection);
+				}
+			}
+		};
+	}
+
+	private int readPartition(Connection partitionConnection, Partition partition, RowHandler handler)
+			throws IOException, InterruptedException {
+
+		int rows = 0;
+		LobReader lobReader = sqlSourceHelper.getLobReader();
+		FetchBudget budget = sqlSourceHelper.getFetchBudget();
+		RowSelection selection = new RowSelection();
+		selection.setFirstRow((int) partition.getIndex());
+		if (sqlSourceHelper.getMaxRows() != 0) {
+			selection.setMaxRows(sqlSourceHelper.getMaxRows());
+		}
+
+		Map<String, Object> bounds = new HashMap<String, Object>();
+		if (sqlSourceHelper.isPartitionDates()) {
+			bounds.put(SQLSourceHelper.PARTITION_LOWER_PARAMETER, new Timestamp(partition.getLower()));
+			bounds.put(SQLSourceHelper.PARTITION_UPPER_PARAMETER, new Timestamp(partition.getUpper()));
+		} else {
+			bounds.put(SQLSourceHelper.PARTITION_LOWER_PARAMETER, partition.getLower());
+			bounds.put(SQLSourceHelper.PARTITION_UPPER_PARAMETER, partition.getUpper());
+		}
+		List<Object> parameters = new ArrayList<Object>();
+		String sql = toPositional(sqlSourceHelper.getPartitionQuery(), bounds, parameters);
+
+		LimitHandler limitHandler = buildLimitHandler(sql, selection);
+		PreparedStatement statement = null;
+		try {
+			statement = prepare(partitionConnection, limitHandler, parameters, sqlSourceHelper.getBatchSize());
+		} catch (SQLException e) {
+			throw new FlumeException("Error reading partition " + partition, e);
+		}
+		try (ResultSet results = statement.executeQuery()) {
+			int[] types = columnTypes(results.getMetaData());
+			skip(results, limitHandler, selection);
+			while (results.next()) {
+				FetchBudget.Charge charge = budget.charge(true);
+				Object[] row = lobReader.read(results, types, 0, charge);
+				charge.complete(row);
+				handler.handle(row);
+				rows++;
+			}
+			endRead(partitionConnection);
+		} catch (SQLException e) {
+			throw new FlumeException("Error reading partition " + partition, e);
+		} finally {
+			pool.finish(statement);
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Page the query with the limit syntax of the dialect, or with the max rows of the statement
+	 * when the database is unknown
+	 */
+	private LimitHandler buildLimitHandler(String sql, RowSelection selection) {
+
+		LimitHandler limitHandler = dialect == null ? null : dialect.buildLimitHandler(sql, selection);
+		if (limitHandler == null || !LimitHelper.useLimit(limitHandler, selection)) {
+			limitHandler = new NoopLimitHandler(sql, selection);
+		}
+		return limitHandler;
+	}
+
+	/*
+	 * Prepare the paged statement, binding the limit parameters around the query ones
+	 * in the order the dialect expects. The statement comes from the cache of the connection
+	 * when it was prepared before.
+	 */
+	private PreparedStatement prepare(Connection target, LimitHandler limitHandler, List<Object> parameters,
+			int fetchSize) throws SQLException {
+
+		PreparedStatement statement = pool.prepare(target, limitHandler.getProcessedSql());
+		try {
+			int index = 1;
+			index += limitHandler.bindLimitParametersAtStartOfQuery(statement, index);
+			for (Object parameter : parameters) {
+				statement.setObject(index++, parameter);
+			}
+			limitHandler.bindLimitParametersAtEndOfQuery(statement, index);
+			limitHandler.setMaxRows(statement);
+			if (fetchSize > 0) {
+				statement.setFetchSize(fetchSize);
+			}
+		} catch (SQLException e) {
+			pool.finish(statement);
+			throw e;
+		}
+
+		return statement;
+	}
+
+	/*
+	 * Skip the first rows on the client when the dialect cannot do it in the query
+	 */
+	private void skip(ResultSet results, LimitHandler limitHandler, RowSelection selection) throws SQLException {
+
+		if (!LimitHelper.hasFirstRow(selection)
+				|| limitHandler.supportsLimitOffset() && LimitHelper.useLimit(limitHandler, selection)) {
+			return;
+		}
+		for (int i = LimitHelper.getFirstRow(selection); i > 0 && results.next(); i--) {
+		}
+	}
+
+	/*
+	 * End the read transaction, so the next query sees the rows committed meanwhile
+	 */
+	private void endRead(Connection target) throws SQLException {
+
+		if (!pool.isAutoCommit()) {
+			target.commit();
+		}
+	}
+
+	/*
+	 * Roll back the transaction of a read that did not finish and give the connection back,
+	 * closing it when it can not be rolled back
+	 */
+	private void abortRead(Connection target) {
+
+		try {
+			if (!pool.isAutoCommit()) {
+				target.rollback();
+			}
+			pool.release(target);
+		} catch (SQLException e) {
+			LOG.warn("Error rolling back JDBC connection", e);
+			pool.invalidate(target);
+		}
+	}
+
+	private Dialect resolveDialect(Connection target) {
+
+		if (dialectClass != null) {
+			try {
+				return (Dialect) Class.forName(dialectClass).newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new FlumeException("Error loading dialect " + dialectClass, e);
+			}
+		}
+
+		try {
+			Dialect resolved = new StandardDialectResolver()
+					.resolveDialect(new DatabaseMetaDataDialectResolutionInfoAdapter(target.getMetaData()));
+			if (resolved == null) {
+				LOG.warn("Unknown database, queries will not be paged in the database. Set hibernate.dialect to page them");
+			}
+			return resolved;
+		} catch (SQLException e) {
+			throw new FlumeException("Error reading database metadata", e);
+		}
+	}
+
+	/*
+	 * Selection query with JDBC placeholders, adding the values to bind in their order
+	 */
+	private static String bindQuery(SQLSourceHelper sqlSourceHelper, List<Object> parameters) {
+
+		if (sqlSourceHelper.isCustomQuerySet()) {
+			return toPositional(sqlSourceHelper.buildQuery(), Collections.singletonMap(
+					SQLSourceHelper.CUSTOM_QUERY_PARAMETER, sqlSourceHelper.getCustomQueryParameter()), parameters);
+		}
+		if (sqlSourceHelper.isKeysetPaginationSet()) {
+			return toPositional(sqlSourceHelper.getQuery(), sqlSourceHelper.getKeysetParameters(), parameters);
+		}
+		return sqlSourceHelper.getQuery();
+	}
+
+	/*
+	 * Replace the named parameters of a query with JDBC placeholders, adding the value of each one
+	 * every time it appears. Other names, such as time literals, are left as they are.
+	 */
+	private static String toPositional(String sql, Map<String, Object> values, List<Object> parameters) {
+
+		StringBuffer positional = new StringBuffer();
+		Matcher matcher = PARAMETER.matcher(sql);
+		while (matcher.find()) {
+			if (values.containsKey(matcher.group(1))) {
+				parameters.add(values.get(matcher.group(1)));
+				matcher.appendReplacement(positional, "?");
+			}
+		}
+		matcher.appendTail(positional);
+		return positional.toString();
+	}
+}
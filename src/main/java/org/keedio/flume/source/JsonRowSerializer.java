@@ -0,0 +1,119 @@
+package org.keedio.flume.source;
+
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Serializes database rows as JSON objects, one property per column. <p>
+ * The property names of each column are escaped once when the serializer is created.
+ * Numbers and booleans are written as JSON values, nulls as null, dates and timestamps
+ * as milliseconds since the epoch, binary values in base64 and everything else as strings.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class JsonRowSerializer extends TextRowSerializer {
+
+	private final char[][] names;
+
+	/**
+	 * @param columns Columns of the query result
+	 * @param charset Charset to encode the event bodies
+	 */
+	public JsonRowSerializer(Column[] columns, Charset charset) {
+
+		super(charset);
+		names = new char[columns.length][];
+		for (int i = 0; i < columns.length; i++) {
+			names[i] = propertyName(i, columns[i].getName());
+		}
+	}
+
+	@Override
+	protected void beginRow() {
+		append('{');
+	}
+
+	@Override
+	protected void appendCell(int index, Object cell) {
+
+		append(index < names.length ? names[index] : propertyName(index, "column" + (index + 1)));
+
+		if (cell == null) {
+			append("null");
+		} else if (cell instanceof Boolean || cell instanceof Number && isFinite((Number) cell)) {
+			append(cell.toString());
+		} else if (cell instanceof Date) {
+			append(Long.toString(((Date) cell).getTime()));
+		} else if (cell instanceof byte[]) {
+			appendString(Base64.encodeBase64String((byte[]) cell));
+		} else {
+			appendString(cell.toString());
+		}
+	}
+
+	@Override
+	protected void endRow() {
+		append('}');
+	}
+
+	private static boolean isFinite(Number number) {
+
+		if (number instanceof Double || number instanceof Float) {
+			double value = number.doubleValue();
+			return !Double.isNaN(value) && !Double.isInfinite(value);
+		}
+		return true;
+	}
+
+	private void appendString(String value) {
+
+		append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String escaped = escape(c);
+			if (escaped == null) {
+				append(c);
+			} else {
+				append(escaped);
+			}
+		}
+		append('"');
+	}
+
+	/*
+	 * @return The escape sequence of a character inside a JSON string, null if it is written as it is
+	 */
+	private static String escape(char c) {
+
+		switch (c) {
+		case '"':
+			return "\\\"";
+		case '\\':
+			return "\\\\";
+		case '\n':
+			return "\\n";
+		case '\r':
+			return "\\r";
+		case '\t':
+			return "\\t";
+		default:
+			return c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+		}
+	}
+
+	/*
+	 * Build the text written before the value of a column, the separator included
+	 */
+	private static char[] propertyName(int index, String name) {
+
+		StringBuilder builder = new StringBuilder(index == 0 ? "\"" : ",\"");
+		for (int i = 0; i < name.length(); i++) {
+			String escaped = escape(name.charAt(i));
+			builder.append(escaped == null ? String.valueOf(name.charAt(i)) : escaped);
+		}
+		return builder.append("\":").toString().toCharArray();
+	}
+}
@@ -0,0 +1,272 @@
+package org.keedio.flume.source;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.flume.conf.ConfigurationException;
+
+/**
+ * Reads large text and binary values through the streams of the driver instead of letting it
+ * build the whole value, as Strings for text LOBs and byte arrays for binary LOBs. <p>
+ * Values longer than <tt>lob.max.size</tt> characters or bytes are truncated, or with <tt>lob.policy</tt>
+ * split they are read in {@link Chunks} of that size, the first one sent in the row and the next
+ * ones in events of their own. Each chunk is taken from the fetch budget as soon as it is read.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class LobReader {
+
+	/* headers of the events of the chunks after the first one */
+	static final String COLUMN_HEADER = "lob.column";
+	static final String CHUNK_HEADER = "lob.chunk";
+	static final String CHUNKS_HEADER = "lob.chunks";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * What to do with the values longer than <tt>lob.max.size</tt>
+	 */
+	public enum Policy {
+		TRUNCATE, SPLIT
+	}
+
+	private final int maxSize;
+	private final Policy policy;
+
+	/**
+	 * @param maxSize Max characters or bytes of a value in an event, 0 if not limited
+	 * @param policy What to do with longer values
+	 * @throws ConfigurationException If the values are split without a max size
+	 */
+	public LobReader(int maxSize, Policy policy) {
+
+		if (maxSize < 0) {
+			throw new ConfigurationException("lob.max.size can not be negative");
+		}
+		if (policy == Policy.SPLIT && maxSize == 0) {
+			throw new ConfigurationException("lob.policy split needs lob.max.size");
+		}
+		this.maxSize = maxSize;
+		this.policy = policy;
+	}
+
+	/**
+	 * @return true if values may be read in chunks
+	 */
+	public boolean isSplit() {
+		return policy == Policy.SPLIT;
+	}
+
+	/**
+	 * @param sqlType SQL type of a column
+	 * @return true if its values are read through streams
+	 */
+	public static boolean isLob(int sqlType) {
+
+		switch (sqlType) {
+		case Types.CLOB:
+		case Types.NCLOB:
+		case Types.LONGVARCHAR:
+		case Types.LONGNVARCHAR:
+		case Types.BLOB:
+		case Types.LONGVARBINARY:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Read a row of a result set, each chunk of its large values taken from the fetch budget as it is read
+	 * @param results Result set on the row
+	 * @param types SQL types of the columns
+	 * @param first Number of columns before the ones of the row
+	 * @param charge Bytes of the row, the rest of the row is not read once it is cut
+	 * @return The cells of the row
+	 */
+	public Object[] read(ResultSet results, int[] types, int first, FetchBudget.Charge charge)
+			throws SQLException, InterruptedException {
+
+		Object[] row = new Object[types.length - first];
+		try {
+			for (int i = first; i < types.length && !charge.isCut(); i++) {
+				row[i - first] = read(results, i + 1, types[i], charge);
+			}
+		} catch (SQLException | InterruptedException e) {
+			charge.cancel();
+			throw e;
+		}
+		return row;
+	}
+
+	private Object read(ResultSet results, int index, int sqlType, FetchBudget.Charge charge)
+			throws SQLException, InterruptedException {
+
+		switch (sqlType) {
+		case Types.BLOB:
+		case Types.LONGVARBINARY:
+			return readBinary(results.getBinaryStream(index), charge);
+		default:
+			return isLob(sqlType) ? readText(results.getCharacterStream(index), charge) : results.getObject(index);
+		}
+	}
+
+	/**
+	 * Read the LOBs of a row returned by the driver, in place
+	 * @param row Cells of the row, Clobs and Blobs are replaced by their value
+	 * @param charge Bytes of the row, the rest of the LOBs are not read once it is cut
+	 */
+	public void read(Object[] row, FetchBudget.Charge charge) throws SQLException, InterruptedException {
+
+		try {
+			for (int i = 0; i < row.length; i++) {
+				if (row[i] instanceof Clob) {
+					Clob clob = (Clob) row[i];
+					row[i] = charge.isCut() ? null : readText(clob.getCharacterStream(), charge);
+					clob.free();
+				} else if (row[i] instanceof Blob) {
+					Blob blob = (Blob) row[i];
+					row[i] = charge.isCut() ? null : readBinary(blob.getBinaryStream(), charge);
+					blob.free();
+				}
+			}
+		} catch (SQLException | InterruptedException e) {
+			charge.cancel();
+			throw e;
+		}
+	}
+
+	private Object readText(Reader reader, FetchBudget.Charge charge) throws SQLException, InterruptedException {
+
+		if (reader == null) {
+			return null;
+		}
+		try {
+			List<Object> chunks = new ArrayList<Object>(1);
+			StringBuilder chunk = new StringBuilder();
+			char[] buffer = new char[BUFFER_SIZE];
+			int read;
+			while ((read = reader.read(buffer, 0, room(chunk.length()))) > 0) {
+				chunk.append(buffer, 0, read);
+				if (chunk.length() == maxSize) {
+					if (policy == Policy.TRUNCATE) {
+						break;
+					}
+					if (!add(chunks, chunk.toString(), charge)) {
+						return null;
+					}
+					chunk.setLength(0);
+				}
+			}
+			if ((chunk.length() > 0 || chunks.isEmpty()) && !add(chunks, chunk.toString(), charge)) {
+				return null;
+			}
+			return chunks.size() == 1 ? chunks.get(0) : new Chunks(chunks);
+		} catch (IOException e) {
+			throw new SQLException("Error reading text value", e);
+		} finally {
+			close(reader);
+		}
+	}
+
+	private Object readBinary(InputStream stream, FetchBudget.Charge charge) throws SQLException, InterruptedException {
+
+		if (stream == null) {
+			return null;
+		}
+		try {
+			List<Object> chunks = new ArrayList<Object>(1);
+			ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = stream.read(buffer, 0, room(chunk.size()))) > 0) {
+				chunk.write(buffer, 0, read);
+				if (chunk.size() == maxSize) {
+					if (policy == Policy.TRUNCATE) {
+						break;
+					}
+					if (!add(chunks, chunk.toByteArray(), charge)) {
+						return null;
+					}
+					chunk.reset();
+				}
+			}
+			if ((chunk.size() > 0 || chunks.isEmpty()) && !add(chunks, chunk.toByteArray(), charge)) {
+				return null;
+			}
+			return chunks.size() == 1 ? chunks.get(0) : new Chunks(chunks);
+		} catch (IOException e) {
+			throw new SQLException("Error reading binary value", e);
+		} finally {
+			close(stream);
+		}
+	}
+
+	/*
+	 * Keep a chunk once its bytes are taken, a chunk of a cut row is dropped and the value not read further
+	 */
+	private static boolean add(List<Object> chunks, Object chunk, FetchBudget.Charge charge) throws InterruptedException {
+
+		if (!charge.add(chunk)) {
+			return false;
+		}
+		chunks.add(chunk);
+		return true;
+	}
+
+	/*
+	 * Characters or bytes to read in the buffer without going over the max size of a chunk
+	 */
+	private int room(int chunkSize) {
+		return maxSize == 0 ? BUFFER_SIZE : Math.min(BUFFER_SIZE, maxSize - chunkSize);
+	}
+
+	private static void close(Closeable stream) {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			/* the value is already read */
+		}
+	}
+
+	/**
+	 * A value split in chunks of <tt>lob.max.size</tt> characters or bytes
+	 */
+	public static class Chunks {
+
+		private final List<Object> chunks;
+
+		Chunks(List<Object> chunks) {
+			this.chunks = Collections.unmodifiableList(chunks);
+		}
+
+		/**
+		 * @return Strings or byte arrays, at least two
+		 */
+		public List<Object> getChunks() {
+			return chunks;
+		}
+
+		/**
+		 * @param chunk One of the chunks
+		 * @param charset Charset of the text chunks
+		 * @return The chunk as the body of an event
+		 */
+		static byte[] toBytes(Object chunk, Charset charset) {
+			return chunk instanceof byte[] ? (byte[]) chunk : ((String) chunk).getBytes(charset);
+		}
+	}
+}
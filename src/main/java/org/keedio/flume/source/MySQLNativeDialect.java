@@ -0,0 +1,32 @@
+package org.keedio.flume.source;
+
+import java.sql.Types;
+import java.util.Map;
+
+import org.hibernate.dialect.MySQL5Dialect;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * MySQL dialect reading the query results with the {@link NativeTypes} profile. <p>
+ * The metadata does not tell unsigned integers apart, so SMALLINT, MEDIUMINT and INT columns are read
+ * into the next wider type and BIGINT columns as big integers. BIT(1) columns are read as booleans
+ * and wider BIT columns as byte arrays.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class MySQLNativeDialect extends MySQL5Dialect {
+
+	public MySQLNativeDialect() {
+
+		Map<Integer, String> types = NativeTypes.standard();
+		types.put(Types.SMALLINT, StandardBasicTypes.INTEGER.getName());
+		types.put(Types.INTEGER, StandardBasicTypes.LONG.getName());
+		types.put(Types.BIGINT, StandardBasicTypes.BIG_INTEGER.getName());
+		types.put(Types.BIT, StandardBasicTypes.BINARY.getName());
+		for (Map.Entry<Integer, String> type : types.entrySet()) {
+			registerHibernateType(type.getKey(), type.getValue());
+		}
+		registerHibernateType(Types.BIT, 1, StandardBasicTypes.BOOLEAN.getName());
+	}
+}
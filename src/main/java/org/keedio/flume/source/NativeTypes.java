@@ -0,0 +1,66 @@
+package org.keedio.flume.source;
+
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Type mapping profile of the native dialects: the Hibernate type of each JDBC type of a query result,
+ * so the values are read with the accessor of their own type (<tt>getLong</tt>, <tt>getBigDecimal</tt>,
+ * <tt>getTimestamp</tt>, <tt>getBytes</tt>...) and converted by the source, instead of being turned
+ * into strings by the driver or the database. <p>
+ * Unlike the defaults of Hibernate, integers are read into types wide enough for unsigned columns,
+ * FLOAT columns as doubles, CHAR columns longer than 255 characters as strings and LOBs as streams,
+ * and the JDBC types Hibernate does not map are read as strings instead of failing the query.
+ * Each dialect adjusts the profile to the types of its database.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+final class NativeTypes {
+
+	private NativeTypes() {
+	}
+
+	/**
+	 * @return Hibernate type name of each JDBC type, a new map the dialect can change
+	 */
+	static Map<Integer, String> standard() {
+
+		Map<Integer, String> types = new HashMap<Integer, String>();
+		types.put(Types.BIT, StandardBasicTypes.BOOLEAN.getName());
+		types.put(Types.BOOLEAN, StandardBasicTypes.BOOLEAN.getName());
+		types.put(Types.TINYINT, StandardBasicTypes.SHORT.getName());
+		types.put(Types.SMALLINT, StandardBasicTypes.SHORT.getName());
+		types.put(Types.INTEGER, StandardBasicTypes.INTEGER.getName());
+		types.put(Types.BIGINT, StandardBasicTypes.LONG.getName());
+		types.put(Types.REAL, StandardBasicTypes.FLOAT.getName());
+		types.put(Types.FLOAT, StandardBasicTypes.DOUBLE.getName());
+		types.put(Types.DOUBLE, StandardBasicTypes.DOUBLE.getName());
+		types.put(Types.NUMERIC, StandardBasicTypes.BIG_DECIMAL.getName());
+		types.put(Types.DECIMAL, StandardBasicTypes.BIG_DECIMAL.getName());
+		types.put(Types.DATE, StandardBasicTypes.DATE.getName());
+		types.put(Types.TIME, StandardBasicTypes.TIME.getName());
+		types.put(Types.TIMESTAMP, StandardBasicTypes.TIMESTAMP.getName());
+		types.put(Types.CHAR, StandardBasicTypes.STRING.getName());
+		types.put(Types.VARCHAR, StandardBasicTypes.STRING.getName());
+		types.put(Types.NCHAR, StandardBasicTypes.STRING.getName());
+		types.put(Types.NVARCHAR, StandardBasicTypes.STRING.getName());
+		types.put(Types.LONGVARCHAR, StandardBasicTypes.CLOB.getName());
+		types.put(Types.CLOB, StandardBasicTypes.CLOB.getName());
+		types.put(Types.LONGNVARCHAR, StandardBasicTypes.NCLOB.getName());
+		types.put(Types.NCLOB, StandardBasicTypes.NCLOB.getName());
+		types.put(Types.BINARY, StandardBasicTypes.BINARY.getName());
+		types.put(Types.VARBINARY, StandardBasicTypes.BINARY.getName());
+		types.put(Types.LONGVARBINARY, StandardBasicTypes.BLOB.getName());
+		types.put(Types.BLOB, StandardBasicTypes.BLOB.getName());
+		/* no Java type of their own, the drivers give their text */
+		for (int sqlType : new int[] { Types.ARRAY, Types.DATALINK, Types.DISTINCT, Types.JAVA_OBJECT, Types.NULL,
+				Types.OTHER, Types.REF, Types.ROWID, Types.SQLXML, Types.STRUCT }) {
+			types.put(sqlType, StandardBasicTypes.STRING.getName());
+		}
+		return types;
+	}
+}
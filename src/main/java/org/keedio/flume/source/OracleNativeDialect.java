@@ -0,0 +1,43 @@
+package org.keedio.flume.source;
+
+import java.sql.Types;
+import java.util.Map;
+
+import org.hibernate.dialect.Oracle10gDialect;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Oracle dialect reading the query results with the {@link NativeTypes} profile. <p>
+ * LONG and LONG RAW columns are read as strings and byte arrays, as the driver does not give them
+ * as LOBs, TIMESTAMP WITH TIME ZONE and INTERVAL columns as text, to keep their zone and fields,
+ * and BINARY_FLOAT and BINARY_DOUBLE columns as numbers.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class OracleNativeDialect extends Oracle10gDialect {
+
+	/* types of the Oracle driver */
+	private static final int BINARY_FLOAT = 100;
+	private static final int BINARY_DOUBLE = 101;
+	private static final int TIMESTAMPTZ = -101;
+	private static final int TIMESTAMPLTZ = -102;
+	private static final int INTERVALYM = -103;
+	private static final int INTERVALDS = -104;
+
+	public OracleNativeDialect() {
+
+		Map<Integer, String> types = NativeTypes.standard();
+		types.put(Types.LONGVARCHAR, StandardBasicTypes.STRING.getName());
+		types.put(Types.LONGVARBINARY, StandardBasicTypes.BINARY.getName());
+		types.put(BINARY_FLOAT, StandardBasicTypes.FLOAT.getName());
+		types.put(BINARY_DOUBLE, StandardBasicTypes.DOUBLE.getName());
+		types.put(TIMESTAMPTZ, StandardBasicTypes.STRING.getName());
+		types.put(TIMESTAMPLTZ, StandardBasicTypes.TIMESTAMP.getName());
+		types.put(INTERVALYM, StandardBasicTypes.STRING.getName());
+		types.put(INTERVALDS, StandardBasicTypes.STRING.getName());
+		for (Map.Entry<Integer, String> type : types.entrySet()) {
+			registerHibernateType(type.getKey(), type.getValue());
+		}
+	}
+}
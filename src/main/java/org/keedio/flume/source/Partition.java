@@ -0,0 +1,108 @@
+package org.keedio.flume.source;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Range of the partition column read by one worker of a partitioned table read. <p>
+ * The range includes the lower bound and excludes the upper bound. Date columns are
+ * split using their time in milliseconds.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class Partition {
+
+	private static final String LOWER_STATUS_FILE = "Lower";
+	private static final String UPPER_STATUS_FILE = "Upper";
+	private static final String LAST_INDEX_STATUS_FILE = "LastIndex";
+	private static final String DONE_STATUS_FILE = "Done";
+
+	private final long lower, upper;
+	private long index;
+	private boolean done;
+
+	public Partition(long lower, long upper) {
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	long getLower() {
+		return lower;
+	}
+
+	long getUpper() {
+		return upper;
+	}
+
+	/*
+	 * @return long rows of the range already read
+	 */
+	long getIndex() {
+		return index;
+	}
+
+	void advance(int rows) {
+		index += rows;
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	void setDone() {
+		done = true;
+	}
+
+	/**
+	 * @return The partition values to save in the status file
+	 */
+	Map<String, String> toStatus() {
+
+		Map<String, String> status = new LinkedHashMap<String, String>();
+		status.put(LOWER_STATUS_FILE, Long.toString(lower));
+		status.put(UPPER_STATUS_FILE, Long.toString(upper));
+		status.put(LAST_INDEX_STATUS_FILE, Long.toString(index));
+		status.put(DONE_STATUS_FILE, Boolean.toString(done));
+		return status;
+	}
+
+	/**
+	 * @param status Partition values read from the status file
+	 * @return The partition with its saved progress
+	 */
+	static Partition fromStatus(Map<?, ?> status) {
+
+		Partition partition = new Partition(Long.parseLong((String) status.get(LOWER_STATUS_FILE)),
+				Long.parseLong((String) status.get(UPPER_STATUS_FILE)));
+		partition.index = Long.parseLong((String) status.get(LAST_INDEX_STATUS_FILE));
+		partition.done = Boolean.parseBoolean((String) status.get(DONE_STATUS_FILE));
+		return partition;
+	}
+
+	/**
+	 * Split the values between min and max (both included) in ranges of the same size
+	 * @param min Lowest value of the partition column
+	 * @param max Highest value of the partition column
+	 * @param count Number of partitions, fewer are returned when there are not enough values
+	 * @return The partitions covering all the values
+	 */
+	static Partition[] split(long min, long max, int count) {
+
+		long step = Math.max(1, (max - min) / count + 1);
+		int partitions = (int) Math.min(count, (max - min) / step + 1);
+
+		Partition[] result = new Partition[partitions];
+		for (int i = 0; i < partitions; i++) {
+			long lower = min + i * step;
+			long upper = i == partitions - 1 ? max + 1 : lower + step;
+			result[i] = new Partition(lower, upper);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + lower + ", " + upper + ")";
+	}
+}
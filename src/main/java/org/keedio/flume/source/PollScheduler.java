@@ -0,0 +1,105 @@
+package org.keedio.flume.source;
+
+import org.apache.flume.PollableSource.Status;
+
+/**
+ * Decides how long to wait before the next query depending on the rows returned by the last ones. <p>
+ * A full page is followed by the next query right away, a page with some rows waits
+ * <tt>run.query.delay</tt> and every empty poll doubles the wait up to <tt>run.query.max.delay</tt>. <p>
+ * The wait is done by the Flume PollableSourceRunner: the source returns BACKOFF and the runner sleeps
+ * the consecutive backoffs multiplied by {@link #getBackOffSleepIncrement()}, so the increment is
+ * computed to make that product the wanted delay. Other waits, like the ones after a failed query, are
+ * done the same way without changing the delay of the empty polls.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class PollScheduler {
+
+	private final long minDelay, maxDelay;
+	private final int maxRows;
+	/* delay of the empty polls, and wait of the last status returned */
+	private long delay, lastDelay;
+	private int idlePolls, backoffs;
+
+	/**
+	 * @param minDelay ms to wait after a page with some rows
+	 * @param maxDelay Max ms to wait after consecutive empty polls
+	 * @param maxRows Rows of a full page, 0 if pages are not limited
+	 */
+	public PollScheduler(long minDelay, long maxDelay, int maxRows) {
+		this.minDelay = minDelay;
+		this.maxDelay = Math.max(minDelay, maxDelay);
+		this.maxRows = maxRows;
+		this.delay = minDelay;
+	}
+
+	/**
+	 * Compute the wait after a query
+	 * @param rows Rows returned by the query
+	 * @return ms to wait before the next query, 0 to run it right away
+	 */
+	public long nextDelay(int rows) {
+
+		if (maxRows > 0 && rows >= maxRows) {
+			return 0;
+		}
+
+		if (rows > 0) {
+			idlePolls = 0;
+			delay = minDelay;
+		} else {
+			delay = idlePolls == 0 ? minDelay : Math.min(Math.max(1, delay * 2), maxDelay);
+			idlePolls++;
+		}
+		return delay;
+	}
+
+	/**
+	 * Status to return from process after a query
+	 * @param rows Rows returned by the query
+	 * @return READY to query again right away, BACKOFF to let the runner wait
+	 */
+	public Status afterPoll(int rows) {
+		return waitFor(nextDelay(rows));
+	}
+
+	/**
+	 * Status to return from process to wait a given time
+	 * @param wait ms to wait, 0 or less to run right away
+	 * @return READY to query again right away, BACKOFF to let the runner wait
+	 */
+	public Status waitFor(long wait) {
+
+		if (wait <= 0) {
+			return ready();
+		}
+		lastDelay = wait;
+		backoffs++;
+		return Status.BACKOFF;
+	}
+
+	/**
+	 * @return READY, resetting the consecutive backoffs as the runner does
+	 */
+	public Status ready() {
+		backoffs = 0;
+		lastDelay = 0;
+		return Status.READY;
+	}
+
+	/**
+	 * @return ms to wait chosen by the last status returned, 0 if it was READY
+	 */
+	public long getLastDelay() {
+		return lastDelay;
+	}
+
+	public long getBackOffSleepIncrement() {
+		return backoffs == 0 ? 0 : (lastDelay + backoffs - 1) / backoffs;
+	}
+
+	public long getMaxBackOffSleepInterval() {
+		return Math.max(maxDelay, lastDelay);
+	}
+}
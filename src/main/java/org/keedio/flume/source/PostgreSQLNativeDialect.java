@@ -0,0 +1,23 @@
+package org.keedio.flume.source;
+
+import java.util.Map;
+
+import org.hibernate.dialect.PostgreSQL82Dialect;
+
+/**
+ * PostgreSQL dialect reading the query results with the {@link NativeTypes} profile. <p>
+ * boolean columns, reported as BIT, are read as booleans, bytea columns as byte arrays, and uuid,
+ * json, jsonb, interval, inet and array columns, reported as OTHER or ARRAY, as their text.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class PostgreSQLNativeDialect extends PostgreSQL82Dialect {
+
+	public PostgreSQLNativeDialect() {
+
+		for (Map.Entry<Integer, String> type : NativeTypes.standard().entrySet()) {
+			registerHibernateType(type.getKey(), type.getValue());
+		}
+	}
+}
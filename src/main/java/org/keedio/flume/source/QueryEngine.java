@@ -0,0 +1,96 @@
+package org.keedio.flume.source;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs the queries of the source against the database. <p>
+ * Implementations are selected with the <tt>query.engine</tt> property: {@link HibernateHelper}
+ * (default) or {@link JdbcHelper}. Both move the current index of {@link SQLSourceHelper}
+ * forward after reading each page.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public interface QueryEngine {
+
+	/**
+	 * Create the engine of another query of the same source, sharing the connections of this one.
+	 * This engine must be connected first and closed last.
+	 * @param querySourceHelper Configuration parameters of the other query
+	 * @return The new engine, not connected yet
+	 */
+	QueryEngine forQuery(SQLSourceHelper querySourceHelper);
+
+	/**
+	 * Connect to database
+	 */
+	void establishSession();
+
+	/**
+	 * Close database connection
+	 */
+	void closeSession();
+
+	/**
+	 * Execute the selection query in the database
+	 * @return The query result. Each Object is a cell content, using database types.
+	 * @throws InterruptedException
+	 * @throws org.apache.flume.FlumeException If the query fails before reading any row, its connection is replaced.
+	 * A failure after some rows is kept in {@link SQLSourceHelper#takeReadFailure()} and the rows are returned.
+	 */
+	List<List<Object>> executeQuery() throws InterruptedException;
+
+	/**
+	 * Execute the selection query in the database reading the result through a forward-only cursor
+	 * @param handler Receives each row of the query result
+	 * @return The number of rows handled
+	 * @throws InterruptedException
+	 * @throws IOException If the handler fails to deliver a row
+	 * @throws org.apache.flume.FlumeException If the query fails before reading any row, its connection is replaced.
+	 * A failure after some rows is kept in {@link SQLSourceHelper#takeReadFailure()}.
+	 */
+	int scrollQuery(RowHandler handler) throws InterruptedException, IOException;
+
+	/**
+	 * Describe the columns of the rows returned by the selection query, without reading them
+	 * @return The columns of the exported rows
+	 */
+	Column[] getColumns();
+
+	/**
+	 * Query the lowest and highest values of the partition column
+	 * @return Both values, null if the table is empty
+	 */
+	Object[] getPartitionBounds();
+
+	/**
+	 * Called once the index reached is saved in the status file, to purge the change-log
+	 * when <tt>changelog.purge</tt> is set
+	 */
+	void afterCheckpoint();
+
+	/**
+	 * Open a new connection to read partitions, used by the workers of a partitioned read
+	 * @return The reader, must be closed by the caller
+	 */
+	PartitionReader openPartitionReader();
+
+	/**
+	 * Reads pages of partitions on its own connection
+	 */
+	interface PartitionReader {
+
+		/**
+		 * Read the next page of a partition through a forward-only cursor
+		 * @param partition Range to read, starting at its current index
+		 * @param handler Receives each row of the page
+		 * @return The number of rows handled
+		 * @throws IOException If the handler fails to deliver a row
+		 * @throws InterruptedException While waiting for the fetch budget
+		 */
+		int read(Partition partition, RowHandler handler) throws IOException, InterruptedException;
+
+		void close();
+	}
+}
@@ -0,0 +1,136 @@
+package org.keedio.flume.source;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.flume.FlumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the selection query in its own thread, so the next pages are read from the database
+ * while the source delivers the current one to the channel. <p>
+ * Pages are kept in a bounded queue together with the index reached after them, the status
+ * file must only be updated with that index once the page has been delivered. A failed query
+ * is handed over in its page as well, and the thread waits until the source has counted it in
+ * its circuit breaker and tells it when to run the next query.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class QueryPrefetcher implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(QueryPrefetcher.class);
+
+	private final QueryEngine queryEngine;
+	private final SQLSourceHelper sqlSourceHelper;
+	private final BlockingQueue<Page> pages;
+	private final BlockingQueue<Long> retryDelays = new ArrayBlockingQueue<Long>(1);
+	private final PollScheduler pollScheduler;
+	private Thread thread;
+
+	/**
+	 * @param queryEngine Used only by the prefetch thread once started
+	 * @param sqlSourceHelper Configuration parameters
+	 * @param capacity Max pages read and not delivered yet
+	 */
+	public QueryPrefetcher(QueryEngine queryEngine, SQLSourceHelper sqlSourceHelper, int capacity) {
+		this.queryEngine = queryEngine;
+		this.sqlSourceHelper = sqlSourceHelper;
+		this.pages = new ArrayBlockingQueue<Page>(capacity);
+		this.pollScheduler = new PollScheduler(sqlSourceHelper.getRunQueryDelay(), sqlSourceHelper.getRunQueryMaxDelay(),
+				sqlSourceHelper.getMaxRows());
+	}
+
+	public void start(String name) {
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		thread.interrupt();
+		thread.join();
+	}
+
+	/**
+	 * Wait for the next page read from the database
+	 * @param timeout Max ms to wait
+	 * @return The page, null if none was read in time
+	 * @throws InterruptedException
+	 */
+	public Page poll(long timeout) throws InterruptedException {
+		return pages.poll(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Let the prefetch thread run the next query after a failure
+	 * @param wait ms to wait before it, given by the circuit breaker of the query
+	 */
+	public void retryAfter(long wait) {
+		retryDelays.offer(wait);
+	}
+
+	@Override
+	public void run() {
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				List<List<Object>> rows = Collections.emptyList();
+				FlumeException failure;
+				try {
+					rows = queryEngine.executeQuery();
+					/* the rows read before a failure are kept and the failure is reported after them */
+					failure = sqlSourceHelper.takeReadFailure();
+				} catch (FlumeException e) {
+					failure = e;
+				} catch (RuntimeException e) {
+					failure = new FlumeException("Error reading rows of the query", e);
+				}
+
+				/* empty pages too, the source counts every query in its circuit breaker */
+				pages.put(new Page(rows, sqlSourceHelper.getCurrentIndex(), failure));
+
+				if (failure != null) {
+					/* the source counts the failure and tells how long to wait before the next query */
+					Thread.sleep(retryDelays.take());
+				} else if (!sqlSourceHelper.isPageCut()) {
+					/* a page stopped by the fetch budget is followed by the next one once there is room */
+					Thread.sleep(pollScheduler.nextDelay(rows.size()));
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.info("Prefetch thread stopped");
+		}
+	}
+
+	/**
+	 * Rows read by one query, the index to save once they are delivered and the failure of the query if any
+	 */
+	public static class Page {
+		private final List<List<Object>> rows;
+		private final String lastIndex;
+		private final FlumeException failure;
+
+		Page(List<List<Object>> rows, String lastIndex, FlumeException failure) {
+			this.rows = rows;
+			this.lastIndex = lastIndex;
+			this.failure = failure;
+		}
+
+		List<List<Object>> getRows() {
+			return rows;
+		}
+
+		String getLastIndex() {
+			return lastIndex;
+		}
+
+		FlumeException getFailure() {
+			return failure;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package org.keedio.flume.source;
+
+import java.io.IOException;
+
+/**
+ * Callback receiving the rows of a query one at a time, as they are read from the database
+ * 
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public interface RowHandler {
+
+	/**
+	 * Process one row of the query result
+	 * @param row The row cells, using database types (date,int,string...)
+	 * @throws IOException If the row can not be delivered
+	 */
+	void handle(Object[] row) throws IOException;
+}
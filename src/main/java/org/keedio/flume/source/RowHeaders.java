@@ -0,0 +1,173 @@
+package org.keedio.flume.source;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.flume.Event;
+import org.apache.flume.conf.ConfigurationException;
+import org.apache.flume.event.SimpleEvent;
+
+/**
+ * Builds the headers of the events of a query: the headers of the output format, the <tt>timestamp</tt>
+ * header, the <tt>rows</tt> header of packed events and a header for each column of <tt>header.columns</tt>,
+ * named as the column and holding its value in the row. <p>
+ * With <tt>event.time.column</tt> the <tt>timestamp</tt> header is the time in that column of the row,
+ * in ms since the epoch, instead of the time the event is built. The header names and the format headers
+ * are shared by all the events through {@link EventHeaders}.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class RowHeaders {
+
+	static final String TIMESTAMP_HEADER = "timestamp";
+	static final String ROWS_HEADER = "rows";
+
+	/* positions of the values of each event */
+	private static final int TIMESTAMP = 0;
+	private static final int ROWS = 1;
+	private static final int FIRST_COLUMN = 2;
+
+	private final Map<String, String> shared;
+	private final String[] names;
+	private final int[] columnIndexes;
+	private final int timeIndex;
+
+	/**
+	 * @param formatHeaders Headers of the output format, added to every event
+	 * @param headerColumns Columns copied to headers
+	 * @param eventTimeColumn Column of the event time, null to use the time the event is built
+	 * @param columns Columns of the query result
+	 * @throws ConfigurationException If a column is not in the query result
+	 */
+	public RowHeaders(Map<String, String> formatHeaders, String[] headerColumns, String eventTimeColumn,
+			Column[] columns) {
+
+		this.shared = Collections.unmodifiableMap(new HashMap<String, String>(formatHeaders));
+		this.names = new String[FIRST_COLUMN + headerColumns.length];
+		this.columnIndexes = new int[headerColumns.length];
+		names[TIMESTAMP] = TIMESTAMP_HEADER;
+		names[ROWS] = ROWS_HEADER;
+		for (int i = 0; i < headerColumns.length; i++) {
+			names[FIRST_COLUMN + i] = headerColumns[i];
+			columnIndexes[i] = indexOf(headerColumns[i], columns);
+		}
+		this.timeIndex = eventTimeColumn == null ? -1 : indexOf(eventTimeColumn, columns);
+	}
+
+	/**
+	 * @param row Cells of a row
+	 * @return The header values taken from the row, null if no header is taken from rows
+	 */
+	public String[] getValues(List<Object> row) {
+
+		if (!isRowDependent()) {
+			return null;
+		}
+		String[] values = new String[names.length];
+		for (int i = 0; i < columnIndexes.length; i++) {
+			values[FIRST_COLUMN + i] = text(row.get(columnIndexes[i]));
+		}
+		if (timeIndex >= 0) {
+			values[TIMESTAMP] = time(row.get(timeIndex));
+		}
+		return values;
+	}
+
+	/**
+	 * @param row Cells of a row
+	 * @return The header values taken from the row, null if no header is taken from rows
+	 */
+	public String[] getValues(Object[] row) {
+
+		if (!isRowDependent()) {
+			return null;
+		}
+		String[] values = new String[names.length];
+		for (int i = 0; i < columnIndexes.length; i++) {
+			values[FIRST_COLUMN + i] = text(row[columnIndexes[i]]);
+		}
+		if (timeIndex >= 0) {
+			values[TIMESTAMP] = time(row[timeIndex]);
+		}
+		return values;
+	}
+
+	/**
+	 * @param values Header values of two rows
+	 * @return true if the rows have the same header columns, so they can be packed in the same event
+	 */
+	public static boolean sameColumns(String[] values, String[] other) {
+
+		if (values == null || other == null) {
+			return values == other;
+		}
+		for (int i = FIRST_COLUMN; i < values.length; i++) {
+			String value = values[i];
+			if (value == null ? other[i] != null : !value.equals(other[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param body Event body
+	 * @param values Header values taken from the (first) row of the body, null if none. Completed with the
+	 *        timestamp and rows headers, so they can not be used again
+	 * @param rows Number of rows packed in the body, null if it holds a single row
+	 * @param timestamp Time the event is built, used when the row has no event time
+	 * @return The event sent to the channel
+	 */
+	public Event createEvent(byte[] body, String[] values, String rows, String timestamp) {
+
+		String[] eventValues = values == null ? new String[names.length] : values;
+		if (eventValues[TIMESTAMP] == null) {
+			eventValues[TIMESTAMP] = timestamp;
+		}
+		eventValues[ROWS] = rows;
+
+		Event event = new SimpleEvent();
+		event.setBody(body);
+		event.setHeaders(new EventHeaders(shared, names, eventValues));
+		return event;
+	}
+
+	private boolean isRowDependent() {
+		return columnIndexes.length > 0 || timeIndex >= 0;
+	}
+
+	private static String text(Object cell) {
+
+		if (cell == null) {
+			return null;
+		}
+		return cell instanceof BigDecimal ? ((BigDecimal) cell).toPlainString() : cell.toString();
+	}
+
+	private static String time(Object cell) {
+
+		if (cell instanceof Date) {
+			return Long.toString(((Date) cell).getTime());
+		}
+		if (cell instanceof Number) {
+			return Long.toString(((Number) cell).longValue());
+		}
+		return cell == null ? null : cell.toString();
+	}
+
+	private static int indexOf(String column, Column[] columns) {
+
+		for (int i = 0; columns != null && i < columns.length; i++) {
+			if (columns[i].getName().equalsIgnoreCase(column)) {
+				return i;
+			}
+		}
+		throw new ConfigurationException("Column " + column + " of header.columns or event.time.column is not "
+				+ "a column of the query");
+	}
+}
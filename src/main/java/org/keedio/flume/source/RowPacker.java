@@ -0,0 +1,79 @@
+package org.keedio.flume.source;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Packs the bodies of several rows into a single event body, separated by the row separator
+ * of the output format. A pack is full when it reaches <tt>rows.per.event</tt> rows or
+ * <tt>bytes.per.event</tt> bytes, and a row never makes a non-empty pack exceed the byte limit.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class RowPacker {
+
+	private final int maxRows, maxBytes;
+	private final byte[] separator;
+	private final ByteArrayOutputStream pack = new ByteArrayOutputStream();
+	private int rows;
+
+	/**
+	 * @param maxRows Max rows per pack
+	 * @param maxBytes Max bytes per pack, 0 if packs are not limited by size
+	 * @param separator Bytes written between rows
+	 */
+	public RowPacker(int maxRows, int maxBytes, byte[] separator) {
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+		this.separator = separator;
+	}
+
+	/**
+	 * @param length Bytes of the next row
+	 * @return true if the row can be added without exceeding the byte limit
+	 */
+	public boolean fits(int length) {
+		return rows == 0 || maxBytes == 0 || pack.size() + separator.length + length <= maxBytes;
+	}
+
+	public void add(byte[] body) {
+
+		if (rows > 0) {
+			pack.write(separator, 0, separator.length);
+		}
+		pack.write(body, 0, body.length);
+		rows++;
+	}
+
+	public boolean isFull() {
+		return rows >= maxRows || maxBytes > 0 && pack.size() >= maxBytes;
+	}
+
+	public boolean isEmpty() {
+		return rows == 0;
+	}
+
+	/**
+	 * @return Rows in the current pack
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Take the current pack, the packer is left empty
+	 * @return The body of the pack
+	 */
+	public byte[] drain() {
+
+		byte[] body = pack.toByteArray();
+		clear();
+		return body;
+	}
+
+	public void clear() {
+
+		pack.reset();
+		rows = 0;
+	}
+}
@@ -0,0 +1,34 @@
+package org.keedio.flume.source;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes database rows into event bodies. <p>
+ * Implementations reuse their buffers across rows, so each instance must be used by one thread.
+ * The serializer is selected with the <tt>output.format</tt> property.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public interface RowSerializer {
+
+	/**
+	 * Serialize a row read from a database cursor
+	 * @param row The row cells
+	 * @return The event body
+	 */
+	byte[] serialize(Object[] row);
+
+	/**
+	 * Serialize a row of a query result list
+	 * @param row The row cells
+	 * @return The event body
+	 */
+	byte[] serialize(List<Object> row);
+
+	/**
+	 * @return Headers describing the body format, added to every event
+	 */
+	Map<String, String> getHeaders();
+}
@@ -0,0 +1,32 @@
+package org.keedio.flume.source;
+
+import java.util.Map;
+
+import org.hibernate.dialect.SQLServer2008Dialect;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * SQL Server dialect reading the query results with the {@link NativeTypes} profile, instead of
+ * reading every column as a string like {@link SQLServerCustomDialect}. <p>
+ * tinyint columns, unsigned, are read as shorts, uniqueidentifier columns as their text, and
+ * datetimeoffset and sql_variant columns, types of the SQL Server driver, as their text.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class SQLServerNativeDialect extends SQLServer2008Dialect {
+
+	/* types of the SQL Server driver */
+	private static final int DATETIMEOFFSET = -155;
+	private static final int SQL_VARIANT = -150;
+
+	public SQLServerNativeDialect() {
+
+		Map<Integer, String> types = NativeTypes.standard();
+		types.put(DATETIMEOFFSET, StandardBasicTypes.STRING.getName());
+		types.put(SQL_VARIANT, StandardBasicTypes.STRING.getName());
+		for (Map.Entry<Integer, String> type : types.entrySet()) {
+			registerHibernateType(type.getKey(), type.getValue());
+		}
+	}
+}
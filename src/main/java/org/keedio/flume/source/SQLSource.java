@@ -19,51 +19,68 @@
 package org.keedio.flume.source;
 
 import java.io.IOException;
-import java.io.Writer;
+import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
+import org.apache.flume.FlumeException;
 import org.apache.flume.PollableSource;
+import org.apache.flume.conf.ConfigurationException;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.event.SimpleEvent;
 import org.apache.flume.source.AbstractSource;
 import org.keedio.flume.metrics.SqlSourceCounter;
+import org.keedio.flume.metrics.SqlSourceCounter.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.opencsv.CSVWriter;
-
 /*Support UTF-8 character encoding.*/
 import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.nio.charset.Charset;
 
 
 /**
  * A Source to read data from a SQL database. This source ask for new data in a table each configured time.<p>
+ * With <tt>queries</tt> set, the source runs several named queries, each one with its own status file and
+ * schedule, on <tt>query.workers</tt> threads sharing the connections to the database.<p>
  * 
  * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
  */
 public class SQLSource extends AbstractSource implements Configurable, PollableSource {
     @Override
     public long getBackOffSleepIncrement() {
-        return 0;
+        return pollScheduler.getBackOffSleepIncrement();
     }
 
     @Override
     public long getMaxBackOffSleepInterval() {
-        return 0;
+        return pollScheduler.getMaxBackOffSleepInterval();
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(SQLSource.class);
+    /* Header with the number of rows packed in the event body */
+    static final String ROWS_HEADER = RowHeaders.ROWS_HEADER;
     protected SQLSourceHelper sqlSourceHelper;
     private SqlSourceCounter sqlSourceCounter;
-    private CSVWriter csvWriter;
-    private HibernateHelper hibernateHelper;
+    private List<QueryTask> queryTasks;
+    private ExecutorService queryExecutor;
+    private PollScheduler pollScheduler;
        
     /**
      * Configure the source, load configuration properties and establish connection with database
@@ -75,18 +92,55 @@ public class SQLSource extends AbstractSource implements Configurable, PollableS
         	
     	LOG.info("Reading and processing configuration values for source " + getName());
 		
-    	/* Initialize configuration parameters */
-    	sqlSourceHelper = new SQLSourceHelper(context, this.getName());
+    	/* Initialize configuration parameters, one helper for each named query */
+    	Map<String, SQLSourceHelper> helpers = new LinkedHashMap<String, SQLSourceHelper>();
+    	String queries = context.getString("queries");
+    	if (queries == null || queries.trim().isEmpty()){
+    		helpers.put(getName(), new SQLSourceHelper(context, this.getName()));
+    	} else {
+    		for (String queryName : queries.trim().split("\\s+")){
+    			SQLSourceHelper helper = new SQLSourceHelper(SQLSourceHelper.getQueryContext(context, queryName),
+    					this.getName() + "." + queryName);
+    			if (helper.isPrefetchSet()){
+    				throw new ConfigurationException("prefetch.pages is not supported by named queries");
+    			}
+    			helpers.put(getName() + "." + queryName, helper);
+    		}
+    	}
+    	sqlSourceHelper = helpers.values().iterator().next();
+    	
+    	/* all the queries hold their rows in the budget of the source */
+    	for (SQLSourceHelper helper : helpers.values()){
+    		helper.setFetchBudget(sqlSourceHelper.getFetchBudget());
+    	}
         
     	/* Initialize metric counters */
 		sqlSourceCounter = new SqlSourceCounter("SOURCESQL." + this.getName());
         
-        /* Establish connection with database */
-        hibernateHelper = new HibernateHelper(sqlSourceHelper);
-        hibernateHelper.establishSession();
-       
-        /* Instantiate the CSV Writer */
-        csvWriter = new CSVWriter(new ChannelWriter(),sqlSourceHelper.getDelimiterEntry().charAt(0));
+        /* Establish connection with database, the other queries share the connections of the first one */
+        QueryEngine firstEngine = sqlSourceHelper.createQueryEngine();
+        firstEngine.establishSession();
+        
+        queryTasks = new ArrayList<QueryTask>();
+        long maxDelay = 0;
+        for (Map.Entry<String, SQLSourceHelper> helper : helpers.entrySet()){
+        	QueryEngine queryEngine = queryTasks.isEmpty() ? firstEngine : firstEngine.forQuery(helper.getValue());
+        	if (queryEngine != firstEngine){
+        		queryEngine.establishSession();
+        	}
+        	QueryTask task = new QueryTask(helper.getKey(), helper.getValue(), queryEngine);
+        	queryTasks.add(task);
+        	maxDelay = Math.max(maxDelay, task.pollScheduler.getMaxBackOffSleepInterval());
+        }
+        
+        /* Wait between queries through the runner backoff */
+        if (queryTasks.size() == 1){
+        	pollScheduler = queryTasks.get(0).pollScheduler;
+        } else {
+        	pollScheduler = new PollScheduler(0, maxDelay, 0);
+        	queryExecutor = Executors.newFixedThreadPool(sqlSourceHelper.getQueryWorkers(),
+        			new ThreadFactoryBuilder().setNameFormat("sql-source-" + getName() + "-query-%d").build());
+        }
         
     }  
     
@@ -96,32 +150,47 @@ public class SQLSource extends AbstractSource implements Configurable, PollableS
 	@Override
 	public Status process() throws EventDeliveryException {
 		
-		try {
-			sqlSourceCounter.startProcess();			
-			
-			List<List<Object>> result = hibernateHelper.executeQuery();
-						
-			if (!result.isEmpty())
-			{
-				csvWriter.writeAll(sqlSourceHelper.getAllRows(result),sqlSourceHelper.encloseByQuotes());
-				csvWriter.flush();
-				sqlSourceCounter.incrementEventCount(result.size());
-				
-				sqlSourceHelper.updateStatusFile();
+		sqlSourceCounter.startProcess();
+		
+		if (queryExecutor == null){
+			QueryTask task = queryTasks.get(0);
+			Status status = task.process();
+			sqlSourceCounter.endProcess(task.lastRows);
+			return status;
+		}
+		
+		/* run the queries whose delay is over, then wait for the next one */
+		List<QueryTask> due = new ArrayList<QueryTask>();
+		for (QueryTask task : queryTasks){
+			if (task.nextRun <= System.currentTimeMillis()){
+				due.add(task);
 			}
-			
-			sqlSourceCounter.endProcess(result.size());
-			
-			if (result.size() < sqlSourceHelper.getMaxRows()){
-				Thread.sleep(sqlSourceHelper.getRunQueryDelay());
+		}
+		
+		int rows = 0;
+		try {
+			for (Future<Status> result : queryExecutor.invokeAll(due)){
+				try {
+					result.get();
+				} catch (ExecutionException e){
+					LOG.error("Error running query", e.getCause());
+				}
 			}
-						
-			return Status.READY;
-			
-		} catch (IOException | InterruptedException e) {
-			LOG.error("Error procesing row", e);
-			return Status.BACKOFF;
+		} catch (InterruptedException e) {
+			LOG.warn("Interrupted while running queries", e);
+			Thread.currentThread().interrupt();
+		}
+		
+		long nextRun = Long.MAX_VALUE;
+		for (QueryTask task : queryTasks){
+			nextRun = Math.min(nextRun, task.nextRun);
 		}
+		for (QueryTask task : due){
+			rows += task.lastRows;
+		}
+		sqlSourceCounter.endProcess(rows);
+		
+		return pollScheduler.waitFor(nextRun - System.currentTimeMillis());
 	}
  
 	/**
@@ -145,46 +214,735 @@ public class SQLSource extends AbstractSource implements Configurable, PollableS
         
         try 
         {
-            hibernateHelper.closeSession();
-            csvWriter.close();    
-        } catch (IOException e) {
-        	LOG.warn("Error CSVWriter object ", e);
+            if (queryExecutor != null){
+            	queryExecutor.shutdownNow();
+            }
+            /* the first query owns the connections shared by the others */
+            for (int i = queryTasks.size() - 1; i >= 0; i--){
+            	queryTasks.get(i).stop();
+            }
         } finally {
         	this.sqlSourceCounter.stop();
         	super.stop();
         }
     }
     
-    private class ChannelWriter extends Writer{
-        private List<Event> events = new ArrayList<>();
+	private static long toPartitionValue(Object value) {
+		
+		if (value instanceof Date){
+			return ((Date) value).getTime();
+		}
+		return ((Number) value).longValue();
+	}
+    
+    /**
+     * One query of the source, with its own status, serializer, channel writer and schedule
+     */
+    private class QueryTask implements Callable<Status> {
+        private final String name;
+        private final SQLSourceHelper sqlSourceHelper;
+        private final QueryEngine queryEngine;
+        private final PollScheduler pollScheduler;
+        private final RowSerializer rowSerializer;
+        private final ChannelWriter channelWriter;
+        private final CircuitBreaker circuitBreaker;
+        private Column[] columns;
+        private ExecutorService partitionExecutor;
+        private List<PartitionWorker> partitionWorkers;
+        private Object partitionMaxKey;
+        private QueryPrefetcher prefetcher;
+        private QueryPrefetcher.Page pendingPage;
+        /* rows delivered by the last run and time of the next one */
+        private int lastRows;
+        private long nextRun;
 
-        @Override
-        public void write(char[] cbuf, int off, int len) throws IOException {
-            Event event = new SimpleEvent();
+        QueryTask(String name, SQLSourceHelper sqlSourceHelper, QueryEngine queryEngine) {
+            this.name = name;
+            this.sqlSourceHelper = sqlSourceHelper;
+            this.queryEngine = queryEngine;
             
-            String s = new String(cbuf);
-            event.setBody(s.substring(off, len-1).getBytes(Charset.forName(sqlSourceHelper.getDefaultCharsetResultSet())));
+            /* Instantiate the row serializer and the channel writer */
+            this.rowSerializer = newRowSerializer();
+            this.channelWriter = new ChannelWriter(sqlSourceHelper, rowSerializer, columns,
+            		sqlSourceHelper.getDuplicateFilter());
             
-            Map<String, String> headers;
-            headers = new HashMap<String, String>();
-			headers.put("timestamp", String.valueOf(System.currentTimeMillis()));
-			event.setHeaders(headers);
+            this.pollScheduler = new PollScheduler(sqlSourceHelper.getRunQueryDelay(), sqlSourceHelper.getRunQueryMaxDelay(),
+            		sqlSourceHelper.getMaxRows());
+            this.circuitBreaker = sqlSourceHelper.createCircuitBreaker();
+        }
+
+        @Override
+        public Status call() {
+        	Status status;
+        	try {
+        		status = process();
+        	} catch (RuntimeException e) {
+        		lastRows = 0;
+        		pollScheduler.afterPoll(0);
+        		throw e;
+        	} finally {
+        		nextRun = System.currentTimeMillis() + pollScheduler.getLastDelay();
+        	}
+        	return status;
+        }
+
+		Status process() {
+			
+			lastRows = 0;
+			/* the last queries failed, the database is not queried again until the wait is over */
+			long wait = circuitBreaker.getWait(System.currentTimeMillis());
+			if (wait > 0){
+				return pollScheduler.waitFor(wait);
+			}
+			
+			String index = sqlSourceHelper.getCurrentIndex();
+			try {
+				if (sqlSourceHelper.isPartitionedReadPending()){
+					return processPartitions();
+				}
+				
+				if (sqlSourceHelper.isPrefetchSet()){
+					return processPrefetched();
+				}
+				
+				if (sqlSourceHelper.isStreamingMode()){
+					return processStreaming();
+				}
+				
+				long queryStart = System.nanoTime();
+				List<List<Object>> result = queryEngine.executeQuery();
+				sqlSourceCounter.record(Phase.QUERY, System.nanoTime() - queryStart);
+				FlumeException readFailure = sqlSourceHelper.takeReadFailure();
+				if (readFailure == null){
+					querySucceeded();
+				}
+							
+				try {
+					if (!result.isEmpty())
+					{
+						for (List<Object> row : result){
+							channelWriter.writeRow(row);
+						}
+						channelWriter.flush();
+						delivered(result.size());
+						
+						checkpoint(null);
+					}
+				} finally {
+					sqlSourceHelper.getFetchBudget().release(sqlSourceHelper.getFetchBudget().sizeOf(result));
+				}
+				
+				/* the rows read before the query failed are delivered, the next query goes on after them */
+				if (readFailure != null){
+					return pollScheduler.waitFor(queryFailed(readFailure));
+				}
+				
+				/* a page stopped by the fetch budget is followed by the next one right away */
+				return sqlSourceHelper.isPageCut() ? pollScheduler.ready() : pollScheduler.afterPoll(result.size());
+				
+			} catch (IOException | InterruptedException e) {
+				LOG.error("Error procesing row", e);
+				/* the status file is not updated, the next poll reads the page again */
+				channelWriter.discard();
+				if (!sqlSourceHelper.isPrefetchSet()){
+					sqlSourceHelper.resetIndex(index);
+				}
+				/* back off as after an empty poll */
+				return pollScheduler.afterPoll(0);
+			} catch (ChannelException e) {
+				/* the status file is not updated, the next poll reads the page again or sends the prefetched one */
+				LOG.warn("Channel did not take the events of query " + name + ", they will be sent again", e);
+				channelWriter.discard();
+				if (!sqlSourceHelper.isPrefetchSet()){
+					sqlSourceHelper.resetIndex(index);
+				}
+				return pollScheduler.afterPoll(0);
+			} catch (FlumeException e) {
+				/* the engine already replaced the connection of the failed query, its page is read again */
+				channelWriter.discard();
+				if (!sqlSourceHelper.isPrefetchSet()){
+					sqlSourceHelper.resetIndex(index);
+				}
+				return pollScheduler.waitFor(queryFailed(e));
+			}
+		}
+
+		/*
+		 * Count a failed query, opening the circuit after too many in a row
+		 * @return ms to wait before the next query
+		 */
+		private long queryFailed(FlumeException e) {
+			long wait = circuitBreaker.failure(System.currentTimeMillis());
+			sqlSourceCounter.incrementQueryFailureCount();
+			if (circuitBreaker.isOpening()){
+				sqlSourceCounter.circuitOpened();
+				LOG.error("Query " + name + " failed " + circuitBreaker.getFailures() + " times in a row, circuit open", e);
+			} else {
+				LOG.warn("Query " + name + " failed, running it again in " + wait + " ms", e);
+			}
+			return wait;
+		}
+
+		private void querySucceeded() {
+			if (circuitBreaker.success()){
+				sqlSourceCounter.circuitClosed();
+				LOG.info("Query {} read from the database again, circuit closed", name);
+			}
+		}
+
+		/*
+		 * Save the index of the rows delivered, the current one when null
+		 */
+		private void checkpoint(String lastIndex) {
+			long start = System.nanoTime();
+			if (lastIndex == null) {
+				sqlSourceHelper.updateStatusFile();
+			} else {
+				sqlSourceHelper.updateStatusFile(lastIndex);
+			}
+			sqlSourceCounter.record(Phase.CHECKPOINT, System.nanoTime() - start);
+			queryEngine.afterCheckpoint();
+		}
+
+		private void delivered(int rows) {
+			int duplicates = channelWriter.takeDuplicates();
+			lastRows = rows;
+			sqlSourceCounter.incrementEventCount(rows - duplicates);
+			sqlSourceCounter.incrementDuplicateCount(duplicates);
+		}
+
+		/*
+		 * Write a row handed over by the cursor, its bytes leave the fetch budget once it is an event
+		 */
+		private void writeRow(ChannelWriter writer, Object[] row) throws IOException {
+			long size = sqlSourceHelper.getFetchBudget().sizeOf(row);
+			try {
+				writer.writeRow(row);
+			} finally {
+				sqlSourceHelper.getFetchBudget().release(size);
+			}
+		}
+
+		/**
+		 * Read the query result through a database cursor, sending the rows to the channel
+		 * in batches as they are read instead of loading the whole page in memory
+		 */
+		private Status processStreaming() throws IOException, InterruptedException {
+			
+			long start = System.nanoTime();
+			long busy = channelWriter.getBusyNanos();
+			int rows = queryEngine.scrollQuery(new RowHandler() {
+				@Override
+				public void handle(Object[] row) throws IOException {
+					writeRow(channelWriter, row);
+				}
+			});
+			FlumeException readFailure = sqlSourceHelper.takeReadFailure();
+			if (readFailure == null){
+				querySucceeded();
+			}
+			/* the rows are converted and delivered while the cursor is read */
+			sqlSourceCounter.record(Phase.QUERY, System.nanoTime() - start - (channelWriter.getBusyNanos() - busy));
+			
+			if (rows > 0)
+			{
+				channelWriter.flush();
+				delivered(rows);
+				
+				checkpoint(null);
+			}
+			
+			if (readFailure != null){
+				return pollScheduler.waitFor(queryFailed(readFailure));
+			}
+			return pollScheduler.afterPoll(rows);
+		}
+
+		/**
+		 * Deliver the next page read by the prefetch thread, which is already running the following query.
+		 * A page that fails to be delivered is sent again in the next call.
+		 */
+		private Status processPrefetched() throws IOException, InterruptedException {
+			
+			if (prefetcher == null){
+				prefetcher = new QueryPrefetcher(queryEngine, sqlSourceHelper, sqlSourceHelper.getPrefetchPages());
+				prefetcher.start("sql-source-" + name + "-prefetch");
+			}
+			
+			if (pendingPage == null){
+				pendingPage = prefetcher.poll(sqlSourceHelper.getRunQueryMaxDelay());
+			}
+			
+			/* the prefetch thread waits between queries, process only waits for its pages */
+			if (pendingPage == null){
+				return pollScheduler.ready();
+			}
+			
+			List<List<Object>> rows = pendingPage.getRows();
+			if (!rows.isEmpty()){
+				try {
+					for (List<Object> row : rows){
+						channelWriter.writeRow(row);
+					}
+					channelWriter.flush();
+				} catch (IOException | RuntimeException e){
+					channelWriter.discard();
+					throw e;
+				}
+				
+				delivered(rows.size());
+				checkpoint(pendingPage.getLastIndex());
+			}
+			FlumeException readFailure = pendingPage.getFailure();
+			pendingPage = null;
+			sqlSourceHelper.getFetchBudget().release(sqlSourceHelper.getFetchBudget().sizeOf(rows));
 			
+			/* the rows read before the query failed are delivered, the prefetch thread waits as the breaker says */
+			if (readFailure != null){
+				long wait = queryFailed(readFailure);
+				prefetcher.retryAfter(wait);
+				return pollScheduler.waitFor(wait);
+			}
+			querySucceeded();
+			return pollScheduler.ready();
+		}
+
+		/**
+		 * Read the next page of every partition of the table concurrently, each one on its own connection.
+		 * When all partitions are read the source goes on with the standard query from the end of the table.
+		 */
+		private Status processPartitions() throws InterruptedException {
+			
+			if (partitionWorkers == null){
+				startPartitionedRead();
+			}
+			assignPartitions();
+			
+			int rows = 0;
+			boolean failed = false;
+			List<Future<Integer>> results = partitionExecutor.invokeAll(partitionWorkers);
+			
+			for (Future<Integer> result : results){
+				try {
+					rows += result.get();
+				} catch (ExecutionException e){
+					LOG.error("Error reading partition, it will be retried", e.getCause());
+					failed = true;
+				}
+			}
+			
+			Iterator<PartitionWorker> it = partitionWorkers.iterator();
+			while (it.hasNext()){
+				if (it.next().partition.isDone()){
+					it.remove();
+				}
+			}
+			
+			if (sqlSourceHelper.isPartitionedReadDone()){
+				finishPartitionedRead();
+			}
+			
+			delivered(rows);
+			checkpoint(null);
+			
+			return failed ? pollScheduler.afterPoll(0) : pollScheduler.ready();
+		}
+
+		/*
+		 * Split the table in partitions the first time, from start.from when the table is paged by key
+		 */
+		private void startPartitionedRead() {
+			
+			if (!sqlSourceHelper.isPartitionsSplit()){
+				Object[] bounds = queryEngine.getPartitionBounds();
+				if (bounds != null && bounds[0] != null){
+					boolean dates = bounds[0] instanceof Date;
+					long lower = toPartitionValue(bounds[0]);
+					long end = toPartitionValue(bounds[1]) + 1;
+					Object startKey = sqlSourceHelper.getPartitionStartKey();
+					if (startKey != null){
+						/* keys after start.from, dates from its ms as the column may be more precise */
+						lower = Math.max(lower, toPartitionValue(startKey) + (startKey instanceof Date ? 0 : 1));
+					}
+					if (lower < end){
+						sqlSourceHelper.splitPartitions(lower, end, dates);
+					}
+				}
+				LOG.info("Reading table in partitions {}", sqlSourceHelper.getPartitions());
+			}
+			
+			partitionWorkers = new ArrayList<PartitionWorker>();
+			if (sqlSourceHelper.isPartitionsSplit()){
+				long upper = sqlSourceHelper.getPartitionEnd();
+				partitionMaxKey = sqlSourceHelper.isPartitionDates() ? new Timestamp(upper - 1) : (Object) (upper - 1);
+			}
+			
+			partitionExecutor = Executors.newFixedThreadPool(sqlSourceHelper.getPartitionCount(),
+					new ThreadFactoryBuilder().setNameFormat("sql-source-" + name + "-partition-%d").build());
+		}
+
+		/*
+		 * Create a worker for each partition started since the last poll, up to partition.count partitions
+		 */
+		private void assignPartitions() {
+			
+			Set<Partition> assigned = new HashSet<Partition>();
+			for (PartitionWorker worker : partitionWorkers){
+				assigned.add(worker.partition);
+			}
+			for (Partition partition : sqlSourceHelper.nextPartitions()){
+				if (!partition.isDone() && !assigned.contains(partition)){
+					partitionWorkers.add(new PartitionWorker(partition));
+				}
+			}
+		}
+
+		/*
+		 * Go on with the standard query after the last row of the partitioned read
+		 */
+		private void finishPartitionedRead() {
+			
+			if (sqlSourceHelper.isKeysetPaginationSet()){
+				if (partitionMaxKey != null){
+					sqlSourceHelper.advanceIndex(0, new Object[] { partitionMaxKey });
+				}
+			} else {
+				sqlSourceHelper.setCurrentIndex(Long.toString(sqlSourceHelper.getPartitionedRows()));
+			}
+			
+			LOG.info("Partitioned read finished, reading from index {}", sqlSourceHelper.getCurrentIndex());
+			sqlSourceHelper.finishPartitionedRead();
+			partitionExecutor.shutdown();
+		}
+
+		/*
+		 * Create a serializer of the configured output format, describing the query columns the first time
+		 */
+		private RowSerializer newRowSerializer() {
+			
+			if (columns == null){
+				columns = queryEngine.getColumns();
+				LOG.info("Query {} columns {}", name, Arrays.toString(columns));
+			}
+			return sqlSourceHelper.createRowSerializer(columns);
+		}
+
+		void stop() {
+			
+			try 
+			{
+				if (prefetcher != null){
+					prefetcher.stop();
+				}
+				if (partitionExecutor != null){
+					partitionExecutor.shutdownNow();
+					for (PartitionWorker worker : partitionWorkers){
+						worker.closeReader();
+					}
+				}
+				queryEngine.closeSession();
+				channelWriter.close();    
+			} catch (IOException e) {
+				LOG.warn("Error closing ChannelWriter object ", e);
+			} catch (InterruptedException e) {
+				LOG.warn("Interrupted while stopping prefetch thread", e);
+			} finally {
+				sqlSourceHelper.closeStatusFile();
+			}
+		}
+    
+	    /**
+	     * Reads the pages of one partition on its own connection, serializer and channel writer
+	     */
+	    private class PartitionWorker implements Callable<Integer> {
+	        private final Partition partition;
+	        private final RowSerializer partitionSerializer;
+	        private final ChannelWriter partitionWriter;
+	        private QueryEngine.PartitionReader reader;
+	
+	        PartitionWorker(Partition partition) {
+	            this.partition = partition;
+	            this.partitionSerializer = newRowSerializer();
+	            /* the partitions of the first read do not overlap, their rows are not filtered */
+	            this.partitionWriter = new ChannelWriter(sqlSourceHelper, partitionSerializer, columns, null);
+	        }
+	
+	        @Override
+	        public Integer call() throws IOException, InterruptedException {
+	            if (reader == null) {
+	                reader = queryEngine.openPartitionReader();
+	            }
+	
+	            int rows;
+	            try {
+	                long start = System.nanoTime();
+	                long busy = partitionWriter.getBusyNanos();
+	                rows = reader.read(partition, new RowHandler() {
+	                    @Override
+	                    public void handle(Object[] row) throws IOException {
+	                        writeRow(partitionWriter, row);
+	                    }
+	                });
+	                sqlSourceCounter.record(Phase.QUERY, System.nanoTime() - start - (partitionWriter.getBusyNanos() - busy));
+	                partitionWriter.flush();
+	            } catch (IOException | InterruptedException | RuntimeException e) {
+	                /* the whole page is read again on retry */
+	                partitionWriter.discard();
+	                closeReader();
+	                throw e;
+	            }
+	
+	            partition.advance(rows);
+	            if (sqlSourceHelper.getMaxRows() == 0 || rows < sqlSourceHelper.getMaxRows()) {
+	                partition.setDone();
+	                closeReader();
+	            }
+	            return rows;
+	        }
+	
+	        void closeReader() {
+	            if (reader != null) {
+	                reader.close();
+	                reader = null;
+	            }
+	        }
+	    }
+    }
+
+    private class ChannelWriter {
+        private List<Event> events = new ArrayList<>();
+        private final SQLSourceHelper sqlSourceHelper;
+        private final RowSerializer rowSerializer;
+        private final RowHeaders rowHeaders;
+        private final RowPacker packer;
+        private final DeliveryController delivery;
+        private final Column[] columns;
+        private final boolean splitLobs;
+        private final Charset charset;
+        private final DuplicateFilter duplicateFilter;
+        private final int[] digestColumns;
+        /* rows dropped since the last delivery */
+        private int duplicates;
+        /* header values of the rows in the pack, and time of the events of the current batch */
+        private String[] packValues;
+        private String batchTimestamp;
+        /* time spent converting rows and delivering them, not reading them */
+        private long busyNanos;
+
+        ChannelWriter(SQLSourceHelper sqlSourceHelper, RowSerializer rowSerializer, Column[] columns,
+        		DuplicateFilter duplicateFilter) {
+            this.sqlSourceHelper = sqlSourceHelper;
+            this.rowSerializer = rowSerializer;
+            this.rowHeaders = sqlSourceHelper.createRowHeaders(rowSerializer.getHeaders(), columns);
+            this.packer = sqlSourceHelper.createRowPacker();
+            this.delivery = sqlSourceHelper.createDeliveryController();
+            this.columns = columns;
+            this.splitLobs = sqlSourceHelper.getLobReader().isSplit();
+            this.charset = Charset.forName(sqlSourceHelper.getDefaultCharsetResultSet());
+            this.duplicateFilter = duplicateFilter;
+            this.digestColumns = duplicateFilter == null ? null : duplicateFilter.indexesOf(columns);
+        }
+
+        public void writeRow(List<Object> row) throws IOException {
+            if (duplicateFilter != null && !duplicateFilter.add(DuplicateFilter.digest(row, digestColumns))) {
+                duplicates++;
+                return;
+            }
+            if (splitLobs && hasChunks(row)) {
+                writeChunked(row);
+                return;
+            }
+            writeEvent(row);
+        }
+
+        private void writeEvent(List<Object> row) throws IOException {
+            long start = System.nanoTime();
+            byte[] body = rowSerializer.serialize(row);
+            String[] values = rowHeaders.getValues(row);
+            converted(start);
+            write(body, values);
+        }
+
+        public void writeRow(Object[] row) throws IOException {
+            if (duplicateFilter != null && !duplicateFilter.add(DuplicateFilter.digest(row, digestColumns))) {
+                duplicates++;
+                return;
+            }
+            if (splitLobs && hasChunks(Arrays.asList(row))) {
+                writeChunked(Arrays.asList(row));
+                return;
+            }
+            long start = System.nanoTime();
+            byte[] body = rowSerializer.serialize(row);
+            String[] values = rowHeaders.getValues(row);
+            converted(start);
+            write(body, values);
+        }
+
+        private boolean hasChunks(List<Object> row) {
+            for (Object cell : row) {
+                if (cell instanceof LobReader.Chunks)
+                	return true;
+            }
+            return false;
+        }
+
+        /*
+         * Send the row with the first chunk of its split values, then an event for each of the other chunks
+         */
+        private void writeChunked(List<Object> row) throws IOException {
+            List<Object> first = new ArrayList<Object>(row);
+            for (int i = 0; i < first.size(); i++) {
+                if (first.get(i) instanceof LobReader.Chunks)
+                	first.set(i, ((LobReader.Chunks) first.get(i)).getChunks().get(0));
+            }
+            writeEvent(first);
+            if (packer != null && !packer.isEmpty())
+            	addPack();
+            
+            for (int i = 0; i < row.size(); i++) {
+                if (!(row.get(i) instanceof LobReader.Chunks))
+                	continue;
+                List<Object> chunks = ((LobReader.Chunks) row.get(i)).getChunks();
+                for (int chunk = 1; chunk < chunks.size(); chunk++) {
+                    Event event = rowHeaders.createEvent(LobReader.Chunks.toBytes(chunks.get(chunk), charset),
+                    		rowHeaders.getValues(first), null, batchTimestamp());
+                    event.getHeaders().put(LobReader.COLUMN_HEADER, columns[i].getName());
+                    event.getHeaders().put(LobReader.CHUNK_HEADER, String.valueOf(chunk));
+                    event.getHeaders().put(LobReader.CHUNKS_HEADER, String.valueOf(chunks.size()));
+                    addEvent(event);
+                }
+            }
+        }
+
+        private void converted(long start) {
+            long nanos = System.nanoTime() - start;
+            busyNanos += nanos;
+            sqlSourceCounter.record(Phase.CONVERSION, nanos);
+        }
+
+        long getBusyNanos() {
+            return busyNanos;
+        }
+
+        private void write(byte[] body, String[] values) throws IOException {
+            if (packer == null) {
+                addEvent(body, values, null);
+                return;
+            }
+            
+            /* rows of an event share its header columns */
+            if (!packer.fits(body.length) || !packer.isEmpty() && !RowHeaders.sameColumns(packValues, values))
+            	addPack();
+            if (packer.isEmpty())
+            	packValues = values;
+            packer.add(body);
+            if (packer.isFull())
+            	addPack();
+        }
+
+        private void addPack() throws IOException {
+            int rows = packer.getRows();
+            addEvent(packer.drain(), packValues, String.valueOf(rows));
+            packValues = null;
+        }
+
+        private void addEvent(byte[] body, String[] values, String rows) throws IOException {
+            addEvent(rowHeaders.createEvent(body, values, rows, batchTimestamp()));
+        }
+
+        private void addEvent(Event event) throws IOException {
             events.add(event);
             
-            if (events.size() >= sqlSourceHelper.getBatchSize())
+            if (events.size() >= delivery.getBatchSize())
             	flush();
         }
 
-        @Override
+        /*
+         * Time of the events of the current batch, taken with its first event
+         */
+        private String batchTimestamp() {
+            if (events.isEmpty())
+            	batchTimestamp = String.valueOf(System.currentTimeMillis());
+            return batchTimestamp;
+        }
+
+        /**
+         * Deliver the pending events in batches of the current size, waiting and sending them again in smaller
+         * batches while the channel does not take them
+         * @throws ChannelException If the channel failed channel.full.retries times in a row
+         */
         public void flush() throws IOException {
-            getChannelProcessor().processEventBatch(events);
-            events.clear();
+            if (packer != null && !packer.isEmpty())
+            	addPack();
+            while (!events.isEmpty()) {
+                List<Event> batch = events.subList(0, Math.min(events.size(), delivery.getBatchSize()));
+                long start = System.nanoTime();
+                try {
+                    getChannelProcessor().processEventBatch(batch);
+                } catch (ChannelException e) {
+                    waitForChannel(e);
+                    continue;
+                }
+                long nanos = System.nanoTime() - start;
+                delivery.delivered(batch.size(), nanos);
+                delivered(batch, nanos);
+                batch.clear();
+            }
+        }
+
+        private void waitForChannel(ChannelException e) {
+            sqlSourceCounter.incrementChannelFullCount();
+            long wait = delivery.full();
+            if (wait < 0)
+            	throw e;
+            LOG.warn("Channel did not take a batch, sending it again in {} ms in batches of {} events: {}",
+            		new Object[] { wait, delivery.getBatchSize(), e.getMessage() });
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+
+        private void delivered(List<Event> batch, long nanos) {
+            busyNanos += nanos;
+            sqlSourceCounter.record(Phase.CHANNEL, nanos);
+            long bytes = 0;
+            for (Event event : batch)
+            	bytes += event.getBody().length;
+            sqlSourceCounter.incrementByteCount(bytes);
         }
 
-        @Override
         public void close() throws IOException {
             flush();
         }
+
+        public void discard() {
+            events.clear();
+            if (packer != null)
+            	packer.clear();
+            packValues = null;
+            rollbackDuplicates();
+        }
+
+        /**
+         * Forget the rows written since the last checkpoint, they were not delivered and will be read again
+         */
+        public void rollbackDuplicates() {
+            if (duplicateFilter != null)
+            	duplicateFilter.rollback();
+            duplicates = 0;
+        }
+
+        /**
+         * @return Rows dropped as duplicates since the last call
+         */
+        public int takeDuplicates() {
+            int dropped = duplicates;
+            duplicates = 0;
+            return dropped;
+        }
     }
 }
@@ -1,23 +1,20 @@
 package org.keedio.flume.source;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.nio.charset.Charset;
+import java.sql.Timestamp;
 import java.util.*;
 
 import com.google.common.base.Charsets;
 import org.hibernate.cfg.Configuration;
-import org.json.simple.JSONValue;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import static org.json.simple.parser.ParseException.*;
 
 import org.apache.flume.conf.ConfigurationException;
 import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,11 +26,53 @@ import org.slf4j.LoggerFactory;
  * <tt>table: </tt> table to read from <p>
  * <tt>columns.to.select: </tt> columns to select for import data (* will import all) <p>
  * <tt>run.query.delay: </tt> delay time to execute each query to database <p>
+ * <tt>run.query.max.delay: </tt> max delay reached doubling run.query.delay while the table is idle <p>
  * <tt>status.file.path: </tt> Directory to save status file <p>
  * <tt>status.file.name: </tt> Name for status file (saves last row index processed) <p>
  * <tt>batch.size: </tt> Batch size to send events from flume source to flume channel <p>
+ * <tt>batch.size.min, batch.size.max: </tt> Bounds of the batch size adapted to the channel (default batch.size, fixed) <p>
+ * <tt>channel.full.backoff: </tt> ms to wait before sending again a batch the channel did not take (default 100) <p>
+ * <tt>channel.full.retries: </tt> Times a batch is sent again before reading the page again in the next poll (default 3) <p>
  * <tt>max.rows: </tt> Max rows to import from DB in one query <p>
  * <tt>custom.query: </tt> Custom query to execute to database (be careful) <p>
+ * <tt>statement.cache.size: </tt> Prepared statements kept open by each connection to run them again (default 20, 0 disables it) <p>
+ * <tt>keyset.column: </tt> Ordered unique column, or two columns separated by a comma, used to page the table by key instead of by offset <p>
+ * <tt>keyset.type: </tt> Type of each keyset column: auto (default), long, decimal, timestamp or string <p>
+ * <tt>changelog.table: </tt> Change-log table filled by triggers of the table, read instead of the table itself <p>
+ * <tt>changelog.key.column: </tt> Key column of the table, saved in the change-log for each change <p>
+ * <tt>changelog.install: </tt> Create the change-log table and its triggers when they do not exist (default false) <p>
+ * <tt>changelog.purge: </tt> Delete the changes of the change-log once they are saved in the status file (default true) <p>
+ * <tt>keyset.lookback: </tt> ms a timestamp key must be behind the current time before its rows are read (default 0) <p>
+ * <tt>partition.column: </tt> Numeric or date column used to split the first read of the table in ranges <p>
+ * <tt>partition.count: </tt> Number of ranges read concurrently, each one on its own connection <p>
+ * <tt>partition.size: </tt> Width of each range, in values or ms of the partition column, to split the read in more ranges than partition.count (default 0, partition.count ranges) <p>
+ * <tt>prefetch.pages: </tt> Pages read ahead by a separate thread while the current one is delivered (0 disables it) <p>
+ * <tt>streaming.mode: </tt> Read rows through a forward-only cursor and deliver them as they arrive <p>
+ * <tt>query.engine: </tt> hibernate (default) or jdbc, to run the queries through plain JDBC <p>
+ * <tt>output.format: </tt> Format of the event bodies: csv (default), json or avro <p>
+ * <tt>rows.per.event: </tt> Rows packed in each event body (default 1, no packing) <p>
+ * <tt>bytes.per.event: </tt> Max bytes of a packed event body (default 0, not limited) <p>
+ * <tt>queries: </tt> Names of the queries run by the source, each one configured with the <tt>queries.&lt;name&gt;.</tt> properties <p>
+ * <tt>query.workers: </tt> Threads running the named queries, and idle connections kept by the jdbc engine (default 1) <p>
+ * <tt>status.file.sync: </tt> When status checkpoints are forced to disk: always, batch (default) or none <p>
+ * <tt>status.file.sync.interval: </tt> Min ms between forces to disk in batch sync mode (default 1000) <p>
+ * <tt>status.journal.max.records: </tt> Checkpoints appended to the journal before compacting it into the status file (default 1000) <p>
+ * <tt>avro.schema.url: </tt> Location of the Avro schema, sent in the events instead of the schema itself <p>
+ * <tt>header.columns: </tt> Columns copied to headers of the same name in each event <p>
+ * <tt>event.time.column: </tt> Column with the time of the <tt>timestamp</tt> header, instead of the current time <p>
+ * <tt>null.value: </tt> Text of the NULL cells in csv format (default empty) <p>
+ * <tt>binary.encoding: </tt> Encoding of the binary cells in csv format: base64 (default) or hex <p>
+ * <tt>lob.max.size: </tt> Max characters or bytes of a LOB value in an event (default 0, not limited) <p>
+ * <tt>lob.policy: </tt> What to do with longer LOB values: truncate (default) or split in several events <p>
+ * <tt>fetch.max.bytes: </tt> Max bytes of the rows read and not yet sent by the whole source (default 0, not limited) <p>
+ * <tt>dedup.columns: </tt> Columns identifying a row, or *, to drop the rows read again by overlapping polls <p>
+ * <tt>dedup.max.rows: </tt> Max digests of rows kept to find duplicates (default 100000) <p>
+ * <tt>dedup.window: </tt> ms the digest of a row is kept (default 3600000) <p>
+ * <tt>connection.retry.delay: </tt> ms to wait after a failed query, doubled on each consecutive failure (default 1000) <p>
+ * <tt>connection.retry.max.delay: </tt> Max ms to wait between two failed queries (default 60000) <p>
+ * <tt>connection.failure.threshold: </tt> Consecutive failed queries opening the circuit of the query (default 3) <p>
+ * <tt>connection.validation.interval: </tt> ms a pooled connection can stay idle before it is checked again (default 30000, 0 disables it) <p>
+ * <tt>date.format, time.format, timestamp.format: </tt> SimpleDateFormat patterns of the temporal cells in csv format (default JDBC escape format) <p>
  *
  * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
  * @author <a href="mailto:lalazaro@keedio.com">Luis Lazaro</a>
@@ -44,26 +83,90 @@ public class SQLSourceHelper {
   private static final Logger LOG = LoggerFactory.getLogger(SQLSourceHelper.class);
 
   private File file, directory;
-  private int runQueryDelay, batchSize, maxRows;
-  private String startFrom, currentIndex;
+  private int runQueryDelay, runQueryMaxDelay, batchSize, maxRows, partitionCount, prefetchPages, rowsPerEvent,
+    bytesPerEvent, statusJournalMaxRecords, queryWorkers, statementCacheSize, minBatchSize, maxBatchSize,
+    channelFullRetries, connectionFailureThreshold;
+  private long statusFileSyncInterval, keysetLookback, channelFullBackoff, partitionSize, connectionRetryDelay,
+    connectionRetryMaxDelay, connectionValidationInterval;
+  private String startFrom, currentIndex, statusFileSync;
+  private CheckpointJournal journal;
   private String statusFilePath, statusFileName, connectionURL, table,
     columnsToSelect, customQuery, query, sourceName, delimiterEntry, connectionUserName, connectionPassword,
-		defaultCharsetResultSet;
+		defaultCharsetResultSet, keysetColumn, partitionColumn, queryEngine, outputFormat, avroSchemaUrl, changeLogTable,
+    changeLogKeyColumn;
   private Boolean encloseByQuotes;
 
   private Context context;
 
-  private Map<String, String> statusFileJsonMap = new LinkedHashMap<String, String>();
+  private Map<String, Object> statusFileJsonMap = new LinkedHashMap<String, Object>();
 
-  private boolean readOnlySession;
+  private boolean readOnlySession, streamingMode, partitionDates, changeLogInstall, changeLogPurge;
+
+  private List<Partition> partitions;
+
+  /* start of the next range of the partitioned read, end of the last one and rows of the ranges done */
+  private long partitionNext, partitionEnd, partitionRows;
+
+  private boolean partitionsSplit;
+
+  private String[] keysetColumns;
+
+  private Watermark watermark;
+
+  private CellConverter.Options cellOptions;
+
+  private String[] headerColumns;
+
+  private String eventTimeColumn;
+
+  private LobReader lobReader;
+
+  private FetchBudget fetchBudget;
+
+  private String[] dedupColumns;
+
+  private DuplicateFilter duplicateFilter;
+
+  /* the last page was stopped by the fetch budget */
+  private boolean pageCut;
+
+  /* error that stopped the last read after some of its rows were handed over */
+  private FlumeException readFailure;
 
   private static final String DEFAULT_STATUS_DIRECTORY = "/var/lib/flume";
   private static final int DEFAULT_QUERY_DELAY = 10000;
   private static final int DEFAULT_BATCH_SIZE = 100;
   private static final int DEFAULT_MAX_ROWS = 10000;
+  private static final long DEFAULT_CHANNEL_FULL_BACKOFF = 100;
+  private static final int DEFAULT_CHANNEL_FULL_RETRIES = 3;
+  private static final long DEFAULT_CONNECTION_RETRY_DELAY = 1000;
+  private static final long DEFAULT_CONNECTION_RETRY_MAX_DELAY = 60000;
+  private static final int DEFAULT_CONNECTION_FAILURE_THRESHOLD = 3;
+  private static final long DEFAULT_CONNECTION_VALIDATION_INTERVAL = 30000;
   private static final String DEFAULT_INCREMENTAL_VALUE = "0";
   private static final String DEFAULT_DELIMITER_ENTRY = ",";
   private static final Boolean DEFAULT_ENCLOSE_BY_QUOTES = true;
+  private static final boolean DEFAULT_STREAMING_MODE = false;
+  private static final int DEFAULT_PARTITION_COUNT = 1;
+  private static final long DEFAULT_PARTITION_SIZE = 0;
+  private static final int DEFAULT_PREFETCH_PAGES = 0;
+  private static final String DEFAULT_QUERY_ENGINE = "hibernate";
+  private static final String DEFAULT_OUTPUT_FORMAT = "csv";
+  private static final int DEFAULT_ROWS_PER_EVENT = 1;
+  private static final int DEFAULT_BYTES_PER_EVENT = 0;
+  private static final int DEFAULT_QUERY_WORKERS = 1;
+  private static final int DEFAULT_STATEMENT_CACHE_SIZE = 20;
+  private static final String DEFAULT_KEYSET_TYPE = "auto";
+  private static final String DEFAULT_NULL_VALUE = "";
+  private static final String DEFAULT_BINARY_ENCODING = "base64";
+  private static final String DEFAULT_STATUS_FILE_SYNC = "batch";
+  private static final long DEFAULT_STATUS_FILE_SYNC_INTERVAL = 1000;
+  private static final int DEFAULT_STATUS_JOURNAL_MAX_RECORDS = 1000;
+  private static final int DEFAULT_LOB_MAX_SIZE = 0;
+  private static final String DEFAULT_LOB_POLICY = "truncate";
+  private static final long DEFAULT_FETCH_MAX_BYTES = 0;
+  private static final int DEFAULT_DEDUP_MAX_ROWS = 100000;
+  private static final long DEFAULT_DEDUP_WINDOW = 3600000;
 
   private static final String SOURCE_NAME_STATUS_FILE = "SourceName";
   private static final String URL_STATUS_FILE = "URL";
@@ -71,8 +174,28 @@ public class SQLSourceHelper {
   private static final String TABLE_STATUS_FILE = "Table";
   private static final String LAST_INDEX_STATUS_FILE = "LastIndex";
   private static final String QUERY_STATUS_FILE = "Query";
+  private static final String KEYSET_COLUMN_STATUS_FILE = "KeysetColumn";
+  private static final String PARTITION_COLUMN_STATUS_FILE = "PartitionColumn";
+  private static final String PARTITION_DATES_STATUS_FILE = "PartitionDates";
+  private static final String PARTITIONS_STATUS_FILE = "Partitions";
+  private static final String PARTITION_NEXT_STATUS_FILE = "PartitionNext";
+  private static final String PARTITION_END_STATUS_FILE = "PartitionEnd";
+  private static final String PARTITION_ROWS_STATUS_FILE = "PartitionRows";
   private static final String DEFAULT_CHARSET_RESULTSET = "UTF-8";
 
+  static final String KEYSET_PARAMETER = "lastKey";
+  static final String KEYSET_TIE_PARAMETER = "lastTieKey";
+  static final String KEYSET_MAX_PARAMETER = "maxKey";
+  static final String CUSTOM_QUERY_PARAMETER = "lastIndex";
+  private static final String KEYSET_ALIAS = "keyset_key";
+  private static final String KEYSET_TIE_ALIAS = "keyset_tie_key";
+  private static final String CHANGE_LOG_ALIAS = "log_row";
+  private static final String CHANGE_LOG_LAST_ALIAS = "last_row";
+  private static final String CHANGE_LOG_BASE_ALIAS = "base_row";
+  private static final String CHANGE_LOG_KEY_ALIAS = "change_key";
+  static final String PARTITION_LOWER_PARAMETER = "lower";
+  static final String PARTITION_UPPER_PARAMETER = "upper";
+
   /**
    * Builds an SQLSourceHelper containing the configuration parameters and
    * usefull utils for SQL Source
@@ -88,44 +211,152 @@ public class SQLSourceHelper {
     statusFileName = context.getString("status.file.name");
     table = context.getString("table");
     columnsToSelect = context.getString("columns.to.select", "*");
+    changeLogTable = context.getString("changelog.table");
+    changeLogKeyColumn = context.getString("changelog.key.column");
+    changeLogInstall = context.getBoolean("changelog.install", false);
+    changeLogPurge = context.getBoolean("changelog.purge", true);
+    /* the change-log is paged by its sequence, the table name keeps the status file bound to it */
+    keysetColumn = changeLogTable != null ? changeLogTable + "." + ChangeLog.SEQUENCE_COLUMN
+      : context.getString("keyset.column");
+    keysetColumns = keysetColumn == null ? new String[0] : keysetColumn.trim().split("\\s*,\\s*");
+    keysetLookback = context.getLong("keyset.lookback", 0L);
+    partitionColumn = context.getString("partition.column", keysetColumn == null ? null : keysetColumns[0]);
+    partitionCount = context.getInteger("partition.count", DEFAULT_PARTITION_COUNT);
+    partitionSize = context.getLong("partition.size", DEFAULT_PARTITION_SIZE);
     runQueryDelay = context.getInteger("run.query.delay", DEFAULT_QUERY_DELAY);
+    runQueryMaxDelay = context.getInteger("run.query.max.delay", runQueryDelay);
     directory = new File(statusFilePath);
     customQuery = context.getString("custom.query");
     batchSize = context.getInteger("batch.size", DEFAULT_BATCH_SIZE);
+    minBatchSize = context.getInteger("batch.size.min", batchSize);
+    maxBatchSize = context.getInteger("batch.size.max", batchSize);
+    channelFullBackoff = context.getLong("channel.full.backoff", DEFAULT_CHANNEL_FULL_BACKOFF);
+    channelFullRetries = context.getInteger("channel.full.retries", DEFAULT_CHANNEL_FULL_RETRIES);
     maxRows = context.getInteger("max.rows", DEFAULT_MAX_ROWS);
+    connectionRetryDelay = context.getLong("connection.retry.delay", DEFAULT_CONNECTION_RETRY_DELAY);
+    connectionRetryMaxDelay = context.getLong("connection.retry.max.delay", DEFAULT_CONNECTION_RETRY_MAX_DELAY);
+    connectionFailureThreshold = context.getInteger("connection.failure.threshold", DEFAULT_CONNECTION_FAILURE_THRESHOLD);
+    connectionValidationInterval = context.getLong("connection.validation.interval", DEFAULT_CONNECTION_VALIDATION_INTERVAL);
     connectionURL = context.getString("hibernate.connection.url");
     connectionUserName = context.getString("hibernate.connection.user");
     connectionPassword = context.getString("hibernate.connection.password");
     readOnlySession = context.getBoolean("read.only", false);
+    streamingMode = context.getBoolean("streaming.mode", DEFAULT_STREAMING_MODE);
+    prefetchPages = context.getInteger("prefetch.pages", DEFAULT_PREFETCH_PAGES);
+    queryEngine = context.getString("query.engine", DEFAULT_QUERY_ENGINE);
+    outputFormat = context.getString("output.format", DEFAULT_OUTPUT_FORMAT);
+    avroSchemaUrl = context.getString("avro.schema.url");
+    rowsPerEvent = context.getInteger("rows.per.event", DEFAULT_ROWS_PER_EVENT);
+    bytesPerEvent = context.getInteger("bytes.per.event", DEFAULT_BYTES_PER_EVENT);
+    queryWorkers = context.getInteger("query.workers", DEFAULT_QUERY_WORKERS);
+    statementCacheSize = context.getInteger("statement.cache.size", DEFAULT_STATEMENT_CACHE_SIZE);
+    statusFileSync = context.getString("status.file.sync", DEFAULT_STATUS_FILE_SYNC);
+    statusFileSyncInterval = context.getLong("status.file.sync.interval", DEFAULT_STATUS_FILE_SYNC_INTERVAL);
+    statusJournalMaxRecords = context.getInteger("status.journal.max.records", DEFAULT_STATUS_JOURNAL_MAX_RECORDS);
 
     this.sourceName = sourceName;
     startFrom = context.getString("start.from", DEFAULT_INCREMENTAL_VALUE);
     delimiterEntry = context.getString("delimiter.entry", DEFAULT_DELIMITER_ENTRY);
     encloseByQuotes = context.getBoolean("enclose.by.quotes", DEFAULT_ENCLOSE_BY_QUOTES);
-    statusFileJsonMap = new LinkedHashMap<String, String>();
+    statusFileJsonMap = new LinkedHashMap<String, Object>();
     defaultCharsetResultSet = context.getString("default.charset.resultset", DEFAULT_CHARSET_RESULTSET);
+    String headerColumnList = context.getString("header.columns");
+    headerColumns = headerColumnList == null || headerColumnList.trim().isEmpty() ? new String[0]
+      : headerColumnList.trim().split("\\s*,\\s*");
+    eventTimeColumn = context.getString("event.time.column");
+    String dedupColumnList = context.getString("dedup.columns");
+    dedupColumns = dedupColumnList == null || dedupColumnList.trim().isEmpty() ? null
+      : dedupColumnList.trim().split("\\s*,\\s*");
+    cellOptions = new CellConverter.Options(context.getString("null.value", DEFAULT_NULL_VALUE),
+      context.getString("binary.encoding", DEFAULT_BINARY_ENCODING), context.getString("date.format"),
+      context.getString("time.format"), context.getString("timestamp.format"));
+
+    lobReader = new LobReader(context.getInteger("lob.max.size", DEFAULT_LOB_MAX_SIZE),
+      lobPolicy(context.getString("lob.policy", DEFAULT_LOB_POLICY)));
+    fetchBudget = new FetchBudget(context.getLong("fetch.max.bytes", DEFAULT_FETCH_MAX_BYTES));
+    int dedupMaxRows = context.getInteger("dedup.max.rows", DEFAULT_DEDUP_MAX_ROWS);
+    long dedupWindow = context.getLong("dedup.window", DEFAULT_DEDUP_WINDOW);
 
     checkMandatoryProperties();
 
+    if (isKeysetPaginationSet()) {
+      watermark = new Watermark(changeLogTable != null ? new Watermark.Type[] {Watermark.Type.LONG}
+        : getKeysetTypes(context.getString("keyset.type", DEFAULT_KEYSET_TYPE)));
+    }
+
     if (!(isStatusDirectoryCreated())) {
       createDirectory();
     }
 
     file = new File(statusFilePath + "/" + statusFileName);
+    journal = new CheckpointJournal(file, CheckpointJournal.SyncMode.valueOf(statusFileSync.toUpperCase()),
+      statusFileSyncInterval, statusJournalMaxRecords);
+    if (dedupColumns != null) {
+      duplicateFilter = new DuplicateFilter(dedupColumns, dedupMaxRows, dedupWindow,
+        new File(file.getPath() + DuplicateFilter.FILE_SUFFIX));
+    }
 
+    boolean recovered = false;
     if (!isStatusFileCreated()) {
       currentIndex = startFrom;
+      if (isPartitionedReadSet()) {
+        partitions = new ArrayList<Partition>();
+      }
       createStatusFile();
     } else {
       currentIndex = getStatusFileIndex(startFrom);
+      /* the status file is backed up when it can not be recovered */
+      recovered = isStatusFileCreated();
+    }
+
+    if (duplicateFilter != null) {
+      loadDuplicateFilter(recovered);
+    }
+
+    if (isKeysetPaginationSet()) {
+      try {
+        watermark.parse(currentIndex);
+      } catch (IllegalArgumentException e) {
+        throw new ConfigurationException("Last index " + currentIndex + " is not a key of the types set in keyset.type", e);
+      }
     }
 
     query = buildQuery();
   }
 
+  /**
+   * @return The selection query. Custom queries get the current index written in place of <tt>$@$</tt>,
+   * while <tt>:lastIndex</tt> is left to be bound as a parameter so the query text does not change
+   */
   public String buildQuery() {
 
     if (customQuery == null) {
+      if (changeLogTable != null) {
+        return buildChangeLogQuery();
+      }
+      if (keysetColumn != null) {
+        /* key goes first so it can be read back from each row, "*" must be qualified to be combined
+           and the key needs an alias not to clash with the same column selected again */
+        String columns = "*".equals(columnsToSelect) ? table + ".*" : columnsToSelect;
+        String key = keysetColumns[0];
+        String select = "SELECT " + key + " AS " + KEYSET_ALIAS;
+        String where = key + " > :" + KEYSET_PARAMETER;
+        String order = key;
+        if (keysetColumns.length > 1) {
+          String tie = keysetColumns[1];
+          select += ", " + tie + " AS " + KEYSET_TIE_ALIAS;
+          order += ", " + tie;
+          /* until the tie column of the last row is known the whole first value is skipped */
+          if (watermark == null || watermark.get(1) != null) {
+            where = "(" + where + " OR (" + key + " = :" + KEYSET_PARAMETER + " AND " + tie + " > :" + KEYSET_TIE_PARAMETER
+              + "))";
+          }
+        }
+        if (keysetLookback > 0) {
+          where += " AND " + key + " <= :" + KEYSET_MAX_PARAMETER;
+        }
+        return select + ", " + columns + " FROM " + table + " WHERE " + where + " ORDER BY " + order;
+      }
       return "SELECT " + columnsToSelect + " FROM " + table;
     } else {
       if (customQuery.contains("$@$")) {
@@ -136,8 +367,37 @@ public class SQLSourceHelper {
     }
   }
 
+  /*
+   * The latest change of each key after the last sequence read, joined to the current row of the table.
+   * Deleted rows only have the key and the operation.
+   */
+  private String buildChangeLogQuery() {
+
+    String log = CHANGE_LOG_ALIAS + ".";
+    String columns;
+    if ("*".equals(columnsToSelect)) {
+      columns = CHANGE_LOG_BASE_ALIAS + ".*";
+    } else {
+      /* plain column names would be ambiguous with the key of the change-log */
+      StringBuilder qualified = new StringBuilder();
+      for (String column : columnsToSelect.split(",")) {
+        String name = column.trim();
+        qualified.append(qualified.length() > 0 ? ", " : "")
+          .append(name.matches("\\w+") ? CHANGE_LOG_BASE_ALIAS + "." + name : name);
+      }
+      columns = qualified.toString();
+    }
+    return "SELECT " + log + ChangeLog.SEQUENCE_COLUMN + " AS " + KEYSET_ALIAS + ", " + log + ChangeLog.OPERATION_COLUMN
+      + ", " + log + changeLogKeyColumn + " AS " + CHANGE_LOG_KEY_ALIAS + ", " + columns + " FROM " + changeLogTable + " "
+      + CHANGE_LOG_ALIAS + " LEFT JOIN " + table + " " + CHANGE_LOG_BASE_ALIAS + " ON " + CHANGE_LOG_BASE_ALIAS + "."
+      + changeLogKeyColumn + " = " + log + changeLogKeyColumn + " WHERE " + log + ChangeLog.SEQUENCE_COLUMN + " > :"
+      + KEYSET_PARAMETER + " AND " + log + ChangeLog.SEQUENCE_COLUMN + " = (SELECT MAX(" + ChangeLog.SEQUENCE_COLUMN
+      + ") FROM " + changeLogTable + " " + CHANGE_LOG_LAST_ALIAS + " WHERE " + CHANGE_LOG_LAST_ALIAS + "."
+      + changeLogKeyColumn + " = " + log + changeLogKeyColumn + ") ORDER BY " + log + ChangeLog.SEQUENCE_COLUMN;
+  }
+
   private boolean isStatusFileCreated() {
-    return file.exists() && !file.isDirectory() ? true : false;
+    return journal.exists();
   }
 
   private boolean isStatusDirectoryCreated() {
@@ -191,12 +451,16 @@ public class SQLSourceHelper {
     } else {
       statusFileJsonMap.put(COLUMNS_TO_SELECT_STATUS_FILE, columnsToSelect);
       statusFileJsonMap.put(TABLE_STATUS_FILE, table);
+      if (isKeysetPaginationSet()) {
+        statusFileJsonMap.put(KEYSET_COLUMN_STATUS_FILE, keysetColumn);
+      }
+      if (isPartitionedReadPending()) {
+        putPartitions();
+      }
     }
 
     try {
-      Writer fileWriter = new FileWriter(file, false);
-      JSONValue.writeJSONString(statusFileJsonMap, fileWriter);
-      fileWriter.close();
+      journal.writeSnapshot(statusFileJsonMap);
     } catch (IOException e) {
       LOG.error("Error creating value to status file!!!", e);
     }
@@ -206,16 +470,52 @@ public class SQLSourceHelper {
    * Update status file with last read row index
    */
   public void updateStatusFile() {
+    updateStatusFile(currentIndex);
+  }
 
-    statusFileJsonMap.put(LAST_INDEX_STATUS_FILE, currentIndex);
+  /**
+   * Update status file with the index of the last row delivered, which may be behind
+   * the last row read when pages are prefetched
+   *
+   * @param lastIndex Index to save
+   */
+  public void updateStatusFile(String lastIndex) {
+
+    statusFileJsonMap.put(LAST_INDEX_STATUS_FILE, lastIndex);
+    if (isPartitionedReadPending()) {
+      putPartitions();
+    }
 
     try {
-      Writer fileWriter = new FileWriter(file, false);
-      JSONValue.writeJSONString(statusFileJsonMap, fileWriter);
-      fileWriter.close();
+      journal.append(statusFileJsonMap);
     } catch (IOException e) {
       LOG.error("Error writing incremental value to status file!!!", e);
     }
+
+    if (duplicateFilter != null) {
+      try {
+        duplicateFilter.commit();
+      } catch (IOException e) {
+        LOG.error("Error saving the digests of the rows delivered, they may be sent again after a restart", e);
+      }
+    }
+  }
+
+  /*
+   * Digests saved with a status started again would drop the rows read from the start
+   */
+  private void loadDuplicateFilter(boolean recovered) {
+
+    if (!recovered) {
+      duplicateFilter.clear();
+      return;
+    }
+    try {
+      duplicateFilter.load();
+    } catch (IOException e) {
+      LOG.warn("Error reading the digests of the rows delivered, they may be sent again", e);
+      duplicateFilter.clear();
+    }
   }
 
   private String getStatusFileIndex(String configuredStartValue) {
@@ -225,16 +525,17 @@ public class SQLSourceHelper {
       return configuredStartValue;
     } else {
       try {
-        FileReader fileReader = new FileReader(file);
-
-        JSONParser jsonParser = new JSONParser();
-        statusFileJsonMap = (Map) jsonParser.parse(fileReader);
+        statusFileJsonMap = journal.recover();
         checkJsonValues();
-        return statusFileJsonMap.get(LAST_INDEX_STATUS_FILE);
+        getStatusFilePartitions();
+        return (String) statusFileJsonMap.get(LAST_INDEX_STATUS_FILE);
 
       } catch (Exception e) {
         LOG.error("Exception reading status file, doing back up and creating new status file", e);
         backupStatusFile();
+        if (isPartitionedReadSet()) {
+          partitions = new ArrayList<Partition>();
+        }
         return configuredStartValue;
       }
     }
@@ -271,6 +572,12 @@ public class SQLSourceHelper {
         LOG.error("Table value in status file doesn't match with configured in properties file");
         throw new ParseException(ERROR_UNEXPECTED_EXCEPTION);
       }
+      // last index is a key in keyset mode and a row count otherwise, they can't be mixed
+      String statusKeysetColumn = (String) statusFileJsonMap.get(KEYSET_COLUMN_STATUS_FILE);
+      if (statusKeysetColumn == null ? keysetColumn != null : !statusKeysetColumn.equals(keysetColumn)) {
+        LOG.error("KeysetColumn value in status file doesn't match with configured in properties file");
+        throw new ParseException(ERROR_UNEXPECTED_EXCEPTION);
+      }
       return;
     }
 
@@ -288,8 +595,70 @@ public class SQLSourceHelper {
     }
   }
 
+  /*
+   * A partitioned read is only pending while the status file keeps its partitions,
+   * they are removed once all of them have been read
+   */
+  private void getStatusFilePartitions() throws ParseException {
+
+    if (!statusFileJsonMap.containsKey(PARTITIONS_STATUS_FILE)) {
+      return;
+    }
+    if (!isPartitionedReadSet() || !statusFileJsonMap.get(PARTITION_COLUMN_STATUS_FILE).equals(partitionColumn)) {
+      LOG.error("PartitionColumn value in status file doesn't match with configured in properties file");
+      throw new ParseException(ERROR_UNEXPECTED_EXCEPTION);
+    }
+
+    partitionDates = Boolean.parseBoolean((String) statusFileJsonMap.get(PARTITION_DATES_STATUS_FILE));
+    partitions = new ArrayList<Partition>();
+    for (Object status : (List<?>) statusFileJsonMap.get(PARTITIONS_STATUS_FILE)) {
+      partitions.add(Partition.fromStatus((Map<?, ?>) status));
+    }
+
+    /* status files of older versions keep all the ranges, created when the read started */
+    partitionsSplit = statusFileJsonMap.containsKey(PARTITION_END_STATUS_FILE) || !partitions.isEmpty();
+    if (statusFileJsonMap.containsKey(PARTITION_END_STATUS_FILE)) {
+      partitionEnd = Long.parseLong((String) statusFileJsonMap.get(PARTITION_END_STATUS_FILE));
+      partitionNext = Long.parseLong((String) statusFileJsonMap.get(PARTITION_NEXT_STATUS_FILE));
+      partitionRows = Long.parseLong((String) statusFileJsonMap.get(PARTITION_ROWS_STATUS_FILE));
+    } else if (partitionsSplit) {
+      partitionEnd = partitions.get(partitions.size() - 1).getUpper();
+      partitionNext = partitionEnd;
+    }
+  }
+
+  private void putPartitions() {
+
+    List<Map<String, String>> status = new ArrayList<Map<String, String>>(partitions.size());
+    for (Partition partition : partitions) {
+      status.add(partition.toStatus());
+    }
+    statusFileJsonMap.put(PARTITION_COLUMN_STATUS_FILE, partitionColumn);
+    statusFileJsonMap.put(PARTITION_DATES_STATUS_FILE, Boolean.toString(partitionDates));
+    statusFileJsonMap.put(PARTITIONS_STATUS_FILE, status);
+    if (partitionsSplit) {
+      statusFileJsonMap.put(PARTITION_NEXT_STATUS_FILE, Long.toString(partitionNext));
+      statusFileJsonMap.put(PARTITION_END_STATUS_FILE, Long.toString(partitionEnd));
+      statusFileJsonMap.put(PARTITION_ROWS_STATUS_FILE, Long.toString(partitionRows));
+    }
+  }
+
   private void backupStatusFile() {
-    file.renameTo(new File(statusFilePath + "/" + statusFileName + ".bak." + System.currentTimeMillis()));
+    journal.backup(".bak." + System.currentTimeMillis());
+  }
+
+  /**
+   * Force the pending checkpoints to disk and close the status journal
+   */
+  public void closeStatusFile() {
+    if (duplicateFilter != null) {
+      duplicateFilter.close();
+    }
+    try {
+      journal.close();
+    } catch (IOException e) {
+      LOG.error("Error closing status file", e);
+    }
   }
 
   public void checkMandatoryProperties() {
@@ -311,6 +680,74 @@ public class SQLSourceHelper {
     if (connectionPassword == null) {
       throw new ConfigurationException("hibernate.connection.password property not set");
     }
+
+    if (partitionCount < 1 || partitionSize < 0) {
+      throw new ConfigurationException("partition.count must be greater than 0 and partition.size can not be negative");
+    }
+
+    if (isPartitionedReadSet() && isKeysetPaginationSet() && !partitionColumn.equals(keysetColumns[0])) {
+      throw new ConfigurationException("partition.column must be the keyset.column when keyset pagination is used");
+    }
+
+    for (String headerColumn : headerColumns) {
+      if (headerColumn.equalsIgnoreCase(RowHeaders.TIMESTAMP_HEADER) || headerColumn.equalsIgnoreCase(RowHeaders.ROWS_HEADER)) {
+        throw new ConfigurationException("header.columns can not set the " + headerColumn
+          + " header, use event.time.column for the event time");
+      }
+    }
+
+    if (changeLogTable != null && (table == null || changeLogKeyColumn == null || customQuery != null)) {
+      throw new ConfigurationException("changelog.table needs table and changelog.key.column, without custom.query");
+    }
+
+    if (keysetColumns.length > 2) {
+      throw new ConfigurationException("keyset.column can not have more than two columns");
+    }
+
+    if (!"hibernate".equals(queryEngine) && !"jdbc".equals(queryEngine)) {
+      throw new ConfigurationException("query.engine must be hibernate or jdbc");
+    }
+
+    if (!"csv".equals(outputFormat) && !"json".equals(outputFormat) && !"avro".equals(outputFormat)) {
+      throw new ConfigurationException("output.format must be csv, json or avro");
+    }
+
+    if (minBatchSize < 1 || minBatchSize > batchSize || batchSize > maxBatchSize) {
+      throw new ConfigurationException("batch.size must be between batch.size.min and batch.size.max, and both greater than 0");
+    }
+
+    if (channelFullBackoff < 0 || channelFullRetries < 0) {
+      throw new ConfigurationException("channel.full.backoff and channel.full.retries can not be negative");
+    }
+
+    if (connectionFailureThreshold < 1 || connectionRetryDelay < 1 || connectionRetryMaxDelay < connectionRetryDelay) {
+      throw new ConfigurationException("connection.failure.threshold and connection.retry.delay must be greater than 0, "
+        + "and connection.retry.max.delay not lower than connection.retry.delay");
+    }
+
+    if (connectionValidationInterval < 0) {
+      throw new ConfigurationException("connection.validation.interval can not be negative");
+    }
+
+    if (rowsPerEvent < 1 || bytesPerEvent < 0) {
+      throw new ConfigurationException("rows.per.event must be greater than 0 and bytes.per.event can not be negative");
+    }
+
+    if (!"always".equals(statusFileSync) && !"batch".equals(statusFileSync) && !"none".equals(statusFileSync)) {
+      throw new ConfigurationException("status.file.sync must be always, batch or none");
+    }
+
+    if (queryWorkers < 1) {
+      throw new ConfigurationException("query.workers must be greater than 0");
+    }
+
+    if (statementCacheSize < 0) {
+      throw new ConfigurationException("statement.cache.size can not be negative");
+    }
+
+    if (statusJournalMaxRecords < 1) {
+      throw new ConfigurationException("status.journal.max.records must be greater than 0");
+    }
   }
 
   /*
@@ -334,6 +771,163 @@ public class SQLSourceHelper {
     currentIndex = newValue;
   }
 
+  /**
+   * Move the current index forward after reading a page. In keyset mode the index is the
+   * last key read, otherwise it is the number of rows read so far.
+   *
+   * @param rows Rows read
+   * @param key  Key of the last row read, only used in keyset mode
+   */
+  void advanceIndex(int rows, Object[] key) {
+
+    if (isKeysetPaginationSet()) {
+      if (key != null && key[0] != null) {
+        watermark.advance(key);
+        currentIndex = watermark.toString();
+      }
+    } else {
+      currentIndex = Long.toString(Long.parseLong(currentIndex) + rows);
+    }
+  }
+
+  /**
+   * Move the current index back, so the rows read after it are read again
+   *
+   * @param index Index returned by getCurrentIndex before reading them
+   */
+  void resetIndex(String index) {
+
+    currentIndex = index;
+    if (isKeysetPaginationSet()) {
+      watermark.parse(index);
+    }
+  }
+
+  /*
+   * @return int first row of the next page when the table is paged by offset
+   */
+  int getRowOffset() {
+
+    long offset = Long.parseLong(currentIndex);
+    if (offset > Integer.MAX_VALUE) {
+      throw new FlumeException("Offset " + offset + " is too big to page the table, set keyset.column to page it by key");
+    }
+    return (int) offset;
+  }
+
+  /*
+   * @return int columns of the key selected before the exported ones, 0 when the table is not paged by key
+   */
+  int getKeyColumnCount() {
+    return isKeysetPaginationSet() ? keysetColumns.length : 0;
+  }
+
+  LobReader getLobReader() {
+    return lobReader;
+  }
+
+  FetchBudget getFetchBudget() {
+    return fetchBudget;
+  }
+
+  /**
+   * @return Filter of the rows already delivered, null if <tt>dedup.columns</tt> is not set
+   */
+  DuplicateFilter getDuplicateFilter() {
+    return duplicateFilter;
+  }
+
+  /**
+   * @param fetchBudget Budget shared with the other queries of the source
+   */
+  void setFetchBudget(FetchBudget fetchBudget) {
+    this.fetchBudget = fetchBudget;
+  }
+
+  /**
+   * @return true if the last page read was stopped by the fetch budget, so the next one can be read right away
+   */
+  boolean isPageCut() {
+    return pageCut;
+  }
+
+  void setPageCut(boolean pageCut) {
+    this.pageCut = pageCut;
+  }
+
+  /**
+   * @return The error that stopped the last read after some of its rows were handed over, null if it
+   * ended without errors. The error is only returned once.
+   */
+  FlumeException takeReadFailure() {
+    FlumeException failure = readFailure;
+    readFailure = null;
+    return failure;
+  }
+
+  void setReadFailure(FlumeException readFailure) {
+    this.readFailure = readFailure;
+  }
+
+  private static LobReader.Policy lobPolicy(String policy) {
+    try {
+      return LobReader.Policy.valueOf(policy.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException("lob.policy must be truncate or split");
+    }
+  }
+
+  /**
+   * @return The values to bind in the keyset query by parameter name
+   */
+  Map<String, Object> getKeysetParameters() {
+
+    Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+    parameters.put(KEYSET_PARAMETER, watermark.get(0));
+    if (watermark.size() > 1 && watermark.get(1) != null) {
+      parameters.put(KEYSET_TIE_PARAMETER, watermark.get(1));
+    }
+    if (keysetLookback > 0) {
+      parameters.put(KEYSET_MAX_PARAMETER, new Timestamp(System.currentTimeMillis() - keysetLookback));
+    }
+    return parameters;
+  }
+
+  /*
+   * One type for every keyset column, auto when they are not set
+   */
+  private Watermark.Type[] getKeysetTypes(String keysetType) {
+
+    String[] names = keysetType.trim().split("\\s*,\\s*");
+    Watermark.Type[] types = new Watermark.Type[keysetColumns.length];
+    for (int i = 0; i < types.length; i++) {
+      String name = i < names.length ? names[i] : DEFAULT_KEYSET_TYPE;
+      try {
+        types[i] = Watermark.Type.valueOf(name.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new ConfigurationException("keyset.type must be auto, long, decimal, timestamp or string");
+      }
+    }
+    if (keysetLookback > 0 && types[0] != Watermark.Type.TIMESTAMP) {
+      throw new ConfigurationException("keyset.lookback needs a timestamp keyset column");
+    }
+    return types;
+  }
+
+  /*
+   * @return true if the custom query binds the current index as the :lastIndex parameter
+   */
+  boolean isCustomQueryBound() {
+    return customQuery != null && customQuery.contains(":" + CUSTOM_QUERY_PARAMETER);
+  }
+
+  /*
+   * @return Object current index to bind as :lastIndex in the custom query, a number when possible
+   */
+  Object getCustomQueryParameter() {
+    return Watermark.Type.AUTO.parse(currentIndex);
+  }
+
   /*
    * @return int delay in ms
    */
@@ -341,6 +935,10 @@ public class SQLSourceHelper {
     return runQueryDelay;
   }
 
+  int getRunQueryMaxDelay() {
+    return runQueryMaxDelay;
+  }
+
   int getBatchSize() {
     return batchSize;
   }
@@ -350,7 +948,8 @@ public class SQLSourceHelper {
   }
 
   String getQuery() {
-    return query;
+    /* the keyset query changes once the tie column of a composite key is known */
+    return isKeysetPaginationSet() ? buildQuery() : query;
   }
 
   String getConnectionURL() {
@@ -361,6 +960,99 @@ public class SQLSourceHelper {
     return (customQuery != null);
   }
 
+  /**
+   * Build the configuration of a named query: the properties of the source overridden by
+   * the <tt>queries.&lt;name&gt;.</tt> ones. Each query needs its own status file, named after
+   * the source one when it is not set.
+   *
+   * @param context Flume source context
+   * @param queryName Name of the query
+   * @return The context of the query
+   */
+  static Context getQueryContext(Context context, String queryName) {
+
+    Map<String, String> parameters = new HashMap<String, String>();
+    for (Map.Entry<String, String> parameter : context.getParameters().entrySet()) {
+      if (!parameter.getKey().equals("queries") && !parameter.getKey().startsWith("queries.")) {
+        parameters.put(parameter.getKey(), parameter.getValue());
+      }
+    }
+    Map<String, String> queryParameters = context.getSubProperties("queries." + queryName + ".");
+    if (!queryParameters.containsKey("status.file.name") && parameters.containsKey("status.file.name")) {
+      parameters.put("status.file.name", parameters.get("status.file.name") + "." + queryName);
+    }
+    parameters.putAll(queryParameters);
+    return new Context(parameters);
+  }
+
+  /**
+   * @return The engine selected by <tt>query.engine</tt>, not connected yet
+   */
+  QueryEngine createQueryEngine() {
+    if ("jdbc".equals(queryEngine)) {
+      return new JdbcHelper(this);
+    }
+    return new HibernateHelper(this);
+  }
+
+  /**
+   * @param columns Columns of the query result
+   * @return A new serializer of the format selected by <tt>output.format</tt>
+   */
+  RowSerializer createRowSerializer(Column[] columns) {
+    Charset charset = Charset.forName(defaultCharsetResultSet);
+    if ("json".equals(outputFormat)) {
+      return new JsonRowSerializer(columns, charset);
+    }
+    if ("avro".equals(outputFormat)) {
+      return new AvroRowSerializer(columns, table, avroSchemaUrl);
+    }
+    return new CSVRowSerializer(delimiterEntry.charAt(0), encloseByQuotes, charset, columns, cellOptions);
+  }
+
+  /**
+   * @param formatHeaders Headers of the output format
+   * @param columns Columns of the query result
+   * @return The builder of the headers of the events, with the columns of <tt>header.columns</tt>
+   */
+  RowHeaders createRowHeaders(Map<String, String> formatHeaders, Column[] columns) {
+    return new RowHeaders(formatHeaders, headerColumns, eventTimeColumn, columns);
+  }
+
+  /**
+   * @return The controller sizing the batches of a channel writer, from batch.size between its bounds
+   */
+  DeliveryController createDeliveryController() {
+    return new DeliveryController(batchSize, minBatchSize, maxBatchSize, channelFullBackoff, channelFullRetries);
+  }
+
+  /**
+   * @return The breaker spacing out the queries of a query task while the database fails
+   */
+  CircuitBreaker createCircuitBreaker() {
+    return new CircuitBreaker(connectionFailureThreshold, connectionRetryDelay, connectionRetryMaxDelay);
+  }
+
+  /**
+   * @return ms a pooled connection can stay idle before it is checked, 0 if never checked
+   */
+  long getConnectionValidationInterval() {
+    return connectionValidationInterval;
+  }
+
+  /**
+   * Avro records are read one after another without separator, text rows are separated by new lines
+   * @return The packer joining the rows of each event, null if every row is sent in its own event
+   */
+  RowPacker createRowPacker() {
+    if (rowsPerEvent <= 1) {
+      return null;
+    }
+    byte[] separator = "avro".equals(outputFormat) ? new byte[0]
+      : "\n".getBytes(Charset.forName(defaultCharsetResultSet));
+    return new RowPacker(rowsPerEvent, bytesPerEvent, separator);
+  }
+
   Context getContext() {
     return context;
   }
@@ -369,6 +1061,206 @@ public class SQLSourceHelper {
     return readOnlySession;
   }
 
+  boolean isKeysetPaginationSet() {
+    return (customQuery == null && keysetColumn != null);
+  }
+
+  /**
+   * @return The query returning the lowest and highest values of the partition column
+   */
+  String getPartitionBoundsQuery() {
+    return "SELECT MIN(" + partitionColumn + "), MAX(" + partitionColumn + ") FROM " + table;
+  }
+
+  /**
+   * @return The query reading the rows of one partition, ordered so it can be paged
+   */
+  String getPartitionQuery() {
+    return "SELECT " + columnsToSelect + " FROM " + table + " WHERE " + partitionColumn + " >= :"
+      + PARTITION_LOWER_PARAMETER + " AND " + partitionColumn + " < :" + PARTITION_UPPER_PARAMETER
+      + " ORDER BY " + partitionColumn;
+  }
+
+  boolean isPartitionedReadSet() {
+    return (customQuery == null && changeLogTable == null && partitionColumn != null
+      && (partitionCount > 1 || partitionSize > 0));
+  }
+
+  String getTable() {
+    return table;
+  }
+
+  String getChangeLogTable() {
+    return changeLogTable;
+  }
+
+  String getChangeLogKeyColumn() {
+    return changeLogKeyColumn;
+  }
+
+  boolean isChangeLogInstallSet() {
+    return changeLogTable != null && changeLogInstall;
+  }
+
+  boolean isChangeLogPurgeSet() {
+    return changeLogTable != null && changeLogPurge;
+  }
+
+  /**
+   * @return The statement deleting the changes up to <tt>:lastKey</tt>
+   */
+  String getChangeLogPurgeQuery() {
+    return "DELETE FROM " + changeLogTable + " WHERE " + ChangeLog.SEQUENCE_COLUMN + " <= :" + KEYSET_PARAMETER;
+  }
+
+  /**
+   * @return The last sequence saved in the status file, the changes up to it can be purged
+   */
+  Long getChangeLogPurgeKey() {
+    return Long.valueOf((String) statusFileJsonMap.get(LAST_INDEX_STATUS_FILE));
+  }
+
+  boolean isPartitionedReadPending() {
+    return partitions != null;
+  }
+
+  List<Partition> getPartitions() {
+    return partitions;
+  }
+
+  /**
+   * Split the values of the partition column to read, in partition.count ranges or in ranges of partition.size
+   * values created as the previous ones are done
+   * @param lower Lowest value to read
+   * @param end Highest value to read plus one
+   * @param dates true if the values are the ms of a date column
+   */
+  void splitPartitions(long lower, long end, boolean dates) {
+    partitionDates = dates;
+    partitionEnd = end;
+    partitionRows = 0;
+    partitionsSplit = true;
+    if (partitionSize == 0) {
+      partitions = new ArrayList<Partition>(Arrays.asList(Partition.split(lower, end - 1, partitionCount)));
+      partitionNext = end;
+    } else {
+      partitions = new ArrayList<Partition>();
+      partitionNext = lower;
+    }
+  }
+
+  boolean isPartitionsSplit() {
+    return partitionsSplit;
+  }
+
+  /**
+   * Drop the ranges already read, counting their rows, and start new ranges up to partition.count
+   * @return The ranges being read
+   */
+  List<Partition> nextPartitions() {
+
+    Iterator<Partition> it = partitions.iterator();
+    while (it.hasNext()) {
+      Partition partition = it.next();
+      if (partition.isDone()) {
+        partitionRows += partition.getIndex();
+        it.remove();
+      }
+    }
+    while (partitions.size() < partitionCount && partitionNext < partitionEnd) {
+      long upper = partitionEnd - partitionNext <= partitionSize ? partitionEnd : partitionNext + partitionSize;
+      partitions.add(new Partition(partitionNext, upper));
+      partitionNext = upper;
+    }
+    return partitions;
+  }
+
+  /**
+   * @return true if all the ranges are read
+   */
+  boolean isPartitionedReadDone() {
+
+    for (Partition partition : partitions) {
+      if (!partition.isDone()) {
+        return false;
+      }
+    }
+    return partitionNext >= partitionEnd;
+  }
+
+  /**
+   * @return Rows read by the partitioned read
+   */
+  long getPartitionedRows() {
+
+    long rows = partitionRows;
+    for (Partition partition : partitions) {
+      rows += partition.getIndex();
+    }
+    return rows;
+  }
+
+  /**
+   * @return Highest value read plus one
+   */
+  long getPartitionEnd() {
+    return partitionEnd;
+  }
+
+  /**
+   * @return The first value of the keyset column to read, null if the table is not paged by a numeric or date key
+   */
+  Object getPartitionStartKey() {
+
+    if (!isKeysetPaginationSet()) {
+      return null;
+    }
+    Object key = watermark.get(0);
+    return key instanceof Number || key instanceof Date ? key : null;
+  }
+
+  /*
+   * @void remove the partitions from the status file, following reads use the standard query
+   */
+  void finishPartitionedRead() {
+    partitions = null;
+    partitionsSplit = false;
+    statusFileJsonMap.remove(PARTITION_COLUMN_STATUS_FILE);
+    statusFileJsonMap.remove(PARTITION_DATES_STATUS_FILE);
+    statusFileJsonMap.remove(PARTITIONS_STATUS_FILE);
+    statusFileJsonMap.remove(PARTITION_NEXT_STATUS_FILE);
+    statusFileJsonMap.remove(PARTITION_END_STATUS_FILE);
+    statusFileJsonMap.remove(PARTITION_ROWS_STATUS_FILE);
+  }
+
+  boolean isPartitionDates() {
+    return partitionDates;
+  }
+
+  int getPartitionCount() {
+    return partitionCount;
+  }
+
+  boolean isPrefetchSet() {
+    return prefetchPages > 0 && !streamingMode;
+  }
+
+  int getPrefetchPages() {
+    return prefetchPages;
+  }
+
+  int getStatementCacheSize() {
+    return statementCacheSize;
+  }
+
+  int getQueryWorkers() {
+    return queryWorkers;
+  }
+
+  boolean isStreamingMode() {
+    return streamingMode;
+  }
+
   boolean encloseByQuotes() {
     return encloseByQuotes;
   }
@@ -0,0 +1,87 @@
+package org.keedio.flume.source;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepared statements of one connection, kept open to run them again in the next polls. <p>
+ * Statements are looked up by their SQL text and the least recently used one is closed when
+ * more than <tt>statement.cache.size</tt> are open. The connection must be used by one thread
+ * at a time, as a statement is only valid until it is prepared again.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class StatementCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StatementCache.class);
+
+	private final Connection connection;
+	private final Map<String, PreparedStatement> statements;
+
+	/**
+	 * @param connection Connection preparing the statements
+	 * @param maxSize Max statements kept open
+	 */
+	public StatementCache(Connection connection, final int maxSize) {
+		this.connection = connection;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > maxSize) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param sql Statement text
+	 * @return The statement prepared before for the same text, or a new forward-only one
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+
+		PreparedStatement statement = statements.get(sql);
+		if (statement == null || statement.isClosed()) {
+			statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statements.put(sql, statement);
+		}
+		return statement;
+	}
+
+	int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Close every statement of the cache
+	 */
+	public void close() {
+
+		for (PreparedStatement statement : statements.values()) {
+			closeQuietly(statement);
+		}
+		statements.clear();
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			LOG.warn("Error closing prepared statement", e);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package org.keedio.flume.source;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of the serializers writing rows as text. <p>
+ * The characters and bytes of each row are built in buffers reused across rows and encoded
+ * with a cached encoder, so only the final body array is allocated per row.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public abstract class TextRowSerializer implements RowSerializer {
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final CharsetEncoder encoder;
+	private char[] chars = new char[INITIAL_BUFFER_SIZE];
+	private int length;
+	private ByteBuffer bytes;
+
+	/**
+	 * @param charset Charset to encode the event bodies
+	 */
+	protected TextRowSerializer(Charset charset) {
+
+		/* same replacement behaviour as String.getBytes */
+		this.encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate((int) (INITIAL_BUFFER_SIZE * encoder.maxBytesPerChar()));
+	}
+
+	@Override
+	public byte[] serialize(Object[] row) {
+
+		length = 0;
+		beginRow();
+		for (int i = 0; i < row.length; i++) {
+			appendCell(i, row[i]);
+		}
+		endRow();
+		return encode();
+	}
+
+	@Override
+	public byte[] serialize(List<Object> row) {
+
+		length = 0;
+		beginRow();
+		for (int i = 0; i < row.size(); i++) {
+			appendCell(i, row.get(i));
+		}
+		endRow();
+		return encode();
+	}
+
+	@Override
+	public Map<String, String> getHeaders() {
+		return Collections.emptyMap();
+	}
+
+	protected void beginRow() {
+	}
+
+	/**
+	 * Write a cell of the current row
+	 * @param index Position of the cell in the row
+	 * @param cell The cell content, using database types
+	 */
+	protected abstract void appendCell(int index, Object cell);
+
+	protected void endRow() {
+	}
+
+	protected void append(char c) {
+
+		ensureCapacity(1);
+		chars[length++] = c;
+	}
+
+	protected void append(String value) {
+
+		int valueLength = value.length();
+		ensureCapacity(valueLength);
+		value.getChars(0, valueLength, chars, length);
+		length += valueLength;
+	}
+
+	protected void append(char[] value) {
+
+		ensureCapacity(value.length);
+		System.arraycopy(value, 0, chars, length, value.length);
+		length += value.length;
+	}
+
+	protected void append(StringBuffer value) {
+
+		int valueLength = value.length();
+		ensureCapacity(valueLength);
+		value.getChars(0, valueLength, chars, length);
+		length += valueLength;
+	}
+
+	/**
+	 * Write the decimal digits of a number without building a string
+	 */
+	protected void append(long value) {
+
+		if (value == Long.MIN_VALUE) {
+			append(Long.toString(value));
+			return;
+		}
+		ensureCapacity(20);
+		if (value < 0) {
+			chars[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		writeDigits(value, digits);
+	}
+
+	/**
+	 * Write the decimal digits of a non negative number, padded with zeros up to the given width
+	 */
+	protected void appendPadded(int value, int width) {
+
+		int digits = 1;
+		for (int rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		digits = Math.max(digits, width);
+		ensureCapacity(digits);
+		writeDigits(value, digits);
+	}
+
+	private void writeDigits(long value, int digits) {
+
+		for (int i = length + digits - 1; i >= length; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	/**
+	 * @return Characters written of the current row
+	 */
+	protected int position() {
+		return length;
+	}
+
+	protected char charAt(int index) {
+		return chars[index];
+	}
+
+	/**
+	 * Remove the end of the current row
+	 * @param start Position of the first character removed
+	 * @return The characters removed
+	 */
+	protected String cut(int start) {
+
+		String removed = new String(chars, start, length - start);
+		length = start;
+		return removed;
+	}
+
+	private void ensureCapacity(int extra) {
+
+		if (length + extra > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+		}
+	}
+
+	private byte[] encode() {
+
+		CharBuffer in = CharBuffer.wrap(chars, 0, length);
+		int maxBytes = (int) (length * encoder.maxBytesPerChar());
+		if (bytes.capacity() < maxBytes) {
+			bytes = ByteBuffer.allocate(maxBytes);
+		}
+
+		bytes.clear();
+		encoder.reset();
+		CoderResult result = encoder.encode(in, bytes, true);
+		if (!result.isUnderflow()) {
+			throwUnchecked(result);
+		}
+		result = encoder.flush(bytes);
+		if (!result.isUnderflow()) {
+			throwUnchecked(result);
+		}
+
+		return Arrays.copyOf(bytes.array(), bytes.position());
+	}
+
+	private void throwUnchecked(CoderResult result) {
+
+		try {
+			result.throwException();
+		} catch (CharacterCodingException e) {
+			throw new IllegalStateException("Error encoding row", e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package org.keedio.flume.source;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Typed high-water mark of the keyset pagination: the key of the last row read, made of one column
+ * or of two (usually a timestamp and an id to break its ties). <p>
+ * Each part has a type selected with <tt>keyset.type</tt>: <tt>long</tt>, <tt>decimal</tt>,
+ * <tt>timestamp</tt> or <tt>string</tt>, or <tt>auto</tt> to bind the values read from the status file
+ * as numbers when possible and the values read from the rows as they are. The mark is saved in the
+ * status file as text, with the parts separated by a comma and timestamps in JDBC escape format.
+ *
+ * @author <a href="mailto:mvalle@keedio.com">Marcelo Valle</a>
+ *
+ */
+public class Watermark {
+
+	private static final String SEPARATOR = ",";
+
+	public enum Type {
+		AUTO, LONG, DECIMAL, TIMESTAMP, STRING;
+
+		/**
+		 * @param text Value saved in the status file
+		 * @return The value to bind in the query
+		 * @throws IllegalArgumentException If the text is not a value of this type
+		 */
+		Object parse(String text) {
+
+			switch (this) {
+			case LONG:
+				return Long.valueOf(text.trim());
+			case DECIMAL:
+				return new BigDecimal(text.trim());
+			case TIMESTAMP:
+				/* epoch ms, so the default start value "0" is valid too */
+				return isInteger(text) ? new Timestamp(Long.parseLong(text.trim())) : Timestamp.valueOf(text.trim());
+			case STRING:
+				return text;
+			default:
+				return isInteger(text) ? (Object) Long.valueOf(text.trim()) : text;
+			}
+		}
+
+		/**
+		 * @param value Value read from a row
+		 * @return The value converted to this type
+		 */
+		Object convert(Object value) {
+
+			if (value == null) {
+				return null;
+			}
+			switch (this) {
+			case LONG:
+				return value instanceof Number ? ((Number) value).longValue() : parse(value.toString());
+			case DECIMAL:
+				return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+			case TIMESTAMP:
+				if (value instanceof Timestamp) {
+					return value;
+				}
+				return value instanceof Date ? new Timestamp(((Date) value).getTime()) : parse(value.toString());
+			case STRING:
+				return value.toString();
+			default:
+				return value;
+			}
+		}
+
+		private static boolean isInteger(String text) {
+
+			String trimmed = text.trim();
+			if (trimmed.isEmpty() || trimmed.length() > 19) {
+				return false;
+			}
+			for (int i = trimmed.charAt(0) == '-' && trimmed.length() > 1 ? 1 : 0; i < trimmed.length(); i++) {
+				if (!Character.isDigit(trimmed.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final Type[] types;
+	private final Object[] values;
+
+	/**
+	 * @param types Type of each part of the key
+	 */
+	public Watermark(Type[] types) {
+		this.types = types;
+		this.values = new Object[types.length];
+	}
+
+	/**
+	 * Set the mark saved in the status file. A composite mark saved with its first part only
+	 * starts after every row with that first value.
+	 * @param text Parts separated by commas
+	 * @throws IllegalArgumentException If a part is not a value of its type
+	 */
+	public void parse(String text) {
+
+		String[] parts = text.split(SEPARATOR, types.length);
+		for (int i = 0; i < types.length; i++) {
+			values[i] = i < parts.length ? types[i].parse(parts[i]) : null;
+		}
+	}
+
+	/**
+	 * Move the mark to the key of the last row read
+	 * @param key Value of each part, read from the row
+	 */
+	public void advance(Object[] key) {
+
+		for (int i = 0; i < types.length; i++) {
+			values[i] = i < key.length ? types[i].convert(key[i]) : null;
+		}
+	}
+
+	/**
+	 * @param part Index of the part of the key
+	 * @return Its value, null if not known
+	 */
+	public Object get(int part) {
+		return values[part];
+	}
+
+	public int size() {
+		return types.length;
+	}
+
+	/**
+	 * @return The mark as it is saved in the status file
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < values.length && values[i] != null; i++) {
+			if (i > 0) {
+				text.append(SEPARATOR);
+			}
+			text.append(values[i]);
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,47 @@
+package org.keedio.flume.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(99));
+		assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void percentilesWithinBucketError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500000, histogram.getPercentile(50), 500000 * 0.07);
+		assertEquals(990000, histogram.getPercentile(99), 990000 * 0.07);
+		assertEquals(1000000, histogram.getMax());
+		assertTrue(histogram.getPercentile(100) <= histogram.getMax());
+	}
+
+	@Test
+	public void bucketsGrowWithValues() {
+		for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			assertTrue(LatencyHistogram.bucket(value) < LatencyHistogram.bucket(value * 3 + 1));
+		}
+		assertEquals(LatencyHistogram.bucket(15) + 1, LatencyHistogram.bucket(16));
+	}
+
+	@Test
+	public void resetClearsValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(42);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMax());
+	}
+}
@@ -0,0 +1,63 @@
+package org.keedio.flume.metrics;
+
+import org.keedio.flume.metrics.SqlSourceCounter.Phase;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SqlSourceCounterTest {
+
+	@Test
+	public void subSecondThroughput() throws InterruptedException {
+		SqlSourceCounter counter = new SqlSourceCounter("test");
+		counter.start();
+		counter.startProcess();
+		counter.incrementEventCount(100);
+		counter.incrementByteCount(10000);
+		Thread.sleep(20);
+		counter.endProcess(100);
+		assertTrue(counter.getCurrentThroughput() > 0);
+		assertTrue(counter.getCurrentThroughput() <= 5000);
+		assertTrue(counter.getCurrentByteThroughput() > counter.getCurrentThroughput());
+		assertEquals(counter.getCurrentThroughput(), counter.getMaxThroughput());
+	}
+
+	@Test
+	public void emptyPollKeepsMaxThroughput() throws InterruptedException {
+		SqlSourceCounter counter = new SqlSourceCounter("test");
+		counter.start();
+		counter.startProcess();
+		counter.endProcess(10);
+		long max = counter.getMaxThroughput();
+		counter.startProcess();
+		counter.endProcess(0);
+		assertEquals(0, counter.getCurrentThroughput());
+		assertEquals(max, counter.getMaxThroughput());
+	}
+
+	@Test
+	public void latenciesInMicroseconds() {
+		SqlSourceCounter counter = new SqlSourceCounter("test");
+		counter.record(Phase.QUERY, 2000000);
+		counter.record(Phase.CHECKPOINT, 1000);
+		assertEquals(2000, counter.getQueryLatencyMax(), 0);
+		assertEquals(2000, counter.getQueryLatencyP99(), 2000 * 0.07);
+		assertEquals(1, counter.getCheckpointLatencyP50(), 0.07);
+		assertEquals(0, counter.getChannelLatencyMax(), 0);
+		counter.resetLatencies();
+		assertEquals(0, counter.getQueryLatencyMax(), 0);
+	}
+
+	@Test
+	public void openCircuits() {
+		SqlSourceCounter counter = new SqlSourceCounter("test");
+		counter.incrementQueryFailureCount();
+		counter.incrementQueryFailureCount();
+		counter.circuitOpened();
+		assertEquals(2, counter.getQueryFailureCount());
+		assertEquals(1, counter.getOpenCircuits());
+		counter.circuitClosed();
+		assertEquals(0, counter.getOpenCircuits());
+		assertEquals(1, counter.getCircuitOpenCount());
+	}
+}
@@ -0,0 +1,79 @@
+package org.keedio.flume.source;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.math.BigDecimal;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AvroRowSerializerTest {
+
+	private static final Column[] COLUMNS = {
+		new Column("id", Types.BIGINT),
+		new Column("name", Types.VARCHAR),
+		new Column("created", Types.TIMESTAMP),
+		new Column("amount", Types.DECIMAL),
+		new Column("data", Types.VARBINARY),
+		new Column("count", Types.INTEGER)
+	};
+
+	@Test
+	public void schemaFromColumns() {
+		Schema schema = new AvroRowSerializer(COLUMNS, "my-table", null).getSchema();
+		assertEquals("my_table", schema.getName());
+		assertEquals(6, schema.getFields().size());
+		assertEquals(Schema.Type.LONG, schema.getField("id").schema().getTypes().get(1).getType());
+		assertEquals(Schema.Type.LONG, schema.getField("created").schema().getTypes().get(1).getType());
+		assertEquals(Schema.Type.STRING, schema.getField("amount").schema().getTypes().get(1).getType());
+		assertEquals(Schema.Type.BYTES, schema.getField("data").schema().getTypes().get(1).getType());
+		assertEquals(Schema.Type.INT, schema.getField("count").schema().getTypes().get(1).getType());
+	}
+
+	@Test
+	public void invalidAndRepeatedNames() {
+		Column[] columns = {new Column("1st col", Types.VARCHAR), new Column("1st col", Types.VARCHAR)};
+		Schema schema = new AvroRowSerializer(columns, null, null).getSchema();
+		assertEquals("row", schema.getName());
+		assertNotNull(schema.getField("_1st_col"));
+		assertNotNull(schema.getField("_1st_col_2"));
+	}
+
+	@Test
+	public void readBackRows() throws Exception {
+		AvroRowSerializer serializer = new AvroRowSerializer(COLUMNS, "t", null);
+		GenericDatumReader<GenericRecord> reader = new GenericDatumReader<GenericRecord>(serializer.getSchema());
+
+		byte[] body = serializer.serialize(new Object[]{5L, "five", new Timestamp(1000L), new BigDecimal("1.50"),
+				new byte[]{1, 2}, 7});
+		GenericRecord record = reader.read(null, DecoderFactory.get().binaryDecoder(body, null));
+		assertEquals(5L, record.get("id"));
+		assertEquals("five", record.get("name").toString());
+		assertEquals(1000L, record.get("created"));
+		assertEquals("1.50", record.get("amount").toString());
+		assertEquals(ByteBuffer.wrap(new byte[]{1, 2}), record.get("data"));
+		assertEquals(7, record.get("count"));
+
+		body = serializer.serialize(new Object[]{6L, null, null, null, null, null});
+		record = reader.read(null, DecoderFactory.get().binaryDecoder(body, null));
+		assertEquals(6L, record.get("id"));
+		assertNull(record.get("name"));
+		assertNull(record.get("count"));
+	}
+
+	@Test
+	public void schemaHeaders() {
+		AvroRowSerializer serializer = new AvroRowSerializer(COLUMNS, "t", null);
+		assertEquals(serializer.getSchema().toString(), serializer.getHeaders().get(AvroRowSerializer.SCHEMA_LITERAL_HEADER));
+
+		serializer = new AvroRowSerializer(COLUMNS, "t", "hdfs://schemas/t.avsc");
+		assertEquals("hdfs://schemas/t.avsc", serializer.getHeaders().get(AvroRowSerializer.SCHEMA_URL_HEADER));
+		assertNull(serializer.getHeaders().get(AvroRowSerializer.SCHEMA_LITERAL_HEADER));
+	}
+}
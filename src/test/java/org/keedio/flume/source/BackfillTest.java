@@ -0,0 +1,171 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backfills a table of an embedded H2 database in slices from start.from, then tails it
+ */
+public class BackfillTest {
+
+	private static final String URL = "jdbc:h2:mem:backfill;DB_CLOSE_DELAY=-1";
+	private static final File STATUS_DIRECTORY = new File("/tmp/flume-backfill");
+
+	private Connection connection;
+	private MemoryChannel channel;
+	private SQLSource source;
+
+	@Before
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection(URL, "sa", "sa");
+		execute("CREATE TABLE items (id BIGINT PRIMARY KEY, name VARCHAR(20))");
+		for (int i = 1; i <= 100; i++) {
+			execute("INSERT INTO items VALUES (" + i + ", 'n" + i + "')");
+		}
+
+		channel = new MemoryChannel();
+		Context channelContext = new Context();
+		channelContext.put("capacity", "1000");
+		channelContext.put("transactionCapacity", "100");
+		channelContext.put("keep-alive", "0");
+		Configurables.configure(channel, channelContext);
+		channel.start();
+	}
+
+	@Test
+	public void slicesFromStartThenTail() throws Exception {
+
+		startSource();
+		List<Long> ids = new ArrayList<Long>();
+		for (int polls = 0; polls < 100 && ids.size() < 80; polls++) {
+			source.process();
+			ids.addAll(take());
+		}
+		Collections.sort(ids);
+		assertEquals(80, ids.size());
+		for (int i = 0; i < 80; i++) {
+			assertEquals(21 + i, ids.get(i).longValue());
+		}
+		/* only the slices being read are kept in the status */
+		assertTrue(source.sqlSourceHelper.getPartitions() == null
+				|| source.sqlSourceHelper.getPartitions().size() <= 3);
+
+		execute("INSERT INTO items VALUES (101, 'n101')");
+		for (int polls = 0; polls < 10 && ids.size() < 81; polls++) {
+			source.process();
+			ids.addAll(take());
+		}
+		assertEquals(81, ids.size());
+		assertEquals(101, ids.get(80).longValue());
+	}
+
+	@Test
+	public void restartGoesOnWithTheSlices() throws Exception {
+
+		startSource();
+		List<Long> ids = new ArrayList<Long>();
+		source.process();
+		ids.addAll(take());
+		source.stop();
+
+		startSource();
+		for (int polls = 0; polls < 100 && ids.size() < 80; polls++) {
+			source.process();
+			ids.addAll(take());
+		}
+		Collections.sort(ids);
+		assertEquals(80, ids.size());
+		assertEquals(21, ids.get(0).longValue());
+		assertEquals(100, ids.get(79).longValue());
+	}
+
+	private void startSource() {
+		ReplicatingChannelSelector selector = new ReplicatingChannelSelector();
+		selector.setChannels(Collections.<Channel> singletonList(channel));
+		source = new SQLSource();
+		source.setName("backfill");
+		source.setChannelProcessor(new ChannelProcessor(selector));
+		source.configure(context());
+		source.start();
+	}
+
+	private Context context() {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", URL);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "sa");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", H2Dialect.class.getName());
+		parameters.put("table", "items");
+		parameters.put("columns.to.select", "id");
+		parameters.put("keyset.column", "id");
+		parameters.put("start.from", "20");
+		parameters.put("partition.size", "10");
+		parameters.put("partition.count", "3");
+		parameters.put("max.rows", "4");
+		parameters.put("run.query.delay", "1");
+		parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+		parameters.put("status.file.name", "items");
+		return new Context(parameters);
+	}
+
+	private List<Long> take() {
+		List<Long> ids = new ArrayList<Long>();
+		Transaction transaction = channel.getTransaction();
+		transaction.begin();
+		try {
+			Event event;
+			while ((event = channel.take()) != null) {
+				String body = new String(event.getBody(), StandardCharsets.UTF_8).trim();
+				ids.add(Long.parseLong(body.replace("\"", "")));
+			}
+			transaction.commit();
+		} finally {
+			transaction.close();
+		}
+		return ids;
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+		if (source != null) {
+			source.stop();
+		}
+		channel.stop();
+		execute("DROP ALL OBJECTS");
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}
@@ -0,0 +1,81 @@
+package org.keedio.flume.source;
+
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.opencsv.CSVWriter;
+
+import static org.junit.Assert.*;
+
+public class CSVRowSerializerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@SuppressWarnings("deprecation")
+	private static final Object[][] ROWS = {
+		{"string1", 1, new Date(115,0,1)},
+		{"with,delimiter", "with \"quotes\"", "with\nnew line", "with\rreturn"},
+		{null, "", "ñandú €"},
+		{},
+		{"only"}
+	};
+
+	@Test
+	public void sameOutputAsCSVWriterEnclosedByQuotes() {
+		checkSameOutputAsCSVWriter(',', true);
+	}
+
+	@Test
+	public void sameOutputAsCSVWriterWithoutQuotes() {
+		checkSameOutputAsCSVWriter(',', false);
+	}
+
+	@Test
+	public void sameOutputAsCSVWriterWithOtherDelimiter() {
+		checkSameOutputAsCSVWriter('|', false);
+	}
+
+	@Test
+	public void serializeList() {
+		CSVRowSerializer serializer = new CSVRowSerializer(',', false, UTF8);
+		List<Object> row = Arrays.<Object>asList("a", 2, null);
+		assertArrayEquals("a,2,".getBytes(UTF8), serializer.serialize(row));
+	}
+
+	@Test
+	public void serializeWideRow() {
+		CSVRowSerializer serializer = new CSVRowSerializer(',', false, UTF8);
+		char[] wide = new char[5000];
+		Arrays.fill(wide, 'x');
+		String cell = new String(wide);
+		assertArrayEquals((cell + "," + cell).getBytes(UTF8), serializer.serialize(new Object[]{cell, cell}));
+	}
+
+	private void checkSameOutputAsCSVWriter(char delimiter, boolean encloseByQuotes) {
+
+		CSVRowSerializer serializer = new CSVRowSerializer(delimiter, encloseByQuotes, UTF8);
+		for (Object[] row : ROWS) {
+			StringWriter writer = new StringWriter();
+			CSVWriter csvWriter = new CSVWriter(writer, delimiter);
+			csvWriter.writeNext(toStrings(row), encloseByQuotes);
+
+			String line = writer.toString();
+			String expected = line.substring(0, line.length() - 1);
+			assertEquals(expected, new String(serializer.serialize(row), UTF8));
+		}
+	}
+
+	/* Same null handling used by SQLSourceHelper.getAllRows */
+	private static String[] toStrings(Object[] rawRow) {
+		String[] row = new String[rawRow.length];
+		for (int j = 0; j < rawRow.length; j++) {
+			row[j] = rawRow[j] == null ? "" : rawRow[j].toString();
+		}
+		return row;
+	}
+}
@@ -0,0 +1,80 @@
+package org.keedio.flume.source;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CellConverterTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void integersAndDecimals() {
+		Column[] columns = {new Column("a", Types.BIGINT), new Column("b", Types.INTEGER), new Column("c", Types.DECIMAL),
+				new Column("d", Types.NUMERIC)};
+		assertEquals("-9223372036854775808,0,1000,12.50", serialize(columns, CellConverter.Options.defaults(),
+				Long.MIN_VALUE, 0, new BigDecimal("1E+3"), new BigDecimal("12.50")));
+		assertEquals("-42,7,3,1.5", serialize(columns, CellConverter.Options.defaults(), -42L, (short) 7, 3, 1.5));
+	}
+
+	@Test
+	public void temporalValuesAsToString() {
+		Column[] columns = {new Column("a", Types.TIMESTAMP), new Column("b", Types.DATE), new Column("c", Types.TIME)};
+		for (int nanos : new int[] {0, 1, 120000000, 123456789}) {
+			Timestamp timestamp = Timestamp.valueOf("1999-03-07 04:05:06");
+			timestamp.setNanos(nanos);
+			java.sql.Date date = java.sql.Date.valueOf("0987-11-02");
+			Time time = Time.valueOf("23:59:00");
+			assertEquals(timestamp + "|" + date + "|" + time, serialize('|', columns, CellConverter.Options.defaults(),
+					timestamp, date, time));
+			/* same text when the type of the column is not known */
+			assertEquals(timestamp + "|" + date + "|" + time, serialize('|', null, CellConverter.Options.defaults(),
+					timestamp, date, time));
+		}
+	}
+
+	@Test
+	public void temporalPatterns() {
+		Column[] columns = {new Column("a", Types.TIMESTAMP), new Column("b", Types.DATE)};
+		CellConverter.Options options = new CellConverter.Options("", "base64", "dd/MM/yyyy", null, "yyyyMMdd'T'HHmm");
+		assertEquals("20170102T0304|05/06/2017", serialize('|', columns, options,
+				Timestamp.valueOf("2017-01-02 03:04:05"), java.sql.Date.valueOf("2017-06-05")));
+	}
+
+	@Test
+	public void binaryEncodings() {
+		Column[] columns = {new Column("a", Types.VARBINARY)};
+		byte[] value = {0, 15, -1, 'a'};
+		assertEquals("AA//YQ==", serialize(columns, CellConverter.Options.defaults(), (Object) value));
+		assertEquals("000fff61", serialize(columns, new CellConverter.Options("", "hex", null, null, null),
+				(Object) value));
+	}
+
+	@Test
+	public void nullValue() {
+		Column[] columns = {new Column("a", Types.INTEGER), new Column("b", Types.VARCHAR)};
+		assertEquals("\\N,x", serialize(columns, new CellConverter.Options("\\N", "base64", null, null, null), null, "x"));
+	}
+
+	@Test
+	public void cellsNotMatchingTheirColumn() {
+		Column[] columns = {new Column("a", Types.INTEGER), new Column("b", Types.TIMESTAMP), new Column("c", Types.BLOB)};
+		assertEquals("12345678901234567890,\"yesterday, maybe\",true", serialize(columns,
+				CellConverter.Options.defaults(), new java.math.BigInteger("12345678901234567890"), "yesterday, maybe",
+				true));
+	}
+
+	private static String serialize(Column[] columns, CellConverter.Options options, Object... row) {
+		return serialize(',', columns, options, row);
+	}
+
+	private static String serialize(char delimiter, Column[] columns, CellConverter.Options options, Object... row) {
+		return new String(new CSVRowSerializer(delimiter, false, UTF8, columns, options).serialize(row), UTF8);
+	}
+}
@@ -0,0 +1,140 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Context;
+import org.hibernate.dialect.DerbyTenSevenDialect;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads the changes of a table of an embedded H2 database through a change-log installed by the source
+ */
+public class ChangeLogTest {
+
+	private static final String URL = "jdbc:h2:mem:changelog;DB_CLOSE_DELAY=-1";
+	private static final File STATUS_DIRECTORY = new File("/tmp/flume-changelog");
+
+	private Connection connection;
+
+	@Before
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection(URL, "sa", "sa");
+		execute("CREATE TABLE items (id BIGINT PRIMARY KEY, name VARCHAR(20))");
+	}
+
+	@Test
+	public void hibernateEngine() throws Exception {
+		readChanges("hibernate");
+	}
+
+	@Test
+	public void jdbcEngine() throws Exception {
+		readChanges("jdbc");
+	}
+
+	@Test
+	public void standardTriggers() {
+		List<String> statements = ChangeLog.getInstallStatements(new DerbyTenSevenDialect(), "items", "id", "bigint",
+				"items_log");
+		assertEquals(5, statements.size());
+		assertEquals("CREATE TRIGGER items_log_delete AFTER DELETE ON items REFERENCING OLD AS O FOR EACH ROW "
+				+ "INSERT INTO items_log (id, change_op) VALUES (O.id, 'D')", statements.get(4));
+	}
+
+	private void readChanges(String engine) throws Exception {
+
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context(engine), "Source Name");
+		QueryEngine queryEngine = sqlSourceHelper.createQueryEngine();
+		queryEngine.establishSession();
+		try {
+			execute("INSERT INTO items VALUES (1, 'a')");
+			execute("INSERT INTO items VALUES (2, 'b')");
+			execute("INSERT INTO items VALUES (3, 'c')");
+			execute("UPDATE items SET name = 'bb' WHERE id = 2");
+			execute("DELETE FROM items WHERE id = 3");
+			execute("INSERT INTO items VALUES (4, 'd')");
+
+			/* only the latest change of each key, with its current row */
+			List<List<Object>> rows = queryEngine.executeQuery();
+			assertEquals(4, rows.size());
+			assertRow(rows.get(0), "I", 1L, 1L, "a");
+			assertRow(rows.get(1), "U", 2L, 2L, "bb");
+			assertRow(rows.get(2), "D", 3L, null, null);
+			assertRow(rows.get(3), "I", 4L, 4L, "d");
+
+			sqlSourceHelper.updateStatusFile();
+			queryEngine.afterCheckpoint();
+			assertEquals(0, count("items_log"));
+
+			execute("UPDATE items SET name = 'aa' WHERE id = 1");
+			rows = queryEngine.executeQuery();
+			assertEquals(1, rows.size());
+			assertRow(rows.get(0), "U", 1L, 1L, "aa");
+			assertTrue(queryEngine.executeQuery().isEmpty());
+		} finally {
+			queryEngine.closeSession();
+			sqlSourceHelper.closeStatusFile();
+		}
+	}
+
+	private Context context(String engine) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", URL);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "sa");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", H2Dialect.class.getName());
+		parameters.put("query.engine", engine);
+		parameters.put("table", "items");
+		parameters.put("changelog.table", "items_log");
+		parameters.put("changelog.key.column", "id");
+		parameters.put("changelog.install", "true");
+		parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+		parameters.put("status.file.name", "items");
+		return new Context(parameters);
+	}
+
+	private void assertRow(List<Object> row, String operation, long key, Long id, String name) {
+		assertEquals(operation, row.get(0).toString());
+		assertEquals(key, ((Number) row.get(1)).longValue());
+		assertEquals(Arrays.asList(id, name), Arrays.asList(row.get(2) == null ? null : ((Number) row.get(2)).longValue(),
+				row.get(3)));
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	private int count(String table) throws SQLException {
+		try (Statement statement = connection.createStatement();
+				ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			results.next();
+			return results.getInt(1);
+		}
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+		execute("DROP ALL OBJECTS");
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}
@@ -0,0 +1,195 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.json.simple.parser.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CheckpointJournalTest {
+
+	private File directory, snapshot, journalFile;
+
+	@Before
+	public void setup() throws IOException {
+		directory = new File("/tmp/flume-journal");
+		FileUtils.deleteDirectory(directory);
+		directory.mkdirs();
+		snapshot = new File(directory, "status");
+		journalFile = new File(directory, "status" + CheckpointJournal.JOURNAL_SUFFIX);
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void recoverLastCheckpoint() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.ALWAYS, 100);
+		journal.writeSnapshot(status("0"));
+		journal.append(status("10"));
+		journal.append(status("20"));
+		journal.close();
+
+		assertEquals("20", newJournal(CheckpointJournal.SyncMode.ALWAYS, 100).recover().get("LastIndex"));
+		assertFalse(FileUtils.readFileToString(snapshot).contains("\"20\""));
+	}
+
+	@Test
+	public void ignoreIncompleteCheckpoint() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		journal.append(status("10"));
+		journal.append(status("20"));
+		journal.close();
+
+		/* cut the last line in the middle as a crash would do */
+		try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+
+		assertEquals("10", newJournal(CheckpointJournal.SyncMode.NONE, 100).recover().get("LastIndex"));
+	}
+
+	@Test
+	public void appendAfterIncompleteCheckpoint() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		journal.append(status("10"));
+		journal.append(status("20"));
+		journal.close();
+		try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+
+		journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		assertEquals("10", journal.recover().get("LastIndex"));
+		journal.append(status("30"));
+		journal.append(status("40"));
+		journal.close();
+
+		assertEquals("40", newJournal(CheckpointJournal.SyncMode.NONE, 100).recover().get("LastIndex"));
+	}
+
+	@Test
+	public void batchSyncOfLastCheckpoint() throws Exception {
+		CheckpointJournal journal = new CheckpointJournal(snapshot, CheckpointJournal.SyncMode.BATCH, 50, 100);
+		journal.append(status("10"));
+		journal.append(status("20"));
+		assertTrue(journal.hasUnsyncedCheckpoints());
+
+		/* no other checkpoint follows, the pending one is forced after the interval */
+		long deadline = System.currentTimeMillis() + 5000;
+		while (journal.hasUnsyncedCheckpoints() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(journal.hasUnsyncedCheckpoints());
+		journal.close();
+	}
+
+	@Test
+	public void ignoreCorruptedCheckpoint() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		journal.append(status("10"));
+		journal.close();
+		String line = FileUtils.readFileToString(journalFile);
+		FileUtils.writeStringToFile(journalFile, line + line.replace("\"10\"", "\"99\""));
+
+		assertEquals("10", newJournal(CheckpointJournal.SyncMode.NONE, 100).recover().get("LastIndex"));
+	}
+
+	@Test
+	public void ignoreCorruptedSequence() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		journal.append(status("10"));
+		journal.append(status("20"));
+		journal.append(status("30"));
+		journal.close();
+		String[] lines = FileUtils.readFileToString(journalFile).split("\n");
+		FileUtils.writeStringToFile(journalFile, lines[0] + "\n" + "2x" + lines[1].substring(1) + "\n" + lines[2] + "\n");
+
+		journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		assertEquals("10", journal.recover().get("LastIndex"));
+		assertEquals(lines[0] + "\n", FileUtils.readFileToString(journalFile));
+		journal.close();
+
+		/* a sequence changed to another number is not taken as a newer checkpoint either */
+		FileUtils.writeStringToFile(journalFile, lines[0] + "\n" + "9" + lines[1].substring(1) + "\n");
+		assertEquals("10", newJournal(CheckpointJournal.SyncMode.NONE, 100).recover().get("LastIndex"));
+	}
+
+	@Test
+	public void compactIntoSnapshot() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.BATCH, 3);
+		for (int i = 1; i <= 4; i++) {
+			journal.append(status(Integer.toString(i)));
+		}
+		journal.close();
+
+		assertEquals(0, journalFile.length());
+		assertTrue(FileUtils.readFileToString(snapshot).contains("\"4\""));
+		assertEquals("4", newJournal(CheckpointJournal.SyncMode.BATCH, 3).recover().get("LastIndex"));
+	}
+
+	@Test
+	public void skipCheckpointsOlderThanSnapshot() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		journal.append(status("10"));
+		journal.close();
+		String oldJournal = FileUtils.readFileToString(journalFile);
+
+		journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		journal.recover();
+		journal.writeSnapshot(status("20"));
+		journal.close();
+
+		/* crash after replacing the snapshot and before truncating the journal */
+		FileUtils.writeStringToFile(journalFile, oldJournal);
+		assertEquals("20", newJournal(CheckpointJournal.SyncMode.NONE, 100).recover().get("LastIndex"));
+	}
+
+	@Test
+	public void readLegacyStatusFile() throws Exception {
+		FileUtils.writeStringToFile(snapshot, "{\"SourceName\":\"source\",\"LastIndex\":\"7\"}");
+
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		assertTrue(journal.exists());
+		assertEquals("7", journal.recover().get("LastIndex"));
+	}
+
+	@Test(expected = ParseException.class)
+	public void nothingToRecover() throws Exception {
+		FileUtils.writeStringToFile(snapshot, "{\"SourceName\":");
+		newJournal(CheckpointJournal.SyncMode.NONE, 100).recover();
+	}
+
+	@Test
+	public void backupBothFiles() throws Exception {
+		CheckpointJournal journal = newJournal(CheckpointJournal.SyncMode.NONE, 100);
+		journal.writeSnapshot(status("0"));
+		journal.append(status("10"));
+		journal.backup(".bak");
+
+		assertFalse(journal.exists());
+		assertTrue(new File(directory, "status.bak").isFile());
+		assertTrue(new File(directory, "status" + CheckpointJournal.JOURNAL_SUFFIX + ".bak").isFile());
+	}
+
+	private CheckpointJournal newJournal(CheckpointJournal.SyncMode syncMode, int maxRecords) {
+		return new CheckpointJournal(snapshot, syncMode, 1000, maxRecords);
+	}
+
+	private static Map<String, Object> status(String lastIndex) {
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("SourceName", "source");
+		status.put("LastIndex", lastIndex);
+		return status;
+	}
+}
@@ -0,0 +1,46 @@
+package org.keedio.flume.source;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void closedWithoutFailures() {
+		CircuitBreaker breaker = new CircuitBreaker(3, 100, 1000);
+		assertEquals(0, breaker.getWait(0));
+		assertFalse(breaker.isOpen());
+		assertFalse(breaker.success());
+	}
+
+	@Test
+	public void backoffDoublesUpToMax() {
+		CircuitBreaker breaker = new CircuitBreaker(3, 100, 500);
+		assertEquals(100, breaker.failure(0));
+		assertEquals(100, breaker.getWait(0));
+		assertEquals(40, breaker.getWait(60));
+		assertEquals(200, breaker.failure(100));
+		assertEquals(400, breaker.failure(300));
+		assertEquals(500, breaker.failure(700));
+		assertEquals(500, breaker.failure(1200));
+	}
+
+	@Test
+	public void opensAfterThresholdAndClosesOnSuccess() {
+		CircuitBreaker breaker = new CircuitBreaker(2, 100, 1000);
+		breaker.failure(0);
+		assertFalse(breaker.isOpen());
+		breaker.failure(100);
+		assertTrue(breaker.isOpen());
+		assertTrue(breaker.isOpening());
+		breaker.failure(300);
+		assertTrue(breaker.isOpen());
+		assertFalse(breaker.isOpening());
+
+		assertTrue(breaker.success());
+		assertFalse(breaker.isOpen());
+		assertEquals(0, breaker.getWait(300));
+		assertEquals(100, breaker.failure(400));
+	}
+}
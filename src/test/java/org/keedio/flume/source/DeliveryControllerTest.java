@@ -0,0 +1,68 @@
+package org.keedio.flume.source;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeliveryControllerTest {
+
+	@Test
+	public void fixedSizeWithoutBounds() {
+		DeliveryController controller = new DeliveryController(100, 100, 100, 10, 3);
+		for (int i = 0; i < 100; i++) {
+			controller.delivered(100, 1000);
+		}
+		assertEquals(100, controller.getBatchSize());
+		controller.full();
+		assertEquals(100, controller.getBatchSize());
+	}
+
+	@Test
+	public void growsWhileRateHolds() {
+		DeliveryController controller = new DeliveryController(100, 10, 1000, 10, 3);
+		/* same time per event whatever the size */
+		int previous = controller.getBatchSize();
+		for (int i = 0; i < 200; i++) {
+			int size = controller.getBatchSize();
+			controller.delivered(size, size * 1000L);
+			assertTrue(controller.getBatchSize() >= previous);
+			previous = controller.getBatchSize();
+		}
+		assertEquals(1000, controller.getBatchSize());
+	}
+
+	@Test
+	public void slowerSizeIsReverted() {
+		DeliveryController controller = new DeliveryController(100, 10, 1000, 10, 3);
+		deliver(controller, 4, 1000);
+		assertEquals(125, controller.getBatchSize());
+		/* bigger batches take twice the time per event */
+		deliver(controller, 4, 2000);
+		assertEquals(100, controller.getBatchSize());
+		/* the slower size is not tried again for a while */
+		deliver(controller, 40, 1000);
+		assertEquals(100, controller.getBatchSize());
+	}
+
+	@Test
+	public void channelFullHalvesAndBacksOff() {
+		DeliveryController controller = new DeliveryController(100, 10, 1000, 10, 3);
+		assertEquals(10, controller.full());
+		assertEquals(50, controller.getBatchSize());
+		assertEquals(20, controller.full());
+		assertEquals(40, controller.full());
+		assertEquals(-1, controller.full());
+		assertEquals(10, controller.getBatchSize());
+
+		/* a delivery resets the backoff */
+		controller.delivered(10, 1000);
+		assertEquals(10, controller.full());
+	}
+
+	private static void deliver(DeliveryController controller, int batches, long nanosPerEvent) {
+		for (int i = 0; i < batches; i++) {
+			int size = controller.getBatchSize();
+			controller.delivered(size, size * nanosPerEvent);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.apache.flume.conf.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DuplicateFilterTest {
+
+	private static final long WINDOW = 60000;
+
+	private File file;
+
+	@Before
+	public void setup() throws IOException {
+		file = File.createTempFile("flume-dedup", DuplicateFilter.FILE_SUFFIX);
+		file.delete();
+	}
+
+	@Test
+	public void digestOfColumns() {
+		Column[] columns = { new Column("id", Types.BIGINT), new Column("ts", Types.TIMESTAMP),
+				new Column("amount", Types.DECIMAL) };
+		DuplicateFilter filter = new DuplicateFilter(new String[] { "ID", "amount" }, 10, WINDOW, file);
+		int[] indexes = filter.indexesOf(columns);
+		assertArrayEquals(new int[] { 0, 2 }, indexes);
+
+		long digest = DuplicateFilter.digest(Arrays.<Object>asList(1L, "a", new BigDecimal("1.50")), indexes);
+		assertEquals(digest, DuplicateFilter.digest(new Object[] { 1L, "b", new BigDecimal("1.50") }, indexes));
+		assertNotEquals(digest, DuplicateFilter.digest(new Object[] { 1L, "a", new BigDecimal("1.5") }, indexes));
+		/* cells are delimited, and NULL is not empty text */
+		assertNotEquals(DuplicateFilter.digest(new Object[] { "ab", "" }, null),
+				DuplicateFilter.digest(new Object[] { "a", "b" }, null));
+		assertNotEquals(DuplicateFilter.digest(new Object[] { null }, null),
+				DuplicateFilter.digest(new Object[] { "" }, null));
+		assertNull(new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file).indexesOf(columns));
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void unknownColumn() {
+		new DuplicateFilter(new String[] { "key" }, 10, WINDOW, file).indexesOf(new Column[] { new Column("id",
+				Types.BIGINT) });
+	}
+
+	@Test
+	public void dropsRowsInTheWindow() {
+		DuplicateFilter filter = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		assertTrue(filter.add(1, 1000));
+		assertTrue(filter.add(2, 2000));
+		assertFalse(filter.add(1, 3000));
+		/* the first digest is out of the window, the second one is not */
+		assertTrue(filter.add(1, 1000 + WINDOW));
+		assertFalse(filter.add(2, 1000 + WINDOW));
+		assertEquals(2, filter.size());
+	}
+
+	@Test
+	public void keepsTheLastRows() {
+		DuplicateFilter filter = new DuplicateFilter(new String[] { "*" }, 100, WINDOW, file);
+		for (long digest = 1; digest <= 1000; digest++) {
+			assertTrue(filter.add(digest * 0x9e3779b97f4a7c15L, digest));
+		}
+		assertEquals(100, filter.size());
+		/* duplicates do not evict, the older rows do */
+		for (long digest = 1000; digest >= 1; digest--) {
+			assertEquals(digest <= 900, filter.add(digest * 0x9e3779b97f4a7c15L, 1000));
+		}
+	}
+
+	@Test
+	public void rollbackForgetsRowsNotDelivered() throws IOException {
+		DuplicateFilter filter = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		filter.add(1, 1000);
+		filter.commit();
+		filter.add(2, 1000);
+		filter.add(3, 1000);
+		filter.rollback();
+		assertFalse(filter.add(1, 2000));
+		assertTrue(filter.add(2, 2000));
+		assertTrue(filter.add(3, 2000));
+		filter.close();
+	}
+
+	@Test
+	public void committedRowsSurviveARestart() throws IOException {
+		long now = System.currentTimeMillis();
+		DuplicateFilter filter = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		filter.add(1, now);
+		filter.add(2, now - 2 * WINDOW);
+		filter.commit();
+		filter.add(3, now);
+		filter.close();
+
+		/* a record cut by a crash is ignored */
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.seek(out.length());
+			out.writeLong(4);
+		}
+
+		DuplicateFilter restarted = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		restarted.load();
+		assertEquals(1, restarted.size());
+		assertFalse(restarted.add(1, now));
+		assertTrue(restarted.add(2, now));
+		assertTrue(restarted.add(3, now));
+		restarted.clear();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void commitAfterACutRecord() throws IOException {
+		long now = System.currentTimeMillis();
+		DuplicateFilter filter = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		filter.add(1, now);
+		filter.commit();
+		filter.close();
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.seek(out.length());
+			out.writeLong(2);
+		}
+
+		filter = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		filter.load();
+		assertEquals(16, file.length());
+		filter.add(3, now);
+		filter.commit();
+		filter.close();
+
+		/* the digests appended after the cut record are read back */
+		DuplicateFilter restarted = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		restarted.load();
+		assertEquals(2, restarted.size());
+		assertFalse(restarted.add(1, now));
+		assertFalse(restarted.add(3, now));
+		assertTrue(restarted.add(2, now));
+		restarted.close();
+	}
+
+	@Test
+	public void fileIsCompacted() throws IOException {
+		DuplicateFilter filter = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		long now = System.currentTimeMillis();
+		for (long digest = 1; digest <= 25; digest++) {
+			filter.add(digest, now);
+			filter.commit();
+		}
+		filter.close();
+		/* rewritten with the last 10 digests when it went over 20, then 4 more appended */
+		assertEquals(14 * 16, file.length());
+
+		DuplicateFilter restarted = new DuplicateFilter(new String[] { "*" }, 10, WINDOW, file);
+		restarted.load();
+		assertEquals(10, restarted.size());
+		assertFalse(restarted.add(25, now));
+		assertTrue(restarted.add(15, now));
+	}
+
+	@After
+	public void cleanup() {
+		file.delete();
+	}
+}
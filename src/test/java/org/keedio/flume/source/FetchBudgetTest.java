@@ -0,0 +1,71 @@
+package org.keedio.flume.source;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FetchBudgetTest {
+
+	@Test
+	public void notLimited() {
+		FetchBudget budget = new FetchBudget(0);
+		assertTrue(budget.tryAcquire(Long.MAX_VALUE));
+		assertEquals(0, budget.getInFlight());
+		assertEquals(0, budget.sizeOf(new Object[] { "abc" }));
+	}
+
+	@Test
+	public void stopsAtTheBudget() {
+		FetchBudget budget = new FetchBudget(100);
+		assertTrue(budget.tryAcquire(60));
+		assertFalse(budget.tryAcquire(60));
+		assertTrue(budget.tryAcquire(40));
+		budget.release(60);
+		assertEquals(40, budget.getInFlight());
+		assertTrue(budget.tryAcquire(60));
+	}
+
+	@Test
+	public void bigRowWhenEmpty() {
+		FetchBudget budget = new FetchBudget(100);
+		assertTrue(budget.tryAcquire(500));
+		assertFalse(budget.tryAcquire(1));
+		budget.release(500);
+		assertEquals(0, budget.getInFlight());
+	}
+
+	@Test(timeout = 10000)
+	public void acquireWaitsForRelease() throws InterruptedException {
+		final FetchBudget budget = new FetchBudget(100);
+		budget.acquire(80);
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					budget.acquire(80);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		reader.start();
+		reader.join(200);
+		assertTrue(reader.isAlive());
+		budget.release(80);
+		reader.join();
+		assertEquals(80, budget.getInFlight());
+	}
+
+	@Test
+	public void rowSizes() {
+		FetchBudget budget = new FetchBudget(100);
+		LobReader.Chunks chunks = new LobReader.Chunks(Arrays.<Object>asList("abcd", new byte[] { 1, 2 }));
+		assertEquals(2 * 3 + 4 + 16 + 2 * 4 + 2, budget.sizeOf(new Object[] { "abc", new byte[4], 1L, chunks }));
+		List<List<Object>> rows = Arrays.asList(Arrays.<Object>asList("ab", null), Collections.<Object>singletonList(2));
+		assertEquals(2 * 2 + 16 + 16, budget.sizeOf(rows));
+	}
+}
@@ -0,0 +1,122 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Context;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connections of the jdbc engine given back when a read stops in the middle
+ */
+public class JdbcHelperTest {
+
+	private static final String URL = "jdbc:h2:mem:jdbchelper;DB_CLOSE_DELAY=-1";
+	private static final File STATUS_DIRECTORY = new File("/tmp/flume-jdbchelper");
+
+	private Connection connection;
+	private SQLSourceHelper sqlSourceHelper;
+	private QueryEngine queryEngine;
+
+	@Before
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection(URL, "sa", "sa");
+		execute("CREATE TABLE items (id BIGINT PRIMARY KEY)");
+		execute("INSERT INTO items VALUES (1), (2), (3)");
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", URL);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "sa");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", H2Dialect.class.getName());
+		parameters.put("query.engine", "jdbc");
+		parameters.put("table", "items");
+		parameters.put("keyset.column", "id");
+		parameters.put("partition.column", "id");
+		parameters.put("partition.count", "2");
+		parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+		parameters.put("status.file.name", "items");
+		sqlSourceHelper = new SQLSourceHelper(new Context(parameters), "Source Name");
+		queryEngine = sqlSourceHelper.createQueryEngine();
+		queryEngine.establishSession();
+	}
+
+	@Test
+	public void failedHandlerGivesConnectionBack() throws Exception {
+		int sessions = sessions();
+		for (int i = 0; i < 5; i++) {
+			try {
+				queryEngine.scrollQuery(new RowHandler() {
+					@Override
+					public void handle(Object[] row) throws IOException {
+						throw new IOException("channel closed");
+					}
+				});
+				fail();
+			} catch (IOException e) {
+				/* expected */
+			}
+		}
+		assertTrue(sessions() <= sessions + 1);
+		assertEquals(3, queryEngine.executeQuery().size());
+	}
+
+	@Test
+	public void failedPartitionHandlerGivesConnectionBack() throws Exception {
+		int sessions = sessions();
+		for (int i = 0; i < 5; i++) {
+			QueryEngine.PartitionReader reader = queryEngine.openPartitionReader();
+			try {
+				reader.read(new Partition(1, 4), new RowHandler() {
+					@Override
+					public void handle(Object[] row) throws IOException {
+						throw new IOException("channel closed");
+					}
+				});
+				fail();
+			} catch (IOException e) {
+				/* expected */
+			} finally {
+				reader.close();
+			}
+		}
+		assertTrue(sessions() <= sessions + 1);
+	}
+
+	private int sessions() throws SQLException {
+		try (Statement statement = connection.createStatement();
+				ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS")) {
+			results.next();
+			return results.getInt(1);
+		}
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+		queryEngine.closeSession();
+		sqlSourceHelper.closeStatusFile();
+		execute("DROP ALL OBJECTS");
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}
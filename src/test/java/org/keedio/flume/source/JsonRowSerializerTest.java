@@ -0,0 +1,58 @@
+package org.keedio.flume.source;
+
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonRowSerializerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Column[] COLUMNS = {
+		new Column("id", Types.INTEGER),
+		new Column("name", Types.VARCHAR),
+		new Column("created", Types.TIMESTAMP),
+		new Column("ratio", Types.DOUBLE),
+		new Column("active", Types.BOOLEAN)
+	};
+
+	@Test
+	public void typedValues() {
+		JsonRowSerializer serializer = new JsonRowSerializer(COLUMNS, UTF8);
+		byte[] body = serializer.serialize(new Object[]{1, "one", new Timestamp(1000L), 0.5, true});
+		assertEquals("{\"id\":1,\"name\":\"one\",\"created\":1000,\"ratio\":0.5,\"active\":true}", new String(body, UTF8));
+	}
+
+	@Test
+	public void nullValues() {
+		JsonRowSerializer serializer = new JsonRowSerializer(COLUMNS, UTF8);
+		byte[] body = serializer.serialize(Arrays.<Object>asList(null, null, null, Double.NaN, null));
+		assertEquals("{\"id\":null,\"name\":null,\"created\":null,\"ratio\":\"NaN\",\"active\":null}", new String(body, UTF8));
+	}
+
+	@Test
+	public void escapedStrings() {
+		Column[] columns = {new Column("quoted \"name\"", Types.VARCHAR)};
+		JsonRowSerializer serializer = new JsonRowSerializer(columns, UTF8);
+		String value = "with \"quotes\", \\ back slash\nnew line\ttab\u0001 ñandú €";
+
+		JSONObject parsed = (JSONObject) JSONValue.parse(new String(serializer.serialize(new Object[]{value}), UTF8));
+		assertEquals(value, parsed.get("quoted \"name\""));
+	}
+
+	@Test
+	public void reusedAcrossRows() {
+		JsonRowSerializer serializer = new JsonRowSerializer(new Column[]{new Column("a", Types.VARCHAR)}, UTF8);
+		char[] wide = new char[5000];
+		Arrays.fill(wide, 'x');
+		assertEquals(5008, serializer.serialize(new Object[]{new String(wide)}).length);
+		assertEquals("{\"a\":\"b\"}", new String(serializer.serialize(new Object[]{"b"}), UTF8));
+	}
+}
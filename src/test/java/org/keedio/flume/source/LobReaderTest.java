@@ -0,0 +1,235 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+import javax.sql.rowset.serial.SerialException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Context;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads the LOB columns of an embedded H2 database
+ */
+public class LobReaderTest {
+
+	private static final String URL = "jdbc:h2:mem:lobs;DB_CLOSE_DELAY=-1";
+	private static final File STATUS_DIRECTORY = new File("/tmp/flume-lobs");
+
+	private static final FetchBudget NOT_LIMITED = new FetchBudget(0);
+
+	private Connection connection;
+
+	@Before
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection(URL, "sa", "sa");
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE docs (id BIGINT PRIMARY KEY, text CLOB, data BLOB)");
+		}
+		try (PreparedStatement insert = connection.prepareStatement("INSERT INTO docs VALUES (?, ?, ?)")) {
+			insert.setLong(1, 1);
+			insert.setString(2, "abcdefghij");
+			insert.setBytes(3, new byte[] { 1, 2, 3, 4, 5 });
+			insert.execute();
+			insert.setLong(1, 2);
+			insert.setNull(2, Types.CLOB);
+			insert.setNull(3, Types.BLOB);
+			insert.execute();
+		}
+	}
+
+	@Test
+	public void truncate() throws Exception {
+		List<Object> row = readFirst(new LobReader(4, LobReader.Policy.TRUNCATE));
+		assertEquals("abcd", row.get(1));
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, (byte[]) row.get(2));
+	}
+
+	@Test
+	public void notLimited() throws Exception {
+		List<Object> row = readFirst(new LobReader(0, LobReader.Policy.TRUNCATE));
+		assertEquals("abcdefghij", row.get(1));
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, (byte[]) row.get(2));
+	}
+
+	@Test
+	public void split() throws Exception {
+		List<Object> row = readFirst(new LobReader(4, LobReader.Policy.SPLIT));
+		assertEquals(Arrays.<Object>asList("abcd", "efgh", "ij"), ((LobReader.Chunks) row.get(1)).getChunks());
+		List<Object> chunks = ((LobReader.Chunks) row.get(2)).getChunks();
+		assertEquals(2, chunks.size());
+		assertArrayEquals(new byte[] { 5 }, (byte[]) chunks.get(1));
+	}
+
+	@Test
+	public void nullValues() throws Exception {
+		try (Statement statement = connection.createStatement();
+				ResultSet results = statement.executeQuery("SELECT text, data FROM docs WHERE id = 2")) {
+			results.next();
+			Object[] row = new LobReader(4, LobReader.Policy.SPLIT).read(results, new int[] { Types.CLOB, Types.BLOB }, 0,
+					NOT_LIMITED.charge(true));
+			assertArrayEquals(new Object[] { null, null }, row);
+		}
+	}
+
+	@Test
+	public void driverObjects() throws Exception {
+		Object[] row = { 1L, new SerialClob("abcdef".toCharArray()), new SerialBlob(new byte[] { 1, 2, 3 }) };
+		new LobReader(4, LobReader.Policy.TRUNCATE).read(row, NOT_LIMITED.charge(true));
+		assertEquals(1L, row[0]);
+		assertEquals("abcd", row[1]);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) row[2]);
+	}
+
+	@Test
+	public void pageCutAtTheChunkOverTheBudget() throws Exception {
+		FetchBudget budget = new FetchBudget(100);
+		budget.acquire(50);
+		AtomicInteger read = new AtomicInteger();
+		/* 2000 bytes, 20 for each chunk of 10 characters */
+		Object[] row = { 3L, clob(1000, read) };
+		FetchBudget.Charge charge = budget.charge(false);
+		new LobReader(10, LobReader.Policy.SPLIT).read(row, charge);
+		assertTrue(charge.isCut());
+		assertNull(row[1]);
+		assertTrue(read.get() < 100);
+		assertEquals(50, budget.getInFlight());
+	}
+
+	@Test(timeout = 10000)
+	public void lobBiggerThanTheBudgetWaitsBetweenChunks() throws Exception {
+		final FetchBudget budget = new FetchBudget(100);
+		budget.acquire(50);
+		final AtomicInteger read = new AtomicInteger();
+		final Object[] row = { 3L, clob(1000, read) };
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					FetchBudget.Charge charge = budget.charge(true);
+					new LobReader(10, LobReader.Policy.SPLIT).read(row, charge);
+					charge.complete(row);
+				} catch (SQLException | InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		reader.start();
+		reader.join(200);
+		/* stopped at the budget while another row is in flight */
+		assertTrue(reader.isAlive());
+		assertTrue(read.get() < 100);
+		budget.release(50);
+		reader.join();
+		/* read alone once the other row is delivered */
+		assertEquals(100, ((LobReader.Chunks) row[1]).getChunks().size());
+		assertEquals(budget.sizeOf(row), budget.getInFlight());
+	}
+
+	@Test
+	public void hibernateEngine() throws Exception {
+		readThroughEngine("hibernate");
+	}
+
+	@Test
+	public void jdbcEngine() throws Exception {
+		readThroughEngine("jdbc");
+	}
+
+	private void readThroughEngine(String engine) throws Exception {
+
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context(engine), "Source Name");
+		QueryEngine queryEngine = sqlSourceHelper.createQueryEngine();
+		queryEngine.establishSession();
+		try {
+			List<List<Object>> rows = queryEngine.executeQuery();
+			assertEquals(2, rows.size());
+			List<Object> chunks = ((LobReader.Chunks) rows.get(0).get(1)).getChunks();
+			assertEquals(Arrays.<Object>asList("abcdef", "ghij"), chunks);
+			assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, (byte[]) rows.get(0).get(2));
+			assertNull(rows.get(1).get(1));
+			assertNull(rows.get(1).get(2));
+		} finally {
+			queryEngine.closeSession();
+			sqlSourceHelper.closeStatusFile();
+		}
+	}
+
+	private List<Object> readFirst(LobReader lobReader) throws Exception {
+		try (Statement statement = connection.createStatement();
+				ResultSet results = statement.executeQuery("SELECT id, text, data FROM docs WHERE id = 1")) {
+			results.next();
+			return Arrays.asList(lobReader.read(results, new int[] { Types.BIGINT, Types.CLOB, Types.BLOB }, 0,
+					NOT_LIMITED.charge(true)));
+		}
+	}
+
+	/*
+	 * A text LOB of the given length counting the characters read from it
+	 */
+	private static Clob clob(int length, final AtomicInteger read) throws SQLException {
+		char[] text = new char[length];
+		Arrays.fill(text, 'a');
+		return new SerialClob(text) {
+			@Override
+			public Reader getCharacterStream() throws SerialException {
+				return new FilterReader(super.getCharacterStream()) {
+					@Override
+					public int read(char[] buffer, int offset, int length) throws IOException {
+						int chars = super.read(buffer, offset, length);
+						read.addAndGet(Math.max(chars, 0));
+						return chars;
+					}
+				};
+			}
+		};
+	}
+
+	private Context context(String engine) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", URL);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "sa");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", H2Dialect.class.getName());
+		parameters.put("query.engine", engine);
+		parameters.put("table", "docs");
+		parameters.put("lob.max.size", "6");
+		parameters.put("lob.policy", "split");
+		parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+		parameters.put("status.file.name", "docs");
+		return new Context(parameters);
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+		}
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}
@@ -0,0 +1,121 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Context;
+import org.hibernate.dialect.Dialect;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads a table through the native dialects, against embedded H2 databases in the compatibility
+ * mode of each one
+ */
+public class NativeDialectTest {
+
+	private static final File STATUS_DIRECTORY = new File("/tmp/flume-native");
+
+	private Connection connection;
+
+	@Test
+	public void oracle() throws Exception {
+		List<Object> row = readRow("Oracle", OracleNativeDialect.class);
+		assertNativeTypes(row);
+	}
+
+	@Test
+	public void postgreSQL() throws Exception {
+		List<Object> row = readRow("PostgreSQL", PostgreSQLNativeDialect.class);
+		assertNativeTypes(row);
+	}
+
+	@Test
+	public void mySQL() throws Exception {
+		List<Object> row = readRow("MySQL", MySQLNativeDialect.class);
+		assertEquals(200, ((Number) row.get(1)).intValue());
+		assertEquals(Boolean.TRUE, row.get(6));
+		assertEquals(12345678901L, ((Number) row.get(2)).longValue());
+	}
+
+	@Test
+	public void sqlServer() throws Exception {
+		List<Object> row = readRow("MSSQLServer", SQLServerNativeDialect.class);
+		assertNativeTypes(row);
+	}
+
+	private void assertNativeTypes(List<Object> row) {
+		assertEquals(Short.valueOf((short) 200), row.get(1));
+		assertEquals(Long.valueOf(12345678901L), row.get(2));
+		assertEquals(new BigDecimal("1234.50"), row.get(3));
+		assertEquals(Double.valueOf(0.1), row.get(4));
+		assertEquals(Timestamp.valueOf("2018-01-02 03:04:05.123"), row.get(5));
+		assertEquals(Boolean.TRUE, row.get(6));
+		assertArrayEquals(new byte[] { 1, 2, (byte) 255 }, (byte[]) row.get(7));
+		/* longer than the CHAR(1) and CHAR(255) mappings of hibernate */
+		assertEquals(300, ((String) row.get(8)).length());
+		assertEquals("text", row.get(9));
+		assertNotNull(row.get(10));
+	}
+
+	private List<Object> readRow(String mode, Class<? extends Dialect> dialect) throws Exception {
+
+		String url = "jdbc:h2:mem:native" + mode + ";MODE=" + mode + ";DB_CLOSE_DELAY=-1";
+		connection = DriverManager.getConnection(url, "sa", "sa");
+		execute("CREATE TABLE items (id BIGINT PRIMARY KEY, small SMALLINT, big BIGINT, amount DECIMAL(10,2), "
+				+ "ratio FLOAT, created TIMESTAMP, active BOOLEAN, data VARBINARY(10), code CHAR(300), notes CLOB, "
+				+ "tags ARRAY)");
+		execute("INSERT INTO items VALUES (1, 200, 12345678901, 1234.50, 0.1, TIMESTAMP '2018-01-02 03:04:05.123', "
+				+ "TRUE, X'0102ff', REPEAT('a', 300), 'text', (1, 2))");
+
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context(url, dialect), "Source Name");
+		QueryEngine queryEngine = sqlSourceHelper.createQueryEngine();
+		queryEngine.establishSession();
+		try {
+			List<List<Object>> rows = queryEngine.executeQuery();
+			assertEquals(1, rows.size());
+			return rows.get(0);
+		} finally {
+			queryEngine.closeSession();
+			sqlSourceHelper.closeStatusFile();
+		}
+	}
+
+	private Context context(String url, Class<? extends Dialect> dialect) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", url);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "sa");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", dialect.getName());
+		parameters.put("table", "items");
+		parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+		parameters.put("status.file.name", "items");
+		return new Context(parameters);
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+		execute("DROP ALL OBJECTS");
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}
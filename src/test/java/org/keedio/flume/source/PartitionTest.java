@@ -0,0 +1,48 @@
+package org.keedio.flume.source;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PartitionTest {
+
+	@Test
+	public void splitCoversAllValues() {
+		Partition[] partitions = Partition.split(1, 10, 3);
+		assertEquals(3, partitions.length);
+		assertEquals(1, partitions[0].getLower());
+		assertEquals(partitions[0].getUpper(), partitions[1].getLower());
+		assertEquals(partitions[1].getUpper(), partitions[2].getLower());
+		assertEquals(11, partitions[2].getUpper());
+	}
+
+	@Test
+	public void splitFewValues() {
+		Partition[] partitions = Partition.split(5, 6, 4);
+		assertEquals(2, partitions.length);
+		assertEquals(5, partitions[0].getLower());
+		assertEquals(6, partitions[1].getLower());
+		assertEquals(7, partitions[1].getUpper());
+	}
+
+	@Test
+	public void splitSingleValue() {
+		Partition[] partitions = Partition.split(7, 7, 4);
+		assertEquals(1, partitions.length);
+		assertEquals(7, partitions[0].getLower());
+		assertEquals(8, partitions[0].getUpper());
+	}
+
+	@Test
+	public void statusRoundTrip() {
+		Partition partition = new Partition(100, 200);
+		partition.advance(42);
+		partition.setDone();
+
+		Partition restored = Partition.fromStatus(partition.toStatus());
+		assertEquals(100, restored.getLower());
+		assertEquals(200, restored.getUpper());
+		assertEquals(42, restored.getIndex());
+		assertTrue(restored.isDone());
+	}
+}
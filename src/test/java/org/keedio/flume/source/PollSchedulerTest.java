@@ -0,0 +1,78 @@
+package org.keedio.flume.source;
+
+import org.apache.flume.PollableSource.Status;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PollSchedulerTest {
+
+	@Test
+	public void fullPageQueriesAgain() {
+		PollScheduler scheduler = new PollScheduler(100, 1000, 10);
+		assertEquals(Status.READY, scheduler.afterPoll(10));
+		assertEquals(0, scheduler.getBackOffSleepIncrement());
+	}
+
+	@Test
+	public void fixedDelayWithoutMaxDelay() {
+		PollScheduler scheduler = new PollScheduler(100, 100, 10);
+		for (int i = 1; i <= 5; i++) {
+			assertEquals(Status.BACKOFF, scheduler.afterPoll(0));
+			assertEquals(100, runnerSleep(scheduler, i));
+		}
+	}
+
+	@Test
+	public void emptyPollsDoubleDelay() {
+		PollScheduler scheduler = new PollScheduler(100, 1000, 10);
+		long[] expected = {100, 200, 400, 800, 1000, 1000};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(Status.BACKOFF, scheduler.afterPoll(0));
+			assertTrue(runnerSleep(scheduler, i + 1) >= expected[i]);
+			assertTrue(runnerSleep(scheduler, i + 1) < expected[i] + i + 1);
+		}
+	}
+
+	@Test
+	public void rowsResetDelay() {
+		PollScheduler scheduler = new PollScheduler(100, 1000, 10);
+		scheduler.afterPoll(0);
+		scheduler.afterPoll(0);
+		scheduler.afterPoll(0);
+		assertEquals(100, scheduler.nextDelay(3));
+		assertEquals(100, scheduler.nextDelay(0));
+	}
+
+	@Test
+	public void unlimitedPagesBackOff() {
+		PollScheduler scheduler = new PollScheduler(100, 100, 0);
+		assertEquals(Status.BACKOFF, scheduler.afterPoll(5000));
+	}
+
+	@Test
+	public void waitForGivenDelay() {
+		PollScheduler scheduler = new PollScheduler(0, 1000, 0);
+		assertEquals(Status.BACKOFF, scheduler.waitFor(300));
+		assertEquals(300, scheduler.getLastDelay());
+		assertEquals(300, runnerSleep(scheduler, 1));
+		assertEquals(Status.READY, scheduler.waitFor(-5));
+		assertEquals(0, scheduler.getLastDelay());
+	}
+
+	@Test
+	public void waitForKeepsIdleDelay() {
+		PollScheduler scheduler = new PollScheduler(100, 1000, 10);
+		scheduler.afterPoll(0);
+		assertEquals(Status.BACKOFF, scheduler.waitFor(5000));
+		assertEquals(5000, runnerSleep(scheduler, 2));
+		/* the empty polls go on doubling their own delay */
+		assertEquals(200, scheduler.nextDelay(0));
+	}
+
+	/* Sleep done by PollableSourceRunner after the given consecutive backoffs */
+	private long runnerSleep(PollScheduler scheduler, int consecutiveBackoffs) {
+		return Math.min(consecutiveBackoffs * scheduler.getBackOffSleepIncrement(),
+				scheduler.getMaxBackOffSleepInterval());
+	}
+}
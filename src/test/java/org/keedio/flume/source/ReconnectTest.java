@@ -0,0 +1,256 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.PollableSource.Status;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queries of an embedded H2 database failing while a table is missing or in the middle of a read,
+ * and reading again once it is back
+ */
+public class ReconnectTest {
+
+	private static final String URL = "jdbc:h2:mem:reconnect;DB_CLOSE_DELAY=-1";
+	private static final File STATUS_DIRECTORY = new File("/tmp/flume-reconnect");
+
+	private Connection connection;
+	private MemoryChannel channel;
+	private SQLSource source;
+
+	@Before
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection(URL, "sa", "sa");
+		execute("CREATE TABLE items (id BIGINT PRIMARY KEY)");
+		execute("INSERT INTO items VALUES (1), (2), (3)");
+
+		channel = new MemoryChannel();
+		Context channelContext = new Context();
+		channelContext.put("keep-alive", "0");
+		Configurables.configure(channel, channelContext);
+		channel.start();
+	}
+
+	@Test
+	public void hibernateEngine() throws Exception {
+		readAfterFailures("hibernate");
+	}
+
+	@Test
+	public void jdbcEngine() throws Exception {
+		readAfterFailures("jdbc");
+	}
+
+	@Test
+	public void hibernateFailureAfterSomeRows() throws Exception {
+		deliverRowsBeforeFailure("hibernate");
+	}
+
+	@Test
+	public void jdbcFailureAfterSomeRows() throws Exception {
+		deliverRowsBeforeFailure("jdbc");
+	}
+
+	@Test
+	public void prefetchedFailuresWaitForTheCircuitBreaker() throws Exception {
+
+		Map<String, String> parameters = parameters("jdbc");
+		parameters.put("prefetch.pages", "1");
+		startSource(parameters);
+		List<Long> ids = new ArrayList<Long>();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (ids.size() < 3 && System.currentTimeMillis() < deadline) {
+			source.process();
+			ids.addAll(take());
+		}
+		assertEquals(Arrays.asList(1L, 2L, 3L), ids);
+
+		execute("ALTER TABLE items RENAME TO items_moved");
+		/* the failure of the prefetch thread is counted by the source, which backs off */
+		Status status = Status.READY;
+		while (status == Status.READY && System.currentTimeMillis() < deadline) {
+			status = source.process();
+		}
+		assertEquals(Status.BACKOFF, status);
+		/* not queried again until the wait is over */
+		assertEquals(Status.BACKOFF, source.process());
+
+		execute("ALTER TABLE items_moved RENAME TO items");
+		execute("INSERT INTO items VALUES (4)");
+		ids.clear();
+		deadline = System.currentTimeMillis() + 5000;
+		while (ids.isEmpty() && System.currentTimeMillis() < deadline) {
+			source.process();
+			ids.addAll(take());
+			Thread.sleep(10);
+		}
+		assertEquals(Collections.singletonList(4L), ids);
+	}
+
+	@Test
+	public void brokenIdleConnectionIsReplaced() throws SQLException {
+		Properties properties = new Properties();
+		properties.put("user", "sa");
+		properties.put("password", "sa");
+		JdbcConnectionPool pool = new JdbcConnectionPool(URL, properties, false, false, 2, 0, 1);
+		try {
+			Connection first = pool.borrow();
+			Connection second = pool.borrow();
+			pool.release(first);
+			pool.release(second);
+			first.close();
+
+			/* the other one failed after both were released, so both are checked */
+			pool.invalidate(pool.borrow());
+			Connection next = pool.borrow();
+			assertNotSame(first, next);
+			assertFalse(next.isClosed());
+			pool.release(next);
+		} finally {
+			pool.close();
+		}
+	}
+
+	private void readAfterFailures(String engine) throws Exception {
+
+		startSource(engine);
+		source.process();
+		assertEquals(3, take().size());
+
+		execute("ALTER TABLE items RENAME TO items_moved");
+		assertEquals(Status.BACKOFF, source.process());
+		/* not queried again until the wait is over */
+		assertEquals(Status.BACKOFF, source.process());
+		Thread.sleep(250);
+		assertEquals(Status.BACKOFF, source.process());
+
+		execute("ALTER TABLE items_moved RENAME TO items");
+		execute("INSERT INTO items VALUES (4)");
+		List<Long> ids = new ArrayList<Long>();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (ids.isEmpty() && System.currentTimeMillis() < deadline) {
+			source.process();
+			ids.addAll(take());
+			Thread.sleep(10);
+		}
+		assertEquals(Collections.singletonList(4L), ids);
+	}
+
+	private void deliverRowsBeforeFailure(String engine) throws Exception {
+
+		/* rows are computed as they are read, the third one fails */
+		Map<String, String> parameters = parameters(engine);
+		parameters.put("hibernate.connection.url", URL + ";LAZY_QUERY_EXECUTION=1");
+		parameters.put("columns.to.select", "10 / (3 - id) * 0 + id");
+		startSource(parameters);
+
+		assertEquals(Status.BACKOFF, source.process());
+		assertEquals(Arrays.asList(1L, 2L), take());
+
+		execute("DELETE FROM items WHERE id = 3");
+		execute("INSERT INTO items VALUES (4)");
+		/* counted as a failed query, not queried again until the wait is over */
+		assertEquals(Status.BACKOFF, source.process());
+		assertTrue(take().isEmpty());
+		List<Long> ids = new ArrayList<Long>();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (ids.isEmpty() && System.currentTimeMillis() < deadline) {
+			source.process();
+			ids.addAll(take());
+			Thread.sleep(10);
+		}
+		assertEquals(Collections.singletonList(4L), ids);
+	}
+
+	private void startSource(String engine) {
+		startSource(parameters(engine));
+	}
+
+	private void startSource(Map<String, String> parameters) {
+		ReplicatingChannelSelector selector = new ReplicatingChannelSelector();
+		selector.setChannels(Collections.<Channel> singletonList(channel));
+		source = new SQLSource();
+		source.setName("reconnect");
+		source.setChannelProcessor(new ChannelProcessor(selector));
+		source.configure(new Context(parameters));
+		source.start();
+	}
+
+	private Map<String, String> parameters(String engine) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", URL);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "sa");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", H2Dialect.class.getName());
+		parameters.put("query.engine", engine);
+		parameters.put("table", "items");
+		parameters.put("keyset.column", "id");
+		parameters.put("run.query.delay", "1");
+		parameters.put("connection.retry.delay", "200");
+		parameters.put("connection.failure.threshold", "2");
+		parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+		parameters.put("status.file.name", "items");
+		return parameters;
+	}
+
+	private List<Long> take() {
+		List<Long> ids = new ArrayList<Long>();
+		Transaction transaction = channel.getTransaction();
+		transaction.begin();
+		try {
+			Event event;
+			while ((event = channel.take()) != null) {
+				ids.add(Long.parseLong(new String(event.getBody(), StandardCharsets.UTF_8).trim().replace("\"", "")));
+			}
+			transaction.commit();
+		} finally {
+			transaction.close();
+		}
+		return ids;
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+		if (source != null) {
+			source.stop();
+		}
+		channel.stop();
+		execute("DROP ALL OBJECTS");
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}
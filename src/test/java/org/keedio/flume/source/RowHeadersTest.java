@@ -0,0 +1,94 @@
+package org.keedio.flume.source;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.flume.Event;
+import org.apache.flume.conf.ConfigurationException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RowHeadersTest {
+
+	private static final Column[] COLUMNS = {new Column("id", Types.BIGINT), new Column("Region", Types.VARCHAR),
+			new Column("amount", Types.DECIMAL), new Column("updated", Types.TIMESTAMP)};
+
+	@Test
+	public void formatAndTimestampHeaders() {
+		RowHeaders rowHeaders = new RowHeaders(Collections.singletonMap("format", "csv"), new String[0], null, COLUMNS);
+		assertNull(rowHeaders.getValues(Arrays.<Object> asList(1L, "eu", null, null)));
+
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("format", "csv");
+		expected.put("timestamp", "1000");
+		Event event = rowHeaders.createEvent(new byte[0], null, null, "1000");
+		assertEquals(expected, event.getHeaders());
+		assertEquals(2, event.getHeaders().size());
+		assertFalse(event.getHeaders().containsKey("rows"));
+
+		expected.put("rows", "10");
+		assertEquals(expected, rowHeaders.createEvent(new byte[0], null, "10", "1000").getHeaders());
+	}
+
+	@Test
+	public void columnHeaders() {
+		RowHeaders rowHeaders = new RowHeaders(Collections.<String, String> emptyMap(),
+				new String[] {"region", "amount"}, "updated", COLUMNS);
+		Timestamp updated = new Timestamp(1500000000123L);
+		String[] values = rowHeaders.getValues(new Object[] {1L, "eu", new BigDecimal("1E+3"), updated});
+
+		Map<String, String> headers = rowHeaders.createEvent(new byte[0], values, null, "1000").getHeaders();
+		assertEquals("eu", headers.get("region"));
+		assertEquals("1000", headers.get("amount"));
+		assertEquals("1500000000123", headers.get("timestamp"));
+		assertEquals(3, headers.size());
+
+		/* NULL cells give no header and the time the event is built */
+		values = rowHeaders.getValues(Arrays.<Object> asList(2L, null, null, null));
+		headers = rowHeaders.createEvent(new byte[0], values, null, "1000").getHeaders();
+		assertFalse(headers.containsKey("region"));
+		assertEquals("1000", headers.get("timestamp"));
+		assertEquals(1, headers.size());
+	}
+
+	@Test
+	public void sameColumns() {
+		RowHeaders rowHeaders = new RowHeaders(Collections.<String, String> emptyMap(), new String[] {"region"},
+				"updated", COLUMNS);
+		String[] eu1 = rowHeaders.getValues(new Object[] {1L, "eu", null, new Timestamp(1)});
+		String[] eu2 = rowHeaders.getValues(new Object[] {2L, "eu", null, new Timestamp(2)});
+		String[] us = rowHeaders.getValues(new Object[] {3L, "us", null, new Timestamp(1)});
+		assertTrue(RowHeaders.sameColumns(eu1, eu2));
+		assertFalse(RowHeaders.sameColumns(eu1, us));
+		assertTrue(RowHeaders.sameColumns(null, null));
+	}
+
+	@Test
+	public void headersCopiedOnWrite() {
+		Map<String, String> formatHeaders = Collections.singletonMap("format", "json");
+		RowHeaders rowHeaders = new RowHeaders(formatHeaders, new String[] {"region"}, null, COLUMNS);
+		Event first = rowHeaders.createEvent(new byte[0], rowHeaders.getValues(new Object[] {1L, "eu", null, null}),
+				null, "1000");
+		Event second = rowHeaders.createEvent(new byte[0], rowHeaders.getValues(new Object[] {2L, "us", null, null}),
+				null, "1000");
+
+		first.getHeaders().put("format", "avro");
+		first.getHeaders().remove("region");
+		assertEquals("avro", first.getHeaders().get("format"));
+		assertFalse(first.getHeaders().containsKey("region"));
+		assertEquals("json", second.getHeaders().get("format"));
+		assertEquals("us", second.getHeaders().get("region"));
+		assertEquals("json", formatHeaders.get("format"));
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void unknownColumn() {
+		new RowHeaders(Collections.<String, String> emptyMap(), new String[] {"country"}, null, COLUMNS);
+	}
+}
@@ -0,0 +1,66 @@
+package org.keedio.flume.source;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RowPackerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] NEW_LINE = "\n".getBytes(UTF8);
+
+	@Test
+	public void fullByRows() {
+		RowPacker packer = new RowPacker(3, 0, NEW_LINE);
+		packer.add(bytes("a"));
+		packer.add(bytes("b"));
+		assertFalse(packer.isFull());
+		packer.add(bytes("c"));
+		assertTrue(packer.isFull());
+		assertEquals(3, packer.getRows());
+		assertEquals("a\nb\nc", new String(packer.drain(), UTF8));
+		assertTrue(packer.isEmpty());
+	}
+
+	@Test
+	public void limitedByBytes() {
+		RowPacker packer = new RowPacker(100, 8, NEW_LINE);
+		packer.add(bytes("abc"));
+		assertTrue(packer.fits(4));
+		assertFalse(packer.fits(5));
+		packer.add(bytes("defg"));
+		assertTrue(packer.isFull());
+		assertEquals("abc\ndefg", new String(packer.drain(), UTF8));
+	}
+
+	@Test
+	public void bigRowAlwaysFitsEmptyPack() {
+		RowPacker packer = new RowPacker(100, 4, NEW_LINE);
+		assertTrue(packer.fits(10));
+		packer.add(bytes("0123456789"));
+		assertTrue(packer.isFull());
+	}
+
+	@Test
+	public void withoutSeparator() {
+		RowPacker packer = new RowPacker(2, 0, new byte[0]);
+		packer.add(new byte[]{1, 2});
+		packer.add(new byte[]{3});
+		assertArrayEquals(new byte[]{1, 2, 3}, packer.drain());
+	}
+
+	@Test
+	public void clearDiscardsRows() {
+		RowPacker packer = new RowPacker(2, 0, NEW_LINE);
+		packer.add(bytes("a"));
+		packer.clear();
+		packer.add(bytes("b"));
+		assertEquals("b", new String(packer.drain(), UTF8));
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(UTF8);
+	}
+}
@@ -3,8 +3,11 @@ package org.keedio.flume.source;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Date;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.flume.Context;
@@ -36,11 +39,40 @@ public class SQLSourceHelperTest {
 		when(context.getString("columns.to.select", "*")).thenReturn("*");
 		when(context.getInteger("run.query.delay", 10000)).thenReturn(10000);
 		when(context.getInteger("batch.size", 100)).thenReturn(100);
+		when(context.getInteger("batch.size.min", 100)).thenReturn(100);
+		when(context.getInteger("batch.size.max", 100)).thenReturn(100);
+		when(context.getLong("channel.full.backoff", 100L)).thenReturn(100L);
+		when(context.getInteger("channel.full.retries", 3)).thenReturn(3);
 		when(context.getInteger("max.rows", 10000)).thenReturn(10000);
 		when(context.getString("incremental.value", "0")).thenReturn("0");
 		when(context.getString("start.from", "0")).thenReturn("0");
 		when(context.getString("hibernate.connection.user")).thenReturn("user");
 		when(context.getString("hibernate.connection.password")).thenReturn("password");
+		when(context.getString("query.engine", "hibernate")).thenReturn("hibernate");
+		when(context.getString("output.format", "csv")).thenReturn("csv");
+		when(context.getString("delimiter.entry", ",")).thenReturn(",");
+		when(context.getString("default.charset.resultset", "UTF-8")).thenReturn("UTF-8");
+		when(context.getInteger("rows.per.event", 1)).thenReturn(1);
+		when(context.getString("status.file.sync", "batch")).thenReturn("batch");
+		when(context.getLong("status.file.sync.interval", 1000L)).thenReturn(1000L);
+		when(context.getInteger("status.journal.max.records", 1000)).thenReturn(1000);
+		when(context.getInteger("query.workers", 1)).thenReturn(1);
+		when(context.getInteger("statement.cache.size", 20)).thenReturn(20);
+		when(context.getString("keyset.type", "auto")).thenReturn("auto");
+		when(context.getLong("keyset.lookback", 0L)).thenReturn(0L);
+		when(context.getString("null.value", "")).thenReturn("");
+		when(context.getString("binary.encoding", "base64")).thenReturn("base64");
+		when(context.getInteger("lob.max.size", 0)).thenReturn(0);
+		when(context.getString("lob.policy", "truncate")).thenReturn("truncate");
+		when(context.getLong("fetch.max.bytes", 0L)).thenReturn(0L);
+		when(context.getInteger("dedup.max.rows", 100000)).thenReturn(100000);
+		when(context.getLong("dedup.window", 3600000L)).thenReturn(3600000L);
+		when(context.getInteger("partition.count", 1)).thenReturn(1);
+		when(context.getLong("partition.size", 0L)).thenReturn(0L);
+		when(context.getLong("connection.retry.delay", 1000L)).thenReturn(1000L);
+		when(context.getLong("connection.retry.max.delay", 60000L)).thenReturn(60000L);
+		when(context.getInteger("connection.failure.threshold", 3)).thenReturn(3);
+		when(context.getLong("connection.validation.interval", 30000L)).thenReturn(30000L);
 	}
 
 	/*
@@ -98,6 +130,226 @@ public class SQLSourceHelperTest {
 		assertEquals("SELECT column FROM table",sqlSourceHelper.getQuery());
 	}
 	
+	@Test
+	public void customQueryBindsLastIndex() {
+		when(context.getString("custom.query")).thenReturn("SELECT id FROM table WHERE id > :lastIndex");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(true, sqlSourceHelper.isCustomQueryBound());
+		sqlSourceHelper.setCurrentIndex("42");
+		assertEquals("SELECT id FROM table WHERE id > :lastIndex", sqlSourceHelper.buildQuery());
+		assertEquals(42L, sqlSourceHelper.getCustomQueryParameter());
+	}
+
+	@Test
+	public void customQueryReplacesLastIndex() {
+		when(context.getString("custom.query")).thenReturn("SELECT id FROM table WHERE id > $@$");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(false, sqlSourceHelper.isCustomQueryBound());
+		sqlSourceHelper.setCurrentIndex("42");
+		assertEquals("SELECT id FROM table WHERE id > 42", sqlSourceHelper.buildQuery());
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void negativeStatementCacheSize() {
+		when(context.getInteger("statement.cache.size", 20)).thenReturn(-1);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void unknownBinaryEncoding() {
+		when(context.getString("binary.encoding", "base64")).thenReturn("base32");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void invalidTimestampFormat() {
+		when(context.getString("timestamp.format")).thenReturn("yyyy-MM-dd bb");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test
+	public void getKeysetQuery() {
+		when(context.getString("keyset.column")).thenReturn("id");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(true, sqlSourceHelper.isKeysetPaginationSet());
+		assertEquals("SELECT id AS keyset_key, table.* FROM table WHERE id > :lastKey ORDER BY id",sqlSourceHelper.getQuery());
+	}
+
+	@Test
+	public void compositeKeysetQuery() {
+		when(context.getString("keyset.column")).thenReturn("ts, id");
+		when(context.getString("keyset.type", "auto")).thenReturn("timestamp, long");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(2, sqlSourceHelper.getKeyColumnCount());
+		assertEquals("SELECT ts AS keyset_key, id AS keyset_tie_key, table.* FROM table WHERE ts > :lastKey ORDER BY ts, id",
+				sqlSourceHelper.getQuery());
+		assertEquals(new Timestamp(0), sqlSourceHelper.getKeysetParameters().get("lastKey"));
+
+		sqlSourceHelper.advanceIndex(10, new Object[] {Timestamp.valueOf("2020-01-02 03:04:05.123"), 7});
+		assertEquals("2020-01-02 03:04:05.123,7", sqlSourceHelper.getCurrentIndex());
+		assertEquals("SELECT ts AS keyset_key, id AS keyset_tie_key, table.* FROM table WHERE (ts > :lastKey OR "
+				+ "(ts = :lastKey AND id > :lastTieKey)) ORDER BY ts, id", sqlSourceHelper.getQuery());
+		assertEquals(7L, sqlSourceHelper.getKeysetParameters().get("lastTieKey"));
+	}
+
+	@Test
+	public void typedKeysetIndexFromStatusFile() {
+		when(context.getString("keyset.column")).thenReturn("ts, id");
+		when(context.getString("keyset.type", "auto")).thenReturn("timestamp, decimal");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		sqlSourceHelper.advanceIndex(1, new Object[] {new Date(1000), 12});
+		sqlSourceHelper.updateStatusFile();
+
+		SQLSourceHelper recovered = new SQLSourceHelper(context,"Source Name");
+		Map<String, Object> parameters = recovered.getKeysetParameters();
+		assertEquals(new Timestamp(1000), parameters.get("lastKey"));
+		assertEquals(new java.math.BigDecimal(12), parameters.get("lastTieKey"));
+	}
+
+	@Test
+	public void keysetLookback() {
+		when(context.getString("keyset.column")).thenReturn("ts");
+		when(context.getString("keyset.type", "auto")).thenReturn("timestamp");
+		when(context.getLong("keyset.lookback", 0L)).thenReturn(60000L);
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals("SELECT ts AS keyset_key, table.* FROM table WHERE ts > :lastKey AND ts <= :maxKey ORDER BY ts",
+				sqlSourceHelper.getQuery());
+		Timestamp maxKey = (Timestamp) sqlSourceHelper.getKeysetParameters().get("maxKey");
+		assertTrue(maxKey.getTime() <= System.currentTimeMillis() - 60000L);
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void lookbackNeedsTimestampKey() {
+		when(context.getString("keyset.column")).thenReturn("id");
+		when(context.getLong("keyset.lookback", 0L)).thenReturn(60000L);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test
+	public void offsetIndexPastIntegerRange() {
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		sqlSourceHelper.setCurrentIndex("2147483647");
+		sqlSourceHelper.advanceIndex(10, null);
+		assertEquals("2147483657", sqlSourceHelper.getCurrentIndex());
+	}
+
+	@Test
+	public void keysetIgnoredWithCustomQuery() {
+		when(context.getString("keyset.column")).thenReturn("id");
+		when(context.getString("custom.query")).thenReturn("SELECT column FROM table");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(false, sqlSourceHelper.isKeysetPaginationSet());
+		assertEquals("SELECT column FROM table",sqlSourceHelper.getQuery());
+	}
+
+	@Test
+	public void getPartitionQueries() {
+		when(context.getString("partition.column", null)).thenReturn("id");
+		when(context.getInteger("partition.count", 1)).thenReturn(4);
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(true, sqlSourceHelper.isPartitionedReadSet());
+		assertEquals(true, sqlSourceHelper.isPartitionedReadPending());
+		assertEquals("SELECT MIN(id), MAX(id) FROM table", sqlSourceHelper.getPartitionBoundsQuery());
+		assertEquals("SELECT * FROM table WHERE id >= :lower AND id < :upper ORDER BY id",
+				sqlSourceHelper.getPartitionQuery());
+	}
+
+	@Test
+	public void partitionSlices() {
+		when(context.getString("partition.column", null)).thenReturn("id");
+		when(context.getInteger("partition.count", 1)).thenReturn(2);
+		when(context.getLong("partition.size", 0L)).thenReturn(10L);
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(true, sqlSourceHelper.isPartitionedReadSet());
+		sqlSourceHelper.splitPartitions(0, 35, false);
+		assertEquals("[[0, 10), [10, 20)]", sqlSourceHelper.nextPartitions().toString());
+
+		/* a slice starts when another one is done */
+		sqlSourceHelper.getPartitions().get(0).advance(7);
+		sqlSourceHelper.getPartitions().get(0).setDone();
+		sqlSourceHelper.getPartitions().get(1).advance(3);
+		assertEquals("[[10, 20), [20, 30)]", sqlSourceHelper.nextPartitions().toString());
+		assertEquals(10, sqlSourceHelper.getPartitionedRows());
+
+		for (Partition partition : sqlSourceHelper.getPartitions()) {
+			partition.setDone();
+		}
+		assertEquals(false, sqlSourceHelper.isPartitionedReadDone());
+		assertEquals("[[30, 35)]", sqlSourceHelper.nextPartitions().toString());
+		sqlSourceHelper.getPartitions().get(0).setDone();
+		assertEquals(true, sqlSourceHelper.isPartitionedReadDone());
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void negativePartitionSize() {
+		when(context.getString("partition.column", null)).thenReturn("id");
+		when(context.getLong("partition.size", 0L)).thenReturn(-1L);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void retryMaxDelayBelowDelay() {
+		when(context.getLong("connection.retry.max.delay", 60000L)).thenReturn(100L);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void partitionColumnNotKeysetColumn() {
+		when(context.getString("keyset.column")).thenReturn("id");
+		when(context.getString("partition.column", "id")).thenReturn("date");
+		when(context.getInteger("partition.count", 1)).thenReturn(4);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test
+	public void jdbcQueryEngine() {
+		when(context.getString("query.engine", "hibernate")).thenReturn("jdbc");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertTrue(sqlSourceHelper.createQueryEngine() instanceof JdbcHelper);
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void unknownQueryEngine() {
+		when(context.getString("query.engine", "hibernate")).thenReturn("jpa");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test
+	public void outputFormats() {
+		Column[] columns = {new Column("id", java.sql.Types.INTEGER)};
+		assertTrue(new SQLSourceHelper(context,"Source Name").createRowSerializer(null) instanceof CSVRowSerializer);
+		
+		when(context.getString("output.format", "csv")).thenReturn("json");
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertTrue(sqlSourceHelper.createRowSerializer(columns) instanceof JsonRowSerializer);
+		
+		when(context.getString("output.format", "csv")).thenReturn("avro");
+		assertTrue(new SQLSourceHelper(context,"Source Name").createRowSerializer(columns) instanceof AvroRowSerializer);
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void unknownOutputFormat() {
+		when(context.getString("output.format", "csv")).thenReturn("xml");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test
+	public void rowPacking() {
+		assertNull(new SQLSourceHelper(context,"Source Name").createRowPacker());
+		
+		when(context.getInteger("rows.per.event", 1)).thenReturn(10);
+		RowPacker packer = new SQLSourceHelper(context,"Source Name").createRowPacker();
+		packer.add("a".getBytes());
+		packer.add("b".getBytes());
+		assertEquals("a\nb", new String(packer.drain()));
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void rowsPerEventNotPositive() {
+		when(context.getInteger("rows.per.event", 1)).thenReturn(0);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
 	@Test
 	public void chekGetAllRowsWithNullParam() {
 		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
@@ -169,6 +421,37 @@ public class SQLSourceHelperTest {
 		assertArrayEquals(expectedResult.get(1),sqlSourceHelper.getAllRows(queryResult).get(1));
 	}
 
+	@Test
+	public void chekSerializeStreamedRow() {
+
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		Object[] rawRow = {"string1", 1, null};
+
+		assertEquals("string1,1,", new String(sqlSourceHelper.createRowSerializer(null).serialize(rawRow)));
+	}
+
+	@Test
+	public void isStreamingModeDefault() {
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(false, sqlSourceHelper.isStreamingMode());
+	}
+
+	@Test
+	public void isPrefetchSet() {
+		when(context.getInteger("prefetch.pages", 0)).thenReturn(2);
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(true, sqlSourceHelper.isPrefetchSet());
+		assertEquals(2, sqlSourceHelper.getPrefetchPages());
+	}
+
+	@Test
+	public void prefetchNotUsedWithStreamingMode() {
+		when(context.getInteger("prefetch.pages", 0)).thenReturn(2);
+		when(context.getBoolean("streaming.mode", false)).thenReturn(true);
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		assertEquals(false, sqlSourceHelper.isPrefetchSet());
+	}
+
 	@SuppressWarnings("unused")
 	@Test
 	public void createDirectory() {
@@ -218,6 +501,104 @@ public class SQLSourceHelperTest {
 		assertEquals("10", sqlSourceHelper2.getCurrentIndex());
 	}
 
+	@Test
+	public void checkStatusFileUpdatedWithDeliveredIndex() throws Exception {
+
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		sqlSourceHelper.setCurrentIndex("20");
+
+		sqlSourceHelper.updateStatusFile("10");
+
+		SQLSourceHelper sqlSourceHelper2 = new SQLSourceHelper(context,"Source Name");
+		assertEquals("10", sqlSourceHelper2.getCurrentIndex());
+	}
+
+	@Test
+	public void checkStatusFileRecoveredFromJournal() throws Exception {
+
+		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
+		sqlSourceHelper.updateStatusFile("10");
+		sqlSourceHelper.updateStatusFile("20");
+		sqlSourceHelper.closeStatusFile();
+
+		/* a status file cut by a crash must not restart the table */
+		FileUtils.writeStringToFile(new File("/tmp/flume/statusFileName.txt"), "{\"SourceName\":\"Sou");
+
+		SQLSourceHelper sqlSourceHelper2 = new SQLSourceHelper(context,"Source Name");
+		assertEquals("20", sqlSourceHelper2.getCurrentIndex());
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void unknownStatusFileSync() {
+		when(context.getString("status.file.sync", "batch")).thenReturn("never");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void batchSizeOutOfBounds() {
+		when(context.getInteger("batch.size.max", 100)).thenReturn(50);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void unknownLobPolicy() {
+		when(context.getString("lob.policy", "truncate")).thenReturn("drop");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void splitLobsWithoutMaxSize() {
+		when(context.getString("lob.policy", "truncate")).thenReturn("split");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void negativeFetchBudget() {
+		when(context.getLong("fetch.max.bytes", 0L)).thenReturn(-1L);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void noDedupWindow() {
+		when(context.getString("dedup.columns")).thenReturn("id");
+		when(context.getLong("dedup.window", 3600000L)).thenReturn(0L);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void noQueryWorkers() {
+		when(context.getInteger("query.workers", 1)).thenReturn(0);
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void reservedHeaderColumn() {
+		when(context.getString("header.columns")).thenReturn("region,timestamp");
+		new SQLSourceHelper(context,"Source Name");
+	}
+
+	@Test
+	public void queryContextOverridesSource() {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("queries", "a b");
+		parameters.put("table", "source_table");
+		parameters.put("max.rows", "100");
+		parameters.put("status.file.name", "status");
+		parameters.put("queries.a.table", "table_a");
+		parameters.put("queries.b.status.file.name", "status_b");
+
+		Context queryA = SQLSourceHelper.getQueryContext(new Context(parameters), "a");
+		assertEquals("table_a", queryA.getString("table"));
+		assertEquals("100", queryA.getString("max.rows"));
+		assertEquals("status.a", queryA.getString("status.file.name"));
+		assertNull(queryA.getString("queries"));
+		assertNull(queryA.getString("queries.a.table"));
+
+		Context queryB = SQLSourceHelper.getQueryContext(new Context(parameters), "b");
+		assertEquals("source_table", queryB.getString("table"));
+		assertEquals("status_b", queryB.getString("status.file.name"));
+	}
+
 	@Test
 	public void getUserName() {
 		SQLSourceHelper sqlSourceHelper = new SQLSourceHelper(context,"Source Name");
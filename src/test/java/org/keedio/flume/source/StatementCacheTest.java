@@ -0,0 +1,69 @@
+package org.keedio.flume.source;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StatementCacheTest {
+
+	private Connection connection = mock(Connection.class);
+
+	@Before
+	public void setup() throws SQLException {
+		when(connection.prepareStatement(anyString(), eq(ResultSet.TYPE_FORWARD_ONLY), eq(ResultSet.CONCUR_READ_ONLY)))
+				.thenAnswer(new Answer<PreparedStatement>() {
+					@Override
+					public PreparedStatement answer(InvocationOnMock invocation) {
+						return mock(PreparedStatement.class);
+					}
+				});
+	}
+
+	@Test
+	public void sameTextReusesStatement() throws SQLException {
+		StatementCache cache = new StatementCache(connection, 2);
+		PreparedStatement first = cache.prepare("SELECT a FROM t WHERE id > ?");
+		assertSame(first, cache.prepare("SELECT a FROM t WHERE id > ?"));
+		verify(connection, times(1)).prepareStatement(anyString(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsClosed() throws SQLException {
+		StatementCache cache = new StatementCache(connection, 2);
+		PreparedStatement a = cache.prepare("a");
+		PreparedStatement b = cache.prepare("b");
+		cache.prepare("a");
+		cache.prepare("c");
+		assertEquals(2, cache.size());
+		verify(b).close();
+		verify(a, never()).close();
+	}
+
+	@Test
+	public void closedStatementIsPreparedAgain() throws SQLException {
+		StatementCache cache = new StatementCache(connection, 2);
+		PreparedStatement first = cache.prepare("a");
+		when(first.isClosed()).thenReturn(true);
+		assertNotSame(first, cache.prepare("a"));
+	}
+
+	@Test
+	public void closeClosesAll() throws SQLException {
+		StatementCache cache = new StatementCache(connection, 2);
+		PreparedStatement a = cache.prepare("a");
+		PreparedStatement b = cache.prepare("b");
+		cache.close();
+		verify(a).close();
+		verify(b).close();
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,335 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.PollableSource;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load test of the whole source: reads a table of an embedded H2 database into a memory channel in
+ * every mode and reports rows/s, time to the first event, checkpoint overhead and peak heap. <p>
+ * Not run by the default build, run it with <tt>mvn test -Pthroughput</tt>. The table size and the
+ * modes are set with the <tt>throughput.*</tt> system properties of the profile, e.g.
+ * <tt>-Dthroughput.rows=1000000</tt>. Results are printed and written to <tt>target/throughput.csv</tt>.
+ */
+public class ThroughputHarness {
+
+	private static final String URL = "jdbc:h2:mem:throughput;DB_CLOSE_DELAY=-1";
+	private static final File STATUS_DIRECTORY = new File("target/throughput-status");
+	private static final File RESULTS = new File("target/throughput.csv");
+	private static final int CHECKPOINT_SAMPLES = 100;
+
+	private final int rows = Integer.getInteger("throughput.rows", 100000);
+	private final int columns = Integer.getInteger("throughput.columns", 10);
+	private final List<String> queryModes = list("throughput.modes", "table,keyset,custom.query");
+	private final List<String> engines = list("throughput.engines", "hibernate,jdbc");
+	private final List<String> maxRows = list("throughput.max.rows", "1000,10000");
+	private final List<String> batchSizes = list("throughput.batch.sizes", "100,1000");
+
+	private Connection connection;
+
+	@Before
+	public void setup() throws SQLException {
+
+		connection = DriverManager.getConnection(URL, "sa", "sa");
+		StringBuilder create = new StringBuilder("CREATE TABLE bench (id BIGINT PRIMARY KEY");
+		StringBuilder insert = new StringBuilder("INSERT INTO bench VALUES (?");
+		for (int i = 1; i <= columns; i++) {
+			create.append(", c").append(i).append(" ").append(columnType(i));
+			insert.append(", ?");
+		}
+		execute(create.append(")").toString());
+
+		connection.setAutoCommit(false);
+		try (PreparedStatement statement = connection.prepareStatement(insert.append(")").toString())) {
+			for (int row = 1; row <= rows; row++) {
+				statement.setLong(1, row);
+				for (int i = 1; i <= columns; i++) {
+					statement.setObject(i + 1, cell(row, i));
+				}
+				statement.addBatch();
+				if (row % 1000 == 0) {
+					statement.executeBatch();
+				}
+			}
+			statement.executeBatch();
+		}
+		connection.commit();
+		connection.setAutoCommit(true);
+	}
+
+	@Test
+	public void throughput() throws Exception {
+
+		try (PrintWriter results = new PrintWriter(RESULTS, "UTF-8")) {
+			String header = String.format("%-12s %-9s %8s %8s %10s %12s %14s %10s", "mode", "engine", "max.rows",
+					"batch", "rows/s", "first ms", "checkpoint us", "heap MB");
+			System.out.println(header);
+			results.println("mode,engine,max.rows,batch.size,rows_per_second,first_event_ms,checkpoint_us,peak_heap_mb");
+
+			for (String queryMode : queryModes) {
+				for (String engine : engines) {
+					for (String max : maxRows) {
+						for (String batchSize : batchSizes) {
+							Run run = new Run(queryMode, engine, max, batchSize);
+							run.execute();
+							System.out.println(String.format("%-12s %-9s %8s %8s %10d %12d %14d %10d", queryMode, engine,
+									max, batchSize, run.rowsPerSecond, run.firstEventMillis, run.checkpointMicros,
+									run.peakHeapMb));
+							results.println(queryMode + "," + engine + "," + max + "," + batchSize + ","
+									+ run.rowsPerSecond + "," + run.firstEventMillis + "," + run.checkpointMicros + ","
+									+ run.peakHeapMb);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * One read of the whole table by a new source
+	 */
+	private class Run {
+
+		private final Map<String, String> parameters = new HashMap<String, String>();
+		private long rowsPerSecond, firstEventMillis, checkpointMicros, peakHeapMb;
+
+		Run(String queryMode, String engine, String maxRows, String batchSize) {
+
+			parameters.put("hibernate.connection.url", URL);
+			parameters.put("hibernate.connection.user", "sa");
+			parameters.put("hibernate.connection.password", "sa");
+			parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+			parameters.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+			parameters.put("query.engine", engine);
+			parameters.put("max.rows", maxRows);
+			parameters.put("batch.size", batchSize);
+			parameters.put("run.query.delay", "10");
+			parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+			parameters.put("status.file.name", queryMode + "-" + engine + "-" + maxRows + "-" + batchSize);
+			if ("custom.query".equals(queryMode)) {
+				parameters.put("custom.query", "SELECT * FROM bench WHERE id > :lastIndex ORDER BY id");
+			} else {
+				parameters.put("table", "bench");
+			}
+			if ("keyset".equals(queryMode)) {
+				parameters.put("keyset.column", "id");
+			}
+		}
+
+		void execute() throws Exception {
+
+			MemoryChannel channel = new MemoryChannel();
+			Context channelContext = new Context();
+			channelContext.put("capacity", String.valueOf(Math.max(10000, 4 * Integer.parseInt(parameters.get("batch.size")))));
+			channelContext.put("transactionCapacity", parameters.get("batch.size"));
+			Configurables.configure(channel, channelContext);
+			channel.start();
+
+			ReplicatingChannelSelector selector = new ReplicatingChannelSelector();
+			selector.setChannels(Collections.<Channel> singletonList(channel));
+			SQLSource source = new SQLSource();
+			source.setName("throughput");
+			source.setChannelProcessor(new ChannelProcessor(selector));
+
+			System.gc();
+			for (MemoryPoolMXBean pool : heapPools()) {
+				pool.resetPeakUsage();
+			}
+
+			Consumer consumer = new Consumer(channel, Integer.parseInt(parameters.get("batch.size")));
+			long start = System.nanoTime();
+			consumer.start(start);
+			source.configure(new Context(parameters));
+			source.start();
+			int polls = 0;
+			try {
+				while (consumer.rows.get() < rows) {
+					if (source.process() == PollableSource.Status.READY) {
+						polls++;
+					}
+				}
+				long elapsed = System.nanoTime() - start;
+				rowsPerSecond = rows * TimeUnit.SECONDS.toNanos(1) / elapsed;
+				firstEventMillis = TimeUnit.NANOSECONDS.toMillis(consumer.firstEvent - start);
+				checkpointMicros = TimeUnit.NANOSECONDS.toMicros(checkpointNanos(source.sqlSourceHelper) * polls);
+			} finally {
+				source.stop();
+				consumer.interrupt();
+				consumer.join();
+				channel.stop();
+			}
+
+			long peak = 0;
+			for (MemoryPoolMXBean pool : heapPools()) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+			peakHeapMb = peak / (1024 * 1024);
+			assertEquals(rows, consumer.rows.get());
+		}
+	}
+
+	/*
+	 * Average time of a status file update with the settings of the run, the rest of the read is
+	 * not affected by them
+	 */
+	private static long checkpointNanos(SQLSourceHelper sqlSourceHelper) {
+
+		long start = System.nanoTime();
+		for (int i = 0; i < CHECKPOINT_SAMPLES; i++) {
+			sqlSourceHelper.updateStatusFile();
+		}
+		return (System.nanoTime() - start) / CHECKPOINT_SAMPLES;
+	}
+
+	/**
+	 * Takes the events of the channel as a sink would
+	 */
+	private static class Consumer extends Thread {
+
+		private final Channel channel;
+		private final int batchSize;
+		private final AtomicLong rows = new AtomicLong();
+		private volatile long firstEvent;
+
+		Consumer(Channel channel, int batchSize) {
+			super("throughput-consumer");
+			this.channel = channel;
+			this.batchSize = batchSize;
+			setDaemon(true);
+		}
+
+		void start(long start) {
+			firstEvent = start;
+			start();
+		}
+
+		@Override
+		public void run() {
+
+			while (!isInterrupted()) {
+				Transaction transaction = channel.getTransaction();
+				transaction.begin();
+				int taken = 0;
+				try {
+					Event event;
+					while (taken < batchSize && (event = channel.take()) != null) {
+						String packed = event.getHeaders().get(SQLSource.ROWS_HEADER);
+						if (rows.get() == 0 && taken == 0) {
+							firstEvent = System.nanoTime();
+						}
+						taken += packed == null ? 1 : Integer.parseInt(packed);
+					}
+					transaction.commit();
+				} catch (RuntimeException e) {
+					transaction.rollback();
+					throw e;
+				} finally {
+					transaction.close();
+				}
+				rows.addAndGet(taken);
+				if (taken == 0) {
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	private static List<MemoryPoolMXBean> heapPools() {
+
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pools.add(pool);
+			}
+		}
+		return pools;
+	}
+
+	private static String columnType(int column) {
+
+		switch (column % 4) {
+		case 1:
+			return "BIGINT";
+		case 2:
+			return "DECIMAL(12,2)";
+		case 3:
+			return "TIMESTAMP";
+		default:
+			return "VARCHAR(64)";
+		}
+	}
+
+	private static Object cell(int row, int column) {
+
+		switch (column % 4) {
+		case 1:
+			return (long) row * column;
+		case 2:
+			return new BigDecimal(row).movePointLeft(2);
+		case 3:
+			return new Timestamp(1500000000000L + row * 1000L);
+		default:
+			return "row " + row + " column " + column;
+		}
+	}
+
+	private static List<String> list(String property, String defaultValue) {
+
+		List<String> values = new ArrayList<String>();
+		for (String value : System.getProperty(property, defaultValue).split(",")) {
+			values.add(value.trim());
+		}
+		return values;
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+
+		execute("DROP ALL OBJECTS");
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}
@@ -0,0 +1,59 @@
+package org.keedio.flume.source;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WatermarkTest {
+
+	@Test
+	public void autoKeepsNumbersAndStrings() {
+		Watermark watermark = new Watermark(new Watermark.Type[] {Watermark.Type.AUTO});
+		watermark.parse("42");
+		assertEquals(42L, watermark.get(0));
+		watermark.parse("abc");
+		assertEquals("abc", watermark.get(0));
+	}
+
+	@Test
+	public void longPastIntegerRange() {
+		Watermark watermark = new Watermark(new Watermark.Type[] {Watermark.Type.LONG});
+		watermark.advance(new Object[] {new BigDecimal("9000000000")});
+		assertEquals(9000000000L, watermark.get(0));
+		assertEquals("9000000000", watermark.toString());
+	}
+
+	@Test
+	public void timestampKeepsNanos() {
+		Watermark watermark = new Watermark(new Watermark.Type[] {Watermark.Type.TIMESTAMP});
+		Timestamp timestamp = Timestamp.valueOf("2020-01-02 03:04:05.123456789");
+		watermark.advance(new Object[] {timestamp});
+		watermark.parse(watermark.toString());
+		assertEquals(timestamp, watermark.get(0));
+
+		watermark.advance(new Object[] {new Date(5000)});
+		assertEquals(new Timestamp(5000), watermark.get(0));
+		watermark.parse("0");
+		assertEquals(new Timestamp(0), watermark.get(0));
+	}
+
+	@Test
+	public void compositeWithoutTieValue() {
+		Watermark watermark = new Watermark(new Watermark.Type[] {Watermark.Type.TIMESTAMP, Watermark.Type.STRING});
+		watermark.parse("2020-01-02 00:00:00.0");
+		assertNull(watermark.get(1));
+		assertEquals("2020-01-02 00:00:00.0", watermark.toString());
+
+		watermark.parse("2020-01-02 00:00:00.0,a,b");
+		assertEquals("a,b", watermark.get(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidDecimal() {
+		new Watermark(new Watermark.Type[] {Watermark.Type.DECIMAL}).parse("x");
+	}
+}
@@ -0,0 +1,152 @@
+package org.keedio.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.hibernate.dialect.H2Dialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+
+/**
+ * A page of an embedded H2 database whose events fail to be written half way is read again
+ */
+public class WriteFailureTest {
+
+	private static final String URL = "jdbc:h2:mem:writefailure;DB_CLOSE_DELAY=-1";
+	private static final File STATUS_DIRECTORY = new File("/tmp/flume-writefailure");
+
+	private Connection connection;
+	private MemoryChannel channel;
+	private SQLSource source;
+
+	@Before
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection(URL, "sa", "sa");
+		execute("CREATE TABLE items (id BIGINT PRIMARY KEY)");
+		execute("INSERT INTO items VALUES (1), (2), (3), (4), (5)");
+
+		channel = new MemoryChannel();
+		Context channelContext = new Context();
+		channelContext.put("keep-alive", "0");
+		Configurables.configure(channel, channelContext);
+		channel.start();
+	}
+
+	@Test
+	public void pageIsReadAgain() throws Exception {
+
+		ReplicatingChannelSelector selector = new ReplicatingChannelSelector();
+		selector.setChannels(Collections.<Channel> singletonList(channel));
+		ChannelProcessor processor = spy(new ChannelProcessor(selector));
+		/* the second batch of the page fails */
+		doAnswer(new Answer<Void>() {
+			private int batches;
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				if (++batches == 2) {
+					throw new IOException("disk full");
+				}
+				invocation.callRealMethod();
+				return null;
+			}
+		}).when(processor).processEventBatch(anyListOf(Event.class));
+		startSource(processor);
+
+		source.process();
+		assertEquals(Arrays.asList(1L, 2L), take());
+
+		/* the rows not delivered are read again, not skipped */
+		TreeSet<Long> ids = new TreeSet<Long>();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (ids.size() < 5 && System.currentTimeMillis() < deadline) {
+			source.process();
+			ids.addAll(take());
+			Thread.sleep(10);
+		}
+		assertEquals(new TreeSet<Long>(Arrays.asList(1L, 2L, 3L, 4L, 5L)), ids);
+	}
+
+	private void startSource(ChannelProcessor processor) {
+		source = new SQLSource();
+		source.setName("writefailure");
+		source.setChannelProcessor(processor);
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("hibernate.connection.url", URL);
+		parameters.put("hibernate.connection.user", "sa");
+		parameters.put("hibernate.connection.password", "sa");
+		parameters.put("hibernate.connection.driver_class", "org.h2.Driver");
+		parameters.put("hibernate.dialect", H2Dialect.class.getName());
+		parameters.put("table", "items");
+		parameters.put("keyset.column", "id");
+		parameters.put("batch.size", "2");
+		parameters.put("dedup.columns", "id");
+		parameters.put("run.query.delay", "1");
+		parameters.put("status.file.path", STATUS_DIRECTORY.getPath());
+		parameters.put("status.file.name", "items");
+		source.configure(new Context(parameters));
+		source.start();
+	}
+
+	private List<Long> take() {
+		List<Long> ids = new ArrayList<Long>();
+		Transaction transaction = channel.getTransaction();
+		transaction.begin();
+		try {
+			Event event;
+			while ((event = channel.take()) != null) {
+				ids.add(Long.parseLong(new String(event.getBody(), StandardCharsets.UTF_8).trim().replace("\"", "")));
+			}
+			transaction.commit();
+		} finally {
+			transaction.close();
+		}
+		return ids;
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	@After
+	public void cleanup() throws SQLException, IOException {
+		if (source != null) {
+			source.stop();
+		}
+		channel.stop();
+		execute("DROP ALL OBJECTS");
+		connection.close();
+		FileUtils.deleteDirectory(STATUS_DIRECTORY);
+	}
+}